@@ -0,0 +1,114 @@
+package uk.ac.warwick.java.mpi;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * An {@link MpiOp} that can also combine one operand into another in
+ * place, so that a reduction can combine each operand as it arrives
+ * without allocating a list or a result array.
+ *
+ * <p> Accumulating <code>in</code> into <code>inout</code> must give
+ * the same result as <code>run</code> on the operands
+ * <code>inout</code> and <code>in</code>, in that order. Whether the
+ * operation is commutative is declared separately, by
+ * {@link CommutativeOp}.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public interface AccumulatingOp extends MpiOp {
+  /**
+   * Combines the first <code>count</code> elements of <code>in</code>
+   * into <code>inout</code>, from <code>offset</code>.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(int[] inout, int[] in, int offset, int count);
+
+  /**
+   * Combines <code>count</code> elements read from <code>in</code>,
+   * starting at its position, into <code>inout</code>, from
+   * <code>offset</code>. The position of <code>in</code> is not changed.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand, encoded as a message's data is.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(int[] inout, ByteBuffer in, int offset, int count);
+
+  /**
+   * Combines the first <code>count</code> elements of <code>in</code>
+   * into <code>inout</code>, from <code>offset</code>.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(long[] inout, long[] in, int offset, int count);
+
+  /**
+   * Combines <code>count</code> elements read from <code>in</code>,
+   * starting at its position, into <code>inout</code>, from
+   * <code>offset</code>. The position of <code>in</code> is not changed.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand, encoded as a message's data is.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(long[] inout, ByteBuffer in, int offset, int count);
+
+  /**
+   * Combines the first <code>count</code> elements of <code>in</code>
+   * into <code>inout</code>, from <code>offset</code>.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(float[] inout, float[] in, int offset, int count);
+
+  /**
+   * Combines <code>count</code> elements read from <code>in</code>,
+   * starting at its position, into <code>inout</code>, from
+   * <code>offset</code>. The position of <code>in</code> is not changed.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand, encoded as a message's data is.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(float[] inout, ByteBuffer in, int offset, int count);
+
+  /**
+   * Combines the first <code>count</code> elements of <code>in</code>
+   * into <code>inout</code>, from <code>offset</code>.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(double[] inout, double[] in, int offset, int count);
+
+  /**
+   * Combines <code>count</code> elements read from <code>in</code>,
+   * starting at its position, into <code>inout</code>, from
+   * <code>offset</code>. The position of <code>in</code> is not changed.
+   *
+   * @param inout The operand the result is stored in.
+   * @param in The other operand, encoded as a message's data is.
+   * @param offset The position in <code>inout</code> of the first element.
+   * @param count The number of elements to combine.
+   */
+  public void accumulate(double[] inout, ByteBuffer in, int offset, int count);
+
+} // AccumulatingOp
@@ -4,8 +4,18 @@ package uk.ac.warwick.java.mpi;
 
 import java.io.File;
 import java.lang.Math;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import uk.ac.warwick.java.mpi.op.MaxLoc;
+import uk.ac.warwick.java.mpi.op.MinLoc;
 import uk.ac.warwick.java.mpi.system.*;
 
 // Import the DEBUG_MODE constant from the Mpi class
@@ -26,8 +36,53 @@ public class Comm {
 
   public int id;
 
-  protected static int REDUCE_TAG = -5;
-  protected static int BROADCAST_TAG = -10000;
+  /** Tells this communicator's messages apart from other communicators'. */
+  protected int context_;
+
+  /** The context of <code>COMM_WORLD</code>. */
+  protected static final int WORLD_CONTEXT = 0;
+
+  /** The collective context of <code>COMM_WORLD</code>. */
+  protected static final int WORLD_COLLECTIVE_CONTEXT = -1;
+  /** The tag used by the first step of the first collective on a communicator. */
+  protected static final int COLLECTIVE_TAG = 0;
+
+  /**
+   * Vectors of at least this many bytes are all-reduced around a ring
+   * rather than by recursive doubling.
+   */
+  public static final int RING_ALLREDUCE_BYTES = 1 << 16;
+
+  /**
+   * The context collectives send on, so that their messages never
+   * match point-to-point receives on this communicator.
+   */
+  protected int collectiveContext_ = WORLD_COLLECTIVE_CONTEXT;
+  /** The tag for the next step of a collective, each step uses a new tag. */
+  protected int collectiveTag_ = COLLECTIVE_TAG;
+
+  /** Broadcasts of at least this many bytes are split into segments and pipelined. */
+  public static final int PIPELINE_BCAST_BYTES = 1 << 16;
+  /** Broadcasts of at least this many bytes are scattered and then allgathered. */
+  public static final int SCATTER_BCAST_BYTES = 1 << 23;
+  /** The size of the segments of a pipelined broadcast, unless set otherwise. */
+  public static final int SEGMENT_BYTES = 1 << 16;
+
+  /** The size in bytes of the segments of a pipelined broadcast. */
+  protected int segmentBytes_ = SEGMENT_BYTES;
+
+  /**
+   * Allgathers of at least this many bytes, or on a number of
+   * processes that isn't a power of two, go around a ring rather than
+   * by recursive doubling.
+   */
+  public static final int RING_ALLGATHER_BYTES = 1 << 16;
+
+  /** Alltoalls whose blocks are at most this many bytes use Bruck's algorithm. */
+  public static final int BRUCK_ALLTOALL_BYTES = 256;
+
+  /** The payload of barrier messages. */
+  private static final int[] NO_DATA = new int[0];
 
   /**
    * Constructs a new Communicator without using a host file, all
@@ -52,7 +107,21 @@ public class Comm {
    * @param group The group that describes this communicator
    */
   public Comm(Group group) {
+    this(group, WORLD_CONTEXT);
+  }
+
+  /**
+   * Constructs a new communicator over <code>group</code> whose
+   * messages are sent on <code>context</code>.
+   *
+   * @param group The group that describes this communicator
+   * @param context The context, which every member must use for this
+   * communicator and no other.
+   */
+  protected Comm(Group group, int context) {
     group_ = group;
+    context_ = context;
+    collectiveContext_ = WORLD_COLLECTIVE_CONTEXT - context;
   }
 
   /**
@@ -74,6 +143,117 @@ public class Comm {
     return group_.Rank();
   }
 
+  /**
+   * Returns the group of this communicator, from which groups for new
+   * communicators can be made.
+   *
+   * @return The <code>Group</code> of this communicator.
+   */
+  public Group Group() {
+    return group_;
+  }
+
+  /**
+   * Sets the size of the segments that large broadcasts on this
+   * communicator are split into. Smaller segments let a broadcast
+   * reach the leaves of the tree sooner, at the cost of more
+   * messages. Every process must set the same size.
+   *
+   * @param bytes The segment size in bytes.
+   */
+  public void SetSegmentSize(int bytes) {
+    if (bytes <= 0) {
+      throw new MpiException("Segment size must be positive: " + bytes);
+    }
+
+    segmentBytes_ = bytes;
+  }
+
+  /**
+   * Creates a new communicator with the same processes as this one,
+   * whose messages never match this one's. Every process in this
+   * communicator must call it.
+   *
+   * @return The new communicator.
+   */
+  public Comm Dup() {
+    return new Comm(group_, newContext());
+  }
+
+  /**
+   * Splits this communicator into one new communicator for each
+   * <code>color</code>. Processes are ranked in their new
+   * communicator by <code>key</code>, then by their rank in this one.
+   * Every process in this communicator must call it.
+   *
+   * @param color The communicator to join, or <code>Mpi.UNDEFINED</code>
+   * to join none.
+   * @param key Orders the processes within the new communicator.
+   * @return The new communicator, or <code>Mpi.COMM_NULL</code> if
+   * <code>color</code> is <code>Mpi.UNDEFINED</code>.
+   */
+  public Comm Split(int color, int key) {
+    int size = Size();
+    final int[] all = new int[2*size];
+
+    Allgather(new int[] {color, key}, all);
+
+    // Processes with different colours are in different groups, so
+    // they can all share one new context
+    int context = newContext();
+
+    if (color == Mpi.UNDEFINED) {
+      return Mpi.COMM_NULL;
+    }
+
+    ArrayList<Integer> members = new ArrayList<Integer>();
+
+    for (int i = 0; i < size; i++) {
+      if (all[2*i] == color) {
+        members.add(i);
+      }
+    }
+
+    Collections.sort(members, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          int keyA = all[2*a + 1];
+          int keyB = all[2*b + 1];
+
+          if (keyA != keyB) return (keyA < keyB) ? -1 : 1;
+          return a.compareTo(b);
+        }
+      });
+
+    int[] ranks = new int[members.size()];
+
+    for (int i = 0; i < ranks.length; i++) {
+      ranks[i] = members.get(i);
+    }
+
+    return new Comm(group_.Incl(ranks), context);
+  }
+
+  /**
+   * Creates a new communicator for the processes in
+   * <code>group</code>, which must be a subset of this communicator's
+   * group. Every process in this communicator must call it, with the
+   * same group.
+   *
+   * @param group The processes in the new communicator, made from
+   * this communicator's <code>Group()</code>.
+   * @return The new communicator, or <code>Mpi.COMM_NULL</code> on
+   * processes that are not in <code>group</code>.
+   */
+  public Comm Create(Group group) {
+    int context = newContext();
+
+    if (group.Rank() == Mpi.UNDEFINED) {
+      return Mpi.COMM_NULL;
+    }
+
+    return new Comm(group, context);
+  }
+
   /**
    * Blocking send of the values in the array <code>data</code> to the
    * process of rank <code>dest</code>.
@@ -86,12 +266,13 @@ public class Comm {
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Send(int[]) method");
     }
-    Message message = new Message(Message.dataToByteArray(data), Rank(), tag, Message.TYPE_INT);
+    Message message = Message.create(data, Rank(), tag);
     if (DEBUG_MODE) {
       System.err.println("Comm: \tSending...");
       System.err.println(message);
     }
-    group_.Send(message, dest);
+    send(message, dest);
+    message.release();
   }
 
   /**
@@ -106,12 +287,13 @@ public class Comm {
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Send(int[]) method");
     }
-    Message message = new Message(Message.dataToByteArray(data), Rank(), tag, Message.TYPE_LONG);
+    Message message = Message.create(data, Rank(), tag);
     if (DEBUG_MODE) {
       System.err.println("Comm: \tSending...");
       System.err.println(message);
     }
-    group_.Send(message, dest);
+    send(message, dest);
+    message.release();
   }
 
   /**
@@ -126,12 +308,13 @@ public class Comm {
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Send(int[]) method");
     }
-    Message message = new Message(Message.dataToByteArray(data), Rank(), tag, Message.TYPE_FLOAT);
+    Message message = Message.create(data, Rank(), tag);
     if (DEBUG_MODE) {
       System.err.println("Comm: \tSending...");
       System.err.println(message);
     }
-    group_.Send(message, dest);
+    send(message, dest);
+    message.release();
   }
 
   /**
@@ -146,12 +329,13 @@ public class Comm {
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Send(int[]) method");
     }
-    Message message = new Message(Message.dataToByteArray(data), Rank(), tag, Message.TYPE_DOUBLE);
+    Message message = Message.create(data, Rank(), tag);
     if (DEBUG_MODE) {
       System.err.println("Comm: \tSending...");
       System.err.println(message);
     }
-    group_.Send(message, dest);
+    send(message, dest);
+    message.release();
   }
 
   /**
@@ -165,12 +349,12 @@ public class Comm {
    * @param status The object holding the status of this operation.
    */
   public void Recv(int[] data, int source, int tag, Status status) {
-    Message message = group_.Recv(source, tag);
+    Message message = group_.Recv(context_, source, tag);
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered receive method, group_.Recv complete");
     }
 
-    if (message.dataToPrimitiveInt().length != data.length) {
+    if (message.getDataLength() != 4*data.length) {
       throw new MpiException("Message lengths do not match!");
     }
     else if (message.getType() != Message.TYPE_INT) {
@@ -181,12 +365,14 @@ public class Comm {
         System.err.println("Comm: \tCopying message data to user buffer");
       }
 
-      System.arraycopy(message.dataToPrimitiveInt(),0,data,0, data.length);
+      message.dataToPrimitiveInt(data, 0);
     }
 
     status.setSource(message.getSource());
     status.setTag(message.getTag());
     status.setError(Mpi.SUCCESS);
+
+    message.release();
   }
 
 
@@ -201,13 +387,13 @@ public class Comm {
    * @param status The object holding the status of this operation.
    */
   public void Recv(long[] data, int source, int tag, Status status) {
-    Message message = group_.Recv(source, tag);
+    Message message = group_.Recv(context_, source, tag);
 
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered receive method, group_.Recv complete");
     }
 
-    if (message.dataToPrimitiveLong().length != data.length) {
+    if (message.getDataLength() != 8*data.length) {
       throw new MpiException("Message lengths do not match!");
     }
     else if (message.getType() != Message.TYPE_LONG) {
@@ -218,12 +404,14 @@ public class Comm {
         System.err.println("Comm: \tCopying message data to user buffer");
       }
 
-      System.arraycopy(message.dataToPrimitiveLong(),0,data,0, data.length);
+      message.dataToPrimitiveLong(data, 0);
     }
 
     status.setSource(message.getSource());
     status.setTag(message.getTag());
     status.setError(Mpi.SUCCESS);
+
+    message.release();
   }
 
 
@@ -238,13 +426,13 @@ public class Comm {
    * @param status The object holding the status of this operation.
    */
   public void Recv(float[] data, int source, int tag, Status status) {
-    Message message = group_.Recv(source, tag);
+    Message message = group_.Recv(context_, source, tag);
 
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered receive method, group_.Recv complete");
     }
 
-    if (message.dataToPrimitiveFloat().length != data.length) {
+    if (message.getDataLength() != 4*data.length) {
       throw new MpiException("Message lengths do not match!");
     }
     else if (message.getType() != Message.TYPE_FLOAT) {
@@ -255,12 +443,14 @@ public class Comm {
         System.err.println("Comm: \tCopying message data to user buffer");
       }
 
-      System.arraycopy(message.dataToPrimitiveFloat(),0,data,0, data.length);
+      message.dataToPrimitiveFloat(data, 0);
     }
 
     status.setSource(message.getSource());
     status.setTag(message.getTag());
     status.setError(Mpi.SUCCESS);
+
+    message.release();
   }
 
 
@@ -275,14 +465,14 @@ public class Comm {
    * @param status The object holding the status of this operation.
    */
   public void Recv(double[] data, int source, int tag, Status status) {
-    Message message = group_.Recv(source, tag);
+    Message message = group_.Recv(context_, source, tag);
 
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered receive method, group_.Recv complete");
     }
 
-    if (message.dataToPrimitiveDouble().length != data.length) {
-      throw new MpiException("Message lengths do not match! Got " + message.dataToPrimitiveDouble().length + " and was expecting " + data.length);
+    if (message.getDataLength() != 8*data.length) {
+      throw new MpiException("Message lengths do not match! Got " + message.getDataLength()/8 + " and was expecting " + data.length);
     }
     else if (message.getType() != Message.TYPE_DOUBLE) {
       throw new MpiException("Message types do not match, please check your tag usage");
@@ -292,23 +482,282 @@ public class Comm {
         System.err.println("Comm: \tCopying message data to user buffer");
       }
 
-      System.arraycopy(message.dataToPrimitiveDouble(),0,data,0, data.length);
+      message.dataToPrimitiveDouble(data, 0);
     }
 
     status.setSource(message.getSource());
     status.setTag(message.getTag());
     status.setError(Mpi.SUCCESS);
+
+    message.release();
+  }
+
+  /**
+   * Non-blocking send of the values in the array <code>data</code> to
+   * the process of rank <code>dest</code>. The data is copied before
+   * this returns, so <code>data</code> may be reused straight away.
+   *
+   * @param data The array of values to be sent.
+   * @param dest The rank of the destination process.
+   * @param tag The tag for the message.
+   * @return The <code>Request</code> for the send.
+   */
+  public Request Isend(int[] data, int dest, int tag) {
+    Message message = Message.create(data, Rank(), tag);
+    return new SendRequest(message, dest, tag);
+  }
+
+  /**
+   * Non-blocking send of the values in the array <code>data</code> to
+   * the process of rank <code>dest</code>. The data is copied before
+   * this returns, so <code>data</code> may be reused straight away.
+   *
+   * @param data The array of values to be sent.
+   * @param dest The rank of the destination process.
+   * @param tag The tag for the message.
+   * @return The <code>Request</code> for the send.
+   */
+  public Request Isend(long[] data, int dest, int tag) {
+    Message message = Message.create(data, Rank(), tag);
+    return new SendRequest(message, dest, tag);
+  }
+
+  /**
+   * Non-blocking send of the values in the array <code>data</code> to
+   * the process of rank <code>dest</code>. The data is copied before
+   * this returns, so <code>data</code> may be reused straight away.
+   *
+   * @param data The array of values to be sent.
+   * @param dest The rank of the destination process.
+   * @param tag The tag for the message.
+   * @return The <code>Request</code> for the send.
+   */
+  public Request Isend(float[] data, int dest, int tag) {
+    Message message = Message.create(data, Rank(), tag);
+    return new SendRequest(message, dest, tag);
+  }
+
+  /**
+   * Non-blocking send of the values in the array <code>data</code> to
+   * the process of rank <code>dest</code>. The data is copied before
+   * this returns, so <code>data</code> may be reused straight away.
+   *
+   * @param data The array of values to be sent.
+   * @param dest The rank of the destination process.
+   * @param tag The tag for the message.
+   * @return The <code>Request</code> for the send.
+   */
+  public Request Isend(double[] data, int dest, int tag) {
+    Message message = Message.create(data, Rank(), tag);
+    return new SendRequest(message, dest, tag);
+  }
+
+  /**
+   * Non-blocking receive of a message from process
+   * <code>source</code>. The data is copied into the array
+   * <code>data</code> as soon as the message arrives, and the request
+   * completes then.
+   *
+   * @param data The array to copy the data into.
+   * @param source The rank of the source process, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The tag of the message, or <code>Mpi.ANY_TAG</code>.
+   * @return The <code>Request</code> for the receive.
+   */
+  public Request Irecv(int[] data, int source, int tag) {
+    return new RecvRequest(data, data.length, source, tag, Message.TYPE_INT);
+  }
+
+  /**
+   * Non-blocking receive of a message from process
+   * <code>source</code>. The data is copied into the array
+   * <code>data</code> as soon as the message arrives, and the request
+   * completes then.
+   *
+   * @param data The array to copy the data into.
+   * @param source The rank of the source process, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The tag of the message, or <code>Mpi.ANY_TAG</code>.
+   * @return The <code>Request</code> for the receive.
+   */
+  public Request Irecv(long[] data, int source, int tag) {
+    return new RecvRequest(data, data.length, source, tag, Message.TYPE_LONG);
+  }
+
+  /**
+   * Non-blocking receive of a message from process
+   * <code>source</code>. The data is copied into the array
+   * <code>data</code> as soon as the message arrives, and the request
+   * completes then.
+   *
+   * @param data The array to copy the data into.
+   * @param source The rank of the source process, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The tag of the message, or <code>Mpi.ANY_TAG</code>.
+   * @return The <code>Request</code> for the receive.
+   */
+  public Request Irecv(float[] data, int source, int tag) {
+    return new RecvRequest(data, data.length, source, tag, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Non-blocking receive of a message from process
+   * <code>source</code>. The data is copied into the array
+   * <code>data</code> as soon as the message arrives, and the request
+   * completes then.
+   *
+   * @param data The array to copy the data into.
+   * @param source The rank of the source process, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The tag of the message, or <code>Mpi.ANY_TAG</code>.
+   * @return The <code>Request</code> for the receive.
+   */
+  public Request Irecv(double[] data, int source, int tag) {
+    return new RecvRequest(data, data.length, source, tag, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * A non-blocking send, complete once the message has been sent.
+   */
+  private class SendRequest extends Request {
+    private Future<?> future_;
+    private int tag_;
+
+    /**
+     * Starts sending the message on this communicator's context.
+     */
+    SendRequest(Message message, int dest, int tag) {
+      tag_ = tag;
+
+      message.setContext(context_);
+      future_ = group_.Isend(message, dest, new Runnable() {
+          public void run() {
+            signalComplete();
+          }
+        });
+    }
+
+    protected Status complete() {
+      try {
+        future_.get();
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new MpiException("Interrupted while waiting for a send");
+      } catch (ExecutionException executionException) {
+        throw new MpiException("Send failed: " + executionException.getCause());
+      }
+
+      return new Status(Rank(), tag_, Mpi.SUCCESS);
+    }
+
+    protected Status tryComplete() {
+      return future_.isDone() ? complete() : null;
+    }
+  }
+
+  /**
+   * A non-blocking receive, complete once a matching message has
+   * arrived and been copied into the user's array.
+   *
+   * <p> The receive is posted as soon as it is created, so a message
+   * that arrives later is decoded into the array by the thread that
+   * delivers it.
+   */
+  private class RecvRequest extends Request {
+    private Object data_;
+    private int length_;
+    private int type_;
+
+    private CountDownLatch done_ = new CountDownLatch(1);
+    private volatile Status status_;
+    private volatile MpiException error_;
+
+    RecvRequest(Object data, int length, int source, int tag, int type) {
+      data_ = data;
+      length_ = length;
+      type_ = type;
+
+      group_.Post(new PostedReceive(context_, source, tag) {
+          protected void deliver(Message message) {
+            try {
+              status_ = unpack(message);
+            } catch (MpiException mpiException) {
+              error_ = mpiException;
+            } finally {
+              done_.countDown();
+              signalComplete();
+            }
+          }
+        });
+    }
+
+    protected Status complete() {
+      try {
+        done_.await();
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new MpiException("Interrupted while waiting for a receive");
+      }
+
+      if (error_ != null) {
+        throw error_;
+      }
+
+      return status_;
+    }
+
+    protected Status tryComplete() {
+      return (done_.getCount() == 0) ? complete() : null;
+    }
+
+    private Status unpack(Message message) {
+      try {
+        if (message.getDataLength() != Message.sizeOf(type_)*length_) {
+          throw new MpiException("Message lengths do not match!");
+        }
+        else if (message.getType() != type_) {
+          throw new MpiException("Message types do not match, please check your tag usage");
+        }
+
+        switch (type_) {
+          case Message.TYPE_INT:
+            message.dataToPrimitiveInt((int[]) data_, 0);
+            break;
+          case Message.TYPE_LONG:
+            message.dataToPrimitiveLong((long[]) data_, 0);
+            break;
+          case Message.TYPE_FLOAT:
+            message.dataToPrimitiveFloat((float[]) data_, 0);
+            break;
+          default:
+            message.dataToPrimitiveDouble((double[]) data_, 0);
+            break;
+        }
+
+        return new Status(message.getSource(), message.getTag(), Mpi.SUCCESS);
+      } finally {
+        message.release();
+      }
+    }
   }
 
   /**
    * Broadcasts the data in the <code>data</code> array from the
-   * process with rank <code>root</code> to all other processes.
+   * process with rank <code>root</code> to all other processes. Large
+   * arrays are broadcast in segments, see {@link #SetSegmentSize}.
    *
    * @param data The array containing the data (at root) and where the
    * data will be stored at the other processes.
    * @param root The rank of the processes to be used as the root.
    */
   public void Bcast(int[] data, int root) {
+    if ((long) data.length * Message.sizeOf(Message.TYPE_INT) < PIPELINE_BCAST_BYTES || Size() == 1) {
+      tree_bcast(data, root);
+    }
+    else {
+      largeBcast(data, data.length, root, Message.TYPE_INT);
+    }
+  }
+
+  private void tree_bcast(int[] data, int root) {
+    int tag = nextCollectiveTags(1);
+
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Bcast int[]");
     }
@@ -345,7 +794,7 @@ public class Comm {
         }
 
         // Copy the received message into recv.
-        recv = group_.Recv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), BROADCAST_TAG);
+        recv = collectiveRecv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), tag);
         // Set received to true
         received = true;
 
@@ -359,7 +808,7 @@ public class Comm {
           throw new MpiException("Message types do not match, please check your tag usage");
         }
         else {
-          System.arraycopy(recv.dataToPrimitiveInt(), 0, data, 0, recv.dataToPrimitiveInt().length);
+          recv.dataToPrimitiveInt(data, 0);
         }
       }
 
@@ -376,28 +825,42 @@ public class Comm {
         }
         // Otherwise read in the values from the given data (this should only happen at the "root")
         else {
-          send = new Message(Message.dataToByteArray(data), originalRank(root,rank,size), BROADCAST_TAG, Message.TYPE_INT);
+          send = Message.create(data, originalRank(root,rank,size), tag);
           recv = send;
           received = true;
         }
 
         // Send the message
-        group_.Send(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
+        collectiveSend(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
       }
     }
 
-    BROADCAST_TAG--;
+    if (recv != null) {
+      recv.release();
+    }
   }
 
   /**
    * Broadcasts the data in the <code>data</code> array from the
-   * process with rank <code>root</code> to all other processes.
+   * process with rank <code>root</code> to all other processes. Large
+   * arrays are broadcast in segments, see {@link #SetSegmentSize}.
    *
    * @param data The array containing the data (at root) and where the
    * data will be stored at the other processes.
    * @param root The rank of the processes to be used as the root.
    */
   public void Bcast(long[] data, int root) {
+    if ((long) data.length * Message.sizeOf(Message.TYPE_LONG) < PIPELINE_BCAST_BYTES || Size() == 1) {
+      tree_bcast(data, root);
+    }
+    else {
+      largeBcast(data, data.length, root, Message.TYPE_LONG);
+    }
+  }
+
+  private void tree_bcast(long[] data, int root) {
+    int tag = nextCollectiveTags(1);
+
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Bcast long[]");
     }
@@ -434,7 +897,7 @@ public class Comm {
         }
 
         // Copy the received message into recv.
-        recv = group_.Recv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), BROADCAST_TAG);
+        recv = collectiveRecv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), tag);
         // Set received to true
         received = true;
 
@@ -446,7 +909,7 @@ public class Comm {
           throw new MpiException("Message types do not match, please check your tag usage");
         }
         else {
-          System.arraycopy(recv.dataToPrimitiveLong(), 0, data, 0, recv.dataToPrimitiveLong().length);
+          recv.dataToPrimitiveLong(data, 0);
         }
       }
 
@@ -463,28 +926,42 @@ public class Comm {
         }
         // Otherwise read in the values from the given data (this should only happen at the "root")
         else {
-          send = new Message(Message.dataToByteArray(data), originalRank(root,rank,size), BROADCAST_TAG, Message.TYPE_LONG);
+          send = Message.create(data, originalRank(root,rank,size), tag);
           recv = send;
           received = true;
         }
 
         // Send the message
-        group_.Send(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
+        collectiveSend(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
       }
     }
 
-    BROADCAST_TAG--;
+    if (recv != null) {
+      recv.release();
+    }
   }
 
   /**
    * Broadcasts the data in the <code>data</code> array from the
-   * process with rank <code>root</code> to all other processes.
+   * process with rank <code>root</code> to all other processes. Large
+   * arrays are broadcast in segments, see {@link #SetSegmentSize}.
    *
    * @param data The array containing the data (at root) and where the
    * data will be stored at the other processes.
    * @param root The rank of the processes to be used as the root.
    */
   public void Bcast(float[] data, int root) {
+    if ((long) data.length * Message.sizeOf(Message.TYPE_FLOAT) < PIPELINE_BCAST_BYTES || Size() == 1) {
+      tree_bcast(data, root);
+    }
+    else {
+      largeBcast(data, data.length, root, Message.TYPE_FLOAT);
+    }
+  }
+
+  private void tree_bcast(float[] data, int root) {
+    int tag = nextCollectiveTags(1);
+
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Bcast float[]");
     }
@@ -521,7 +998,7 @@ public class Comm {
         }
 
         // Copy the received message into recv.
-        recv = group_.Recv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), BROADCAST_TAG);
+        recv = collectiveRecv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), tag);
         // Set received to true
         received = true;
 
@@ -533,7 +1010,7 @@ public class Comm {
           throw new MpiException("Message types do not match, please check your tag usage");
         }
         else {
-          System.arraycopy(recv.dataToPrimitiveFloat(), 0, data, 0, recv.dataToPrimitiveFloat().length);
+          recv.dataToPrimitiveFloat(data, 0);
         }
       }
 
@@ -550,28 +1027,42 @@ public class Comm {
         }
         // Otherwise read in the values from the given data (this should only happen at the "root")
         else {
-          send = new Message(Message.dataToByteArray(data), originalRank(root,rank,size), BROADCAST_TAG, Message.TYPE_FLOAT);
+          send = Message.create(data, originalRank(root,rank,size), tag);
           recv = send;
           received = true;
         }
 
         // Send the message
-        group_.Send(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
+        collectiveSend(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
       }
     }
 
-    BROADCAST_TAG--;
+    if (recv != null) {
+      recv.release();
+    }
   }
 
   /**
    * Broadcasts the data in the <code>data</code> array from the
-   * process with rank <code>root</code> to all other processes.
+   * process with rank <code>root</code> to all other processes. Large
+   * arrays are broadcast in segments, see {@link #SetSegmentSize}.
    *
    * @param data The array containing the data (at root) and where the
    * data will be stored at the other processes.
    * @param root The rank of the processes to be used as the root.
    */
   public void Bcast(double[] data, int root) {
+    if ((long) data.length * Message.sizeOf(Message.TYPE_DOUBLE) < PIPELINE_BCAST_BYTES || Size() == 1) {
+      tree_bcast(data, root);
+    }
+    else {
+      largeBcast(data, data.length, root, Message.TYPE_DOUBLE);
+    }
+  }
+
+  private void tree_bcast(double[] data, int root) {
+    int tag = nextCollectiveTags(1);
+
     if (DEBUG_MODE) {
       System.err.println("Comm: \tEntered Bcast double[]");
     }
@@ -608,7 +1099,7 @@ public class Comm {
         }
 
         // Copy the received message into recv.
-        recv = group_.Recv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), BROADCAST_TAG);
+        recv = collectiveRecv(originalRank(root, (int)(rank-Math.pow(2,stage)), size), tag);
         // Set received to true
         received = true;
 
@@ -620,7 +1111,7 @@ public class Comm {
           throw new MpiException("Message types do not match, please check your tag usage");
         }
         else {
-          System.arraycopy(recv.dataToPrimitiveDouble(), 0, data, 0, recv.dataToPrimitiveDouble().length);
+          recv.dataToPrimitiveDouble(data, 0);
         }
       }
 
@@ -637,105 +1128,397 @@ public class Comm {
         }
         // Otherwise read in the values from the given data (this should only happen at the "root")
         else {
-          send = new Message(Message.dataToByteArray(data), originalRank(root,rank,size), BROADCAST_TAG, Message.TYPE_DOUBLE);
+          send = Message.create(data, originalRank(root,rank,size), tag);
           recv = send;
           received = true;
         }
 
         // Send the message
-        group_.Send(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
+        collectiveSend(send, originalRank(root, (int)(rank+Math.pow(2,stage)), size));
       }
     }
 
-    BROADCAST_TAG--;
+    if (recv != null) {
+      recv.release();
+    }
   }
 
-  protected static int relativeRank(int root, int currentRank, int size) {
-    return (currentRank >= root) ? currentRank-root: (currentRank - root) + size;
-  }
+  /**
+   * Agrees a context for a new communicator with the other processes
+   * in this one. Each proposes the lowest context it has not used, and
+   * the highest proposal is free on all of them.
+   */
+  private int newContext() {
+    Processor local = group_.getLocalProcessor();
+    int[] proposed = { local.getNextContext() };
+    int[] agreed = new int[1];
 
-  protected static int originalRank(int root, int relativeRank, int size) {
-    return relativeRank(relativeRank(root,0,size), relativeRank, size);
+    AllReduce(proposed, agreed, Mpi.MAX);
+
+    local.setNextContext(agreed[0] + 1);
+    return agreed[0];
   }
 
   /**
-   * Provides a global synchronization point. It is guaranteed that no
-   * process will complete <code>Barrier</code> until all other
-   * processes have entered.
+   * Sends the message on this communicator's context.
    */
-  public void Barrier() {
-    int[] bcastData = {0};
-    int[] outdata = new int[1];
-
-    AllReduce(bcastData,outdata,Mpi.SUM);
+  private void send(Message message, int dest) {
+    message.setContext(context_);
+    group_.Send(message, dest);
   }
 
   /**
-   * Reduction operation, collects the data and performs the operation
-   * described by <code>op</code> on it. After completion, the result will reside
-   * on the process <code>root</code>.
+   * Reserves <code>n</code> consecutive tags for the steps of a
+   * collective. Messages between the same pair of processes with the
+   * same tag may be delivered out of order, so no two messages in one
+   * direction between a pair may share a tag. A collective in which no
+   * pair exchanges more than one message each way therefore needs only
+   * one tag; the others reserve one per step.
    *
-   * @param inData The input data or operand.
-   * @param outData The array where the result will be placed on process <code>root</code>.
-   * @param op The operation to perform on the data.
-   * @param root The process where the result will be placed.
+   * @return The first of the tags.
    */
-  public void Reduce(int[] inData, int[] outData, MpiOp op, int root) {
-
-    if (TREE) {
-      tree_reduce(inData, outData, op, root);
-    } else {
-      naive_reduce(inData, outData, op, root);
+  private int nextCollectiveTags(int n) {
+    if (collectiveTag_ > Integer.MAX_VALUE - n) {
+      collectiveTag_ = COLLECTIVE_TAG;
     }
 
-    REDUCE_TAG--;
+    int tag = collectiveTag_;
+    collectiveTag_ += n;
+    return tag;
   }
 
-  private void tree_reduce(int[] inData, int[] outData, MpiOp op, int root) {
-
-    int oldrank = Rank();
-    int orig_size = Size();
-    int size = orig_size;
-    int rank = relativeRank(root, oldrank, size);
-    Message recv;
-    int[] current = inData;
-
-    /*
-     * Binary tree reduction
-     */
-    for (int stage = (int) Math.ceil(Math.log(size)/Math.log(2)); stage > 0; stage--) {
+  /**
+   * Sends <code>length</code> elements of <code>data</code> from
+   * <code>offset</code> on this communicator's collective context.
+   */
+  private void collectiveSend(Object data, int offset, int length, int dest, int tag, int type) {
+    Message message = pack(data, offset, length, Rank(), tag, type);
+    message.setContext(collectiveContext_);
+    group_.Send(message, dest);
+    message.release();
+  }
 
-      //System.out.println("Stage = " + stage);
+  /**
+   * Sends the message on this communicator's collective context.
+   */
+  private void collectiveSend(Message message, int dest) {
+    message.setContext(collectiveContext_);
+    group_.Send(message, dest);
+  }
 
-       if (rank < Math.pow(2,stage) && rank >= Math.pow(2,stage-1)) {
+  /**
+   * Starts sending <code>length</code> elements of <code>data</code>
+   * from <code>offset</code> on this communicator's collective
+   * context. The data is copied before this returns.
+   */
+  private Future<?> collectiveIsend(Object data, int offset, int length, int dest, int tag, int type) {
+    Message message = pack(data, offset, length, Rank(), tag, type);
+    message.setContext(collectiveContext_);
+    return group_.Isend(message, dest);
+  }
 
-         //System.out.println(rank + " sending to... " + originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+  /**
+   * Waits for sends started by {@link #collectiveIsend}.
+   */
+  private static void waitAll(ArrayList<Future<?>> sends) {
+    for (Future<?> send : sends) {
+      try {
+        send.get();
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new MpiException("Interrupted while waiting for a send");
+      } catch (ExecutionException executionException) {
+        throw new MpiException("Send failed: " + executionException.getCause());
+      }
+    }
+  }
+
+  /**
+   * Receives a message on this communicator's collective context.
+   */
+  private Message collectiveRecv(int source, int tag) {
+    return group_.Recv(collectiveContext_, source, tag);
+  }
+
+  private static Message pack(Object data, int offset, int length, int source, int tag, int type) {
+    switch (type) {
+      case Message.TYPE_INT:
+        return Message.create((int[]) data, offset, length, source, tag);
+      case Message.TYPE_LONG:
+        return Message.create((long[]) data, offset, length, source, tag);
+      case Message.TYPE_FLOAT:
+        return Message.create((float[]) data, offset, length, source, tag);
+      default:
+        return Message.create((double[]) data, offset, length, source, tag);
+    }
+  }
+
+  /**
+   * Decodes the message into a new array and releases it.
+   */
+  private static Object unpack(Message message, int type) {
+    Object data = newArray(type, message.getDataLength() / Message.sizeOf(type));
+    unpackInto(message, data, 0, type);
+    return data;
+  }
+
+  /**
+   * Decodes the message into <code>data</code> from
+   * <code>offset</code> and releases it.
+   */
+  private static void unpackInto(Message message, Object data, int offset, int type) {
+    try {
+      switch (type) {
+        case Message.TYPE_INT:
+          message.dataToPrimitiveInt((int[]) data, offset);
+          break;
+        case Message.TYPE_LONG:
+          message.dataToPrimitiveLong((long[]) data, offset);
+          break;
+        case Message.TYPE_FLOAT:
+          message.dataToPrimitiveFloat((float[]) data, offset);
+          break;
+        default:
+          message.dataToPrimitiveDouble((double[]) data, offset);
+          break;
+      }
+    } finally {
+      message.release();
+    }
+  }
+
+  private static Object newArray(int type, int length) {
+    switch (type) {
+      case Message.TYPE_INT:
+        return new int[length];
+      case Message.TYPE_LONG:
+        return new long[length];
+      case Message.TYPE_FLOAT:
+        return new float[length];
+      default:
+        return new double[length];
+    }
+  }
+
+  /**
+   * Applies <code>op</code> to the two operands, <code>a</code> first.
+   *
+   * @return A new array holding the result.
+   */
+  private static Object combine(MpiOp op, Object a, Object b, int type) {
+    return combine(op, new Object[] {a, b}, type);
+  }
+
+  /**
+   * Applies <code>op</code> to the operands, in order.
+   *
+   * @return A new array holding the result.
+   */
+  private static Object combine(MpiOp op, Object[] operands, int type) {
+    switch (type) {
+      case Message.TYPE_INT: {
+        ArrayList<int[]> list = new ArrayList<int[]>(operands.length);
+        for (Object operand : operands) list.add((int[]) operand);
+        return op.run(list);
+      }
+      case Message.TYPE_LONG: {
+        ArrayList<long[]> list = new ArrayList<long[]>(operands.length);
+        for (Object operand : operands) list.add((long[]) operand);
+        return op.run(list);
+      }
+      case Message.TYPE_FLOAT: {
+        ArrayList<float[]> list = new ArrayList<float[]>(operands.length);
+        for (Object operand : operands) list.add((float[]) operand);
+        return op.run(list);
+      }
+      default: {
+        ArrayList<double[]> list = new ArrayList<double[]>(operands.length);
+        for (Object operand : operands) list.add((double[]) operand);
+        return op.run(list);
+      }
+    }
+  }
+
+  /**
+   * Combines the elements of <code>data</code> from
+   * <code>offset</code> with the operand in the message, stores the
+   * result back in <code>data</code> and releases the message. If
+   * <code>op</code> is an {@link AccumulatingOp} the operand is read
+   * straight from the message's bytes and combined in place, unless
+   * it must go first and <code>op</code> isn't commutative.
+   *
+   * @param receivedFirst True if the message comes from a lower rank,
+   * and so its operand goes first.
+   */
+  private static void combineInto(MpiOp op, Object data, int offset, Message message,
+                                  boolean receivedFirst, int type) {
+    int length = message.getDataLength() / Message.sizeOf(type);
+
+    if (op instanceof AccumulatingOp && (!receivedFirst || isCommutative(op))) {
+      AccumulatingOp accumulating = (AccumulatingOp) op;
+
+      try {
+        ByteBuffer in = message.dataBuffer();
+
+        switch (type) {
+          case Message.TYPE_INT:
+            accumulating.accumulate((int[]) data, in, offset, length);
+            break;
+          case Message.TYPE_LONG:
+            accumulating.accumulate((long[]) data, in, offset, length);
+            break;
+          case Message.TYPE_FLOAT:
+            accumulating.accumulate((float[]) data, in, offset, length);
+            break;
+          default:
+            accumulating.accumulate((double[]) data, in, offset, length);
+            break;
+        }
+      } finally {
+        message.release();
+      }
+
+      return;
+    }
+
+    Object received = unpack(message, type);
+    Object local = newArray(type, length);
+    System.arraycopy(data, offset, local, 0, length);
+
+    Object result = receivedFirst ? combine(op, received, local, type) : combine(op, local, received, type);
+    System.arraycopy(result, 0, data, offset, length);
+  }
+
+  /**
+   * @return True if the result of <code>op</code> doesn't depend on
+   * the order of its operands.
+   */
+  private static boolean isCommutative(MpiOp op) {
+    return op instanceof CommutativeOp;
+  }
+
+  /**
+   * @return True if <code>op</code> records where its result came
+   * from, which it can only do when it is given every process's
+   * operand at once, in rank order.
+   */
+  private static boolean tracksLocations(MpiOp op) {
+    return op instanceof MaxLoc || op instanceof MinLoc;
+  }
+
+  protected static int relativeRank(int root, int currentRank, int size) {
+    return (currentRank >= root) ? currentRank-root: (currentRank - root) + size;
+  }
+
+  protected static int originalRank(int root, int relativeRank, int size) {
+    return relativeRank(relativeRank(root,0,size), relativeRank, size);
+  }
+
+  /**
+   * Provides a global synchronization point. It is guaranteed that no
+   * process will complete <code>Barrier</code> until all other
+   * processes have entered.
+   *
+   * <p> Uses a dissemination barrier: in round k each process signals
+   * the process 2^k ranks above it and waits for the one 2^k ranks
+   * below, so after ceil(log2(size)) rounds every process has heard,
+   * directly or not, from all the others. The messages carry no data.
+   */
+  public void Barrier() {
+    int size = Size();
+    int rank = Rank();
+    int tag = nextCollectiveTags(32 - Integer.numberOfLeadingZeros(size - 1));
+
+    for (int distance = 1; distance < size; distance <<= 1, tag++) {
+      collectiveSend(NO_DATA, 0, 0, (rank + distance) % size, tag, Message.TYPE_INT);
+      collectiveRecv((rank - distance + size) % size, tag).release();
+    }
+  }
+
+  /**
+   * Reduction operation, collects the data and performs the operation
+   * described by <code>op</code> on it. After completion, the result will reside
+   * on the process <code>root</code>.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed on process <code>root</code>.
+   * @param op The operation to perform on the data.
+   * @param root The process where the result will be placed.
+   */
+  public void Reduce(int[] inData, int[] outData, MpiOp op, int root) {
+
+    if (TREE && !tracksLocations(op)) {
+      tree_reduce(inData, outData, op, root);
+    } else {
+      naive_reduce(inData, outData, op, root);
+    }
+  }
 
-         group_.Send(new Message(Message.dataToByteArray(current), originalRank(root,rank,orig_size), REDUCE_TAG, Message.TYPE_INT), originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+  private void tree_reduce(int[] inData, int[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
+
+    int oldrank = Rank();
+    int orig_size = Size();
+    int size = orig_size;
+    int rank = relativeRank(root, oldrank, size);
+    Message recv;
+    int[] current = inData;
+
+    /*
+     * Binary tree reduction
+     */
+    for (int stage = (int) Math.ceil(Math.log(size)/Math.log(2)); stage > 0; stage--) {
+
+      //System.out.println("Stage = " + stage);
+
+       if (rank < Math.pow(2,stage) && rank >= Math.pow(2,stage-1)) {
+
+         //System.out.println(rank + " sending to... " + originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+
+         Message send = Message.create(current, originalRank(root,rank,orig_size), tag);
+         collectiveSend(send, originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         send.release();
        }
        else if (rank < Math.pow(2,stage-1) && (rank + Math.pow(2,stage-1)) < size ) {
 
          //System.out.println(rank + " receiving from... " + originalRank(root, (int)Math.pow(2,stage-1) + rank, orig_size));
-         recv = group_.Recv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), REDUCE_TAG);
+         recv = collectiveRecv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), tag);
+
+         if (op instanceof AccumulatingOp) {
+           // Combine into a copy of the input, the root's being outData
+           if (current == inData) {
+             current = (oldrank == root) ? outData : new int[inData.length];
+             System.arraycopy(inData, 0, current, 0, inData.length);
+           }
+
+           // Straight from the message's bytes, without decoding them first
+           ((AccumulatingOp) op).accumulate(current, recv.dataBuffer(), 0, current.length);
+         }
+         else {
+           ArrayList<int[]> list = new ArrayList<int[]>();
+           list.add(current);
+           list.add(recv.dataToPrimitiveInt());
+           current = op.run(list);
+         }
 
-         ArrayList<int[]> list = new ArrayList<int[]>();
-         list.add(current);
-         list.add(recv.dataToPrimitiveInt());
-         current = op.run(list);
+         recv.release();
          //System.out.println("Rank: " + rank + " tot: " + current[0]);
        }
 
      }
 
-    if (oldrank == root) {
+    if (oldrank == root && current != outData) {
       System.arraycopy(current, 0 , outData, 0,current.length);
     }
 }
 
   private void naive_reduce(int[] inData, int[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
 
      if (Rank() != root) {
-       group_.Send(new Message(Message.dataToByteArray(inData), Rank(), REDUCE_TAG, Message.TYPE_INT), root);
+       Message send = Message.create(inData, Rank(), tag);
+       collectiveSend(send, root);
+       send.release();
      }
      else if (Rank() == root) {
        ArrayList<int[]> list = new ArrayList<int[]>();
@@ -745,7 +1528,9 @@ public class Comm {
            list.add(inData);
          }
          else {
-           list.add(group_.Recv(i, REDUCE_TAG).dataToPrimitiveInt());
+           Message recv = collectiveRecv(i, tag);
+           list.add(recv.dataToPrimitiveInt());
+           recv.release();
          }
        }
 
@@ -767,16 +1552,15 @@ public class Comm {
    */
   public void Reduce(long[] inData, long[] outData, MpiOp op, int root) {
 
-    if (TREE) {
+    if (TREE && !tracksLocations(op)) {
       tree_reduce(inData, outData, op, root);
     } else {
       naive_reduce(inData, outData, op, root);
     }
-
-    REDUCE_TAG--;
   }
 
   private void tree_reduce(long[] inData, long[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
     int oldrank = Rank();
     int orig_size = Size();
     int size = orig_size;
@@ -795,30 +1579,49 @@ public class Comm {
 
          //System.out.println(rank + " sending to... " + originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
 
-         group_.Send(new Message(Message.dataToByteArray(current), originalRank(root,rank,orig_size), REDUCE_TAG, Message.TYPE_LONG), originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         Message send = Message.create(current, originalRank(root,rank,orig_size), tag);
+         collectiveSend(send, originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         send.release();
        }
        else if (rank < Math.pow(2,stage-1) && (rank + Math.pow(2,stage-1)) < size ) {
 
          //System.out.println(rank + " receiving from... " + originalRank(root, (int)Math.pow(2,stage-1) + rank, orig_size));
-         recv = group_.Recv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), REDUCE_TAG);
+         recv = collectiveRecv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), tag);
+
+         if (op instanceof AccumulatingOp) {
+           // Combine into a copy of the input, the root's being outData
+           if (current == inData) {
+             current = (oldrank == root) ? outData : new long[inData.length];
+             System.arraycopy(inData, 0, current, 0, inData.length);
+           }
+
+           // Straight from the message's bytes, without decoding them first
+           ((AccumulatingOp) op).accumulate(current, recv.dataBuffer(), 0, current.length);
+         }
+         else {
+           ArrayList<long[]> list = new ArrayList<long[]>();
+           list.add(current);
+           list.add(recv.dataToPrimitiveLong());
+           current = op.run(list);
+         }
 
-         ArrayList<long[]> list = new ArrayList<long[]>();
-         list.add(current);
-         list.add(recv.dataToPrimitiveLong());
-         current = op.run(list);
+         recv.release();
          //System.out.println("Rank: " + rank + " tot: " + current[0]);
        }
 
      }
 
-    if (oldrank == root) {
+    if (oldrank == root && current != outData) {
       System.arraycopy(current, 0 , outData, 0,current.length);
     }
   }
 
   private void naive_reduce(long[] inData, long[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
      if (Rank() != root) {
-       group_.Send(new Message(Message.dataToByteArray(inData), Rank(), REDUCE_TAG, Message.TYPE_LONG), root);
+       Message send = Message.create(inData, Rank(), tag);
+       collectiveSend(send, root);
+       send.release();
      }
      else if (Rank() == root) {
        ArrayList<long[]> list = new ArrayList<long[]>();
@@ -827,7 +1630,9 @@ public class Comm {
            list.add(inData);
          }
          else {
-           list.add(group_.Recv(i, REDUCE_TAG).dataToPrimitiveLong());
+           Message recv = collectiveRecv(i, tag);
+           list.add(recv.dataToPrimitiveLong());
+           recv.release();
          }
        }
 
@@ -849,16 +1654,15 @@ public class Comm {
    */
   public void Reduce(float[] inData, float[] outData, MpiOp op, int root) {
 
-    if (TREE) {
+    if (TREE && !tracksLocations(op)) {
       tree_reduce(inData, outData, op, root);
     } else {
       naive_reduce(inData, outData, op, root);
     }
-
-    REDUCE_TAG--;
   }
 
   private void tree_reduce(float[] inData, float[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
     int oldrank = Rank();
     int orig_size = Size();
     int size = orig_size;
@@ -877,30 +1681,49 @@ public class Comm {
 
          //System.out.println(rank + " sending to... " + originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
 
-         group_.Send(new Message(Message.dataToByteArray(current), originalRank(root,rank,orig_size), REDUCE_TAG, Message.TYPE_FLOAT), originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         Message send = Message.create(current, originalRank(root,rank,orig_size), tag);
+         collectiveSend(send, originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         send.release();
        }
        else if (rank < Math.pow(2,stage-1) && (rank + Math.pow(2,stage-1)) < size ) {
 
          //System.out.println(rank + " receiving from... " + originalRank(root, (int)Math.pow(2,stage-1) + rank, orig_size));
-         recv = group_.Recv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), REDUCE_TAG);
+         recv = collectiveRecv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), tag);
 
-         ArrayList<float[]> list = new ArrayList<float[]>();
-         list.add(current);
-         list.add(recv.dataToPrimitiveFloat());
-         current = op.run(list);
+         if (op instanceof AccumulatingOp) {
+           // Combine into a copy of the input, the root's being outData
+           if (current == inData) {
+             current = (oldrank == root) ? outData : new float[inData.length];
+             System.arraycopy(inData, 0, current, 0, inData.length);
+           }
+
+           // Straight from the message's bytes, without decoding them first
+           ((AccumulatingOp) op).accumulate(current, recv.dataBuffer(), 0, current.length);
+         }
+         else {
+           ArrayList<float[]> list = new ArrayList<float[]>();
+           list.add(current);
+           list.add(recv.dataToPrimitiveFloat());
+           current = op.run(list);
+         }
+
+         recv.release();
          // System.out.println("Rank: " + rank + " tot: " + current[0]);
        }
 
      }
 
-    if (oldrank == root) {
+    if (oldrank == root && current != outData) {
       System.arraycopy(current, 0 , outData, 0,current.length);
     }
   }
 
   private void naive_reduce(float[] inData, float[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
      if (Rank() != root) {
-       group_.Send(new Message(Message.dataToByteArray(inData), Rank(), REDUCE_TAG, Message.TYPE_FLOAT), root);
+       Message send = Message.create(inData, Rank(), tag);
+       collectiveSend(send, root);
+       send.release();
      }
      else if (Rank() == root) {
        ArrayList<float[]> list = new ArrayList<float[]>();
@@ -910,7 +1733,9 @@ public class Comm {
            list.add(inData);
          }
          else {
-           list.add(group_.Recv(i, REDUCE_TAG).dataToPrimitiveFloat());
+           Message recv = collectiveRecv(i, tag);
+           list.add(recv.dataToPrimitiveFloat());
+           recv.release();
          }
        }
 
@@ -933,16 +1758,15 @@ public class Comm {
    */
   public void Reduce(double[] inData, double[] outData, MpiOp op, int root) {
 
-    if (TREE) {
+    if (TREE && !tracksLocations(op)) {
       tree_reduce(inData, outData, op, root);
     } else {
       naive_reduce(inData, outData, op, root);
     }
-
-    REDUCE_TAG--;
   }
 
   private void tree_reduce(double[] inData, double[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
 
     int oldrank = Rank();
     int orig_size = Size();
@@ -962,30 +1786,49 @@ public class Comm {
 
          //System.out.println(rank + " sending to... " + originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
 
-         group_.Send(new Message(Message.dataToByteArray(current), originalRank(root,rank,orig_size), REDUCE_TAG, Message.TYPE_DOUBLE), originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         Message send = Message.create(current, originalRank(root,rank,orig_size), tag);
+         collectiveSend(send, originalRank(root, rank - (int) Math.pow(2,stage-1), orig_size));
+         send.release();
        }
        else if (rank < Math.pow(2,stage-1) && (rank + Math.pow(2,stage-1)) < size ) {
 
          //System.out.println(rank + " receiving from... " + originalRank(root, (int)Math.pow(2,stage-1) + rank, orig_size));
-         recv = group_.Recv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), REDUCE_TAG);
+         recv = collectiveRecv(originalRank(root, (int) Math.pow(2,stage-1) + rank, orig_size), tag);
+
+         if (op instanceof AccumulatingOp) {
+           // Combine into a copy of the input, the root's being outData
+           if (current == inData) {
+             current = (oldrank == root) ? outData : new double[inData.length];
+             System.arraycopy(inData, 0, current, 0, inData.length);
+           }
+
+           // Straight from the message's bytes, without decoding them first
+           ((AccumulatingOp) op).accumulate(current, recv.dataBuffer(), 0, current.length);
+         }
+         else {
+           ArrayList<double[]> list = new ArrayList<double[]>();
+           list.add(current);
+           list.add(recv.dataToPrimitiveDouble());
+           current = op.run(list);
+         }
 
-         ArrayList<double[]> list = new ArrayList<double[]>();
-         list.add(current);
-         list.add(recv.dataToPrimitiveDouble());
-         current = op.run(list);
+         recv.release();
          //System.out.println("Rank: " + rank + " tot: " + current[0]);
        }
 
      }
 
-    if (oldrank == root) {
+    if (oldrank == root && current != outData) {
       System.arraycopy(current, 0 , outData, 0,current.length);
     }
   }
 
   private void naive_reduce(double[] inData, double[] outData, MpiOp op, int root) {
+    int tag = nextCollectiveTags(1);
     if (Rank() != root) {
-       group_.Send(new Message(Message.dataToByteArray(inData), Rank(), REDUCE_TAG, Message.TYPE_DOUBLE), root);
+       Message send = Message.create(inData, Rank(), tag);
+       collectiveSend(send, root);
+       send.release();
      }
      else if (Rank() == root) {
        ArrayList<double[]> list = new ArrayList<double[]>();
@@ -995,7 +1838,9 @@ public class Comm {
            list.add(inData);
          }
          else {
-           list.add(group_.Recv(i, REDUCE_TAG).dataToPrimitiveDouble());
+           Message recv = collectiveRecv(i, tag);
+           list.add(recv.dataToPrimitiveDouble());
+           recv.release();
          }
        }
 
@@ -1015,17 +1860,13 @@ public class Comm {
    * @param op The operation to perform on the data.
    */
   public void AllReduce(int[] inData, int[] outData, MpiOp op) {
+    if (tracksLocations(op)) {
+      Reduce(inData, outData, op, 0);
+      Bcast(outData, 0);
+      return;
+    }
 
-    int[] result = new int[inData.length];
-
-
-    Reduce(inData, result, op, 0);
-
-    //REDUCE_TAG--;
-
-    Bcast(result, 0);
-
-    System.arraycopy(result, 0, outData, 0, result.length);
+    allReduce(inData, outData, inData.length, op, Message.TYPE_INT);
   }
 
   /**
@@ -1038,18 +1879,13 @@ public class Comm {
    * @param op The operation to perform on the data.
    */
   public void AllReduce(long[] inData, long[] outData, MpiOp op) {
+    if (tracksLocations(op)) {
+      Reduce(inData, outData, op, 0);
+      Bcast(outData, 0);
+      return;
+    }
 
-    long[] result = new long[inData.length];
-
-
-
-    Reduce(inData, result, op, 0);
-
-    //REDUCE_TAG--;
-
-    Bcast(result, 0);
-
-    System.arraycopy(result, 0, outData, 0, result.length);
+    allReduce(inData, outData, inData.length, op, Message.TYPE_LONG);
   }
 
   /**
@@ -1062,17 +1898,13 @@ public class Comm {
    * @param op The operation to perform on the data.
    */
   public void AllReduce(float[] inData, float[] outData, MpiOp op) {
+    if (tracksLocations(op)) {
+      Reduce(inData, outData, op, 0);
+      Bcast(outData, 0);
+      return;
+    }
 
-    float[] result = new float[inData.length];
-
-
-    Reduce(inData, result, op, 0);
-
-    //REDUCE_TAG--;
-
-    Bcast(result, 0);
-
-    System.arraycopy(result, 0, outData, 0, result.length);
+    allReduce(inData, outData, inData.length, op, Message.TYPE_FLOAT);
   }
 
   /**
@@ -1085,17 +1917,1550 @@ public class Comm {
    * @param op The operation to perform on the data.
    */
   public void AllReduce(double[] inData, double[] outData, MpiOp op) {
+    if (tracksLocations(op)) {
+      Reduce(inData, outData, op, 0);
+      Bcast(outData, 0);
+      return;
+    }
+
+    allReduce(inData, outData, inData.length, op, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Sends an equal share of <code>sendData</code> from process
+   * <code>root</code> to every process, in rank order, so process i
+   * receives the <code>recvData.length</code> elements from
+   * <code>i*recvData.length</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatter(int[] sendData, int[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    scatterv(sendData, counts, displacements(counts), recvData, root, true, Message.TYPE_INT);
+  }
+
+  /**
+   * Sends a share of <code>sendData</code> from process
+   * <code>root</code> to every process, where process i receives the
+   * <code>counts[i]</code> elements from <code>displs[i]</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param counts The number of elements for each process, only used at <code>root</code>.
+   * @param displs The offset of each process's share, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed,
+   * which must be the length of its share.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatterv(int[] sendData, int[] counts, int[] displs, int[] recvData, int root) {
+    scatterv(sendData, counts, displs, recvData, root, false, Message.TYPE_INT);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, in rank order, so the data from process i is
+   * placed from <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gather(int[] sendData, int[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
+
+    gatherv(sendData, recvData, counts, displacements(counts), root, Message.TYPE_INT);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, where the <code>counts[i]</code> elements from
+   * process i are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param counts The number of elements from each process, only used at <code>root</code>.
+   * @param displs The offset of each process's data, only used at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gatherv(int[] sendData, int[] recvData, int[] counts, int[] displs, int root) {
+    gatherv(sendData, recvData, counts, displs, root, Message.TYPE_INT);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, in rank order, so the data from process i is placed from
+   * <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   */
+  public void Allgather(int[] sendData, int[] recvData) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
+
+    allgatherv(sendData, recvData, counts, displacements(counts), Message.TYPE_INT);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, where the <code>counts[i]</code> elements from process i
+   * are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   * @param counts The number of elements from each process.
+   * @param displs The offset of each process's data.
+   */
+  public void Allgatherv(int[] sendData, int[] recvData, int[] counts, int[] displs) {
+    allgatherv(sendData, recvData, counts, displs, Message.TYPE_INT);
+  }
+
+  /**
+   * Sends an equal share of <code>sendData</code> from process
+   * <code>root</code> to every process, in rank order, so process i
+   * receives the <code>recvData.length</code> elements from
+   * <code>i*recvData.length</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatter(long[] sendData, long[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    scatterv(sendData, counts, displacements(counts), recvData, root, true, Message.TYPE_LONG);
+  }
+
+  /**
+   * Sends a share of <code>sendData</code> from process
+   * <code>root</code> to every process, where process i receives the
+   * <code>counts[i]</code> elements from <code>displs[i]</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param counts The number of elements for each process, only used at <code>root</code>.
+   * @param displs The offset of each process's share, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed,
+   * which must be the length of its share.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatterv(long[] sendData, int[] counts, int[] displs, long[] recvData, int root) {
+    scatterv(sendData, counts, displs, recvData, root, false, Message.TYPE_LONG);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, in rank order, so the data from process i is
+   * placed from <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gather(long[] sendData, long[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
+
+    gatherv(sendData, recvData, counts, displacements(counts), root, Message.TYPE_LONG);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, where the <code>counts[i]</code> elements from
+   * process i are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param counts The number of elements from each process, only used at <code>root</code>.
+   * @param displs The offset of each process's data, only used at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gatherv(long[] sendData, long[] recvData, int[] counts, int[] displs, int root) {
+    gatherv(sendData, recvData, counts, displs, root, Message.TYPE_LONG);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, in rank order, so the data from process i is placed from
+   * <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   */
+  public void Allgather(long[] sendData, long[] recvData) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
+
+    allgatherv(sendData, recvData, counts, displacements(counts), Message.TYPE_LONG);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, where the <code>counts[i]</code> elements from process i
+   * are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   * @param counts The number of elements from each process.
+   * @param displs The offset of each process's data.
+   */
+  public void Allgatherv(long[] sendData, long[] recvData, int[] counts, int[] displs) {
+    allgatherv(sendData, recvData, counts, displs, Message.TYPE_LONG);
+  }
+
+  /**
+   * Sends an equal share of <code>sendData</code> from process
+   * <code>root</code> to every process, in rank order, so process i
+   * receives the <code>recvData.length</code> elements from
+   * <code>i*recvData.length</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatter(float[] sendData, float[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    scatterv(sendData, counts, displacements(counts), recvData, root, true, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Sends a share of <code>sendData</code> from process
+   * <code>root</code> to every process, where process i receives the
+   * <code>counts[i]</code> elements from <code>displs[i]</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param counts The number of elements for each process, only used at <code>root</code>.
+   * @param displs The offset of each process's share, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed,
+   * which must be the length of its share.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatterv(float[] sendData, int[] counts, int[] displs, float[] recvData, int root) {
+    scatterv(sendData, counts, displs, recvData, root, false, Message.TYPE_FLOAT);
+  }
 
-    double[] result = new double[inData.length];
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, in rank order, so the data from process i is
+   * placed from <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gather(float[] sendData, float[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
 
+    gatherv(sendData, recvData, counts, displacements(counts), root, Message.TYPE_FLOAT);
+  }
 
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, where the <code>counts[i]</code> elements from
+   * process i are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param counts The number of elements from each process, only used at <code>root</code>.
+   * @param displs The offset of each process's data, only used at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gatherv(float[] sendData, float[] recvData, int[] counts, int[] displs, int root) {
+    gatherv(sendData, recvData, counts, displs, root, Message.TYPE_FLOAT);
+  }
 
-    Reduce(inData, result, op, 0);
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, in rank order, so the data from process i is placed from
+   * <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   */
+  public void Allgather(float[] sendData, float[] recvData) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
 
-    //REDUCE_TAG--;
+    allgatherv(sendData, recvData, counts, displacements(counts), Message.TYPE_FLOAT);
+  }
 
-    Bcast(result, 0);
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, where the <code>counts[i]</code> elements from process i
+   * are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   * @param counts The number of elements from each process.
+   * @param displs The offset of each process's data.
+   */
+  public void Allgatherv(float[] sendData, float[] recvData, int[] counts, int[] displs) {
+    allgatherv(sendData, recvData, counts, displs, Message.TYPE_FLOAT);
+  }
 
-    System.arraycopy(result, 0, outData, 0, result.length);
+  /**
+   * Sends an equal share of <code>sendData</code> from process
+   * <code>root</code> to every process, in rank order, so process i
+   * receives the <code>recvData.length</code> elements from
+   * <code>i*recvData.length</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatter(double[] sendData, double[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    scatterv(sendData, counts, displacements(counts), recvData, root, true, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Sends a share of <code>sendData</code> from process
+   * <code>root</code> to every process, where process i receives the
+   * <code>counts[i]</code> elements from <code>displs[i]</code>.
+   *
+   * @param sendData The data to share out, only used at <code>root</code>.
+   * @param counts The number of elements for each process, only used at <code>root</code>.
+   * @param displs The offset of each process's share, only used at <code>root</code>.
+   * @param recvData The array where this process's share will be placed,
+   * which must be the length of its share.
+   * @param root The rank of the process the data is sent from.
+   */
+  public void Scatterv(double[] sendData, int[] counts, int[] displs, double[] recvData, int root) {
+    scatterv(sendData, counts, displs, recvData, root, false, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, in rank order, so the data from process i is
+   * placed from <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gather(double[] sendData, double[] recvData, int root) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
+
+    gatherv(sendData, recvData, counts, displacements(counts), root, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at process
+   * <code>root</code>, where the <code>counts[i]</code> elements from
+   * process i are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed, only used
+   * at <code>root</code>.
+   * @param counts The number of elements from each process, only used at <code>root</code>.
+   * @param displs The offset of each process's data, only used at <code>root</code>.
+   * @param root The rank of the process the data is collected at.
+   */
+  public void Gatherv(double[] sendData, double[] recvData, int[] counts, int[] displs, int root) {
+    gatherv(sendData, recvData, counts, displs, root, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, in rank order, so the data from process i is placed from
+   * <code>i*sendData.length</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   */
+  public void Allgather(double[] sendData, double[] recvData) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, sendData.length);
+
+    allgatherv(sendData, recvData, counts, displacements(counts), Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Collects <code>sendData</code> from every process at every
+   * process, where the <code>counts[i]</code> elements from process i
+   * are placed from <code>displs[i]</code>.
+   *
+   * @param sendData The data from this process.
+   * @param recvData The array where the data will be placed.
+   * @param counts The number of elements from each process.
+   * @param displs The offset of each process's data.
+   */
+  public void Allgatherv(double[] sendData, double[] recvData, int[] counts, int[] displs) {
+    allgatherv(sendData, recvData, counts, displs, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Both arrays
+   * hold one equal block per process in rank order: block i of
+   * <code>sendData</code> goes to process i, and block i of
+   * <code>recvData</code> comes from it.
+   *
+   * @param sendData The blocks for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   */
+  public void Alltoall(int[] sendData, int[] recvData) {
+    alltoall(sendData, recvData, Message.TYPE_INT);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Process i
+   * is sent the <code>sendCounts[i]</code> elements from
+   * <code>sendDispls[i]</code>, and the <code>recvCounts[i]</code>
+   * elements from it are placed from <code>recvDispls[i]</code>.
+   *
+   * @param sendData The blocks for each process.
+   * @param sendCounts The number of elements for each process.
+   * @param sendDispls The offset of the block for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   * @param recvCounts The number of elements from each process.
+   * @param recvDispls The offset of the block from each process.
+   */
+  public void Alltoallv(int[] sendData, int[] sendCounts, int[] sendDispls,
+                        int[] recvData, int[] recvCounts, int[] recvDispls) {
+    alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls, Message.TYPE_INT);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Both arrays
+   * hold one equal block per process in rank order: block i of
+   * <code>sendData</code> goes to process i, and block i of
+   * <code>recvData</code> comes from it.
+   *
+   * @param sendData The blocks for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   */
+  public void Alltoall(long[] sendData, long[] recvData) {
+    alltoall(sendData, recvData, Message.TYPE_LONG);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Process i
+   * is sent the <code>sendCounts[i]</code> elements from
+   * <code>sendDispls[i]</code>, and the <code>recvCounts[i]</code>
+   * elements from it are placed from <code>recvDispls[i]</code>.
+   *
+   * @param sendData The blocks for each process.
+   * @param sendCounts The number of elements for each process.
+   * @param sendDispls The offset of the block for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   * @param recvCounts The number of elements from each process.
+   * @param recvDispls The offset of the block from each process.
+   */
+  public void Alltoallv(long[] sendData, int[] sendCounts, int[] sendDispls,
+                        long[] recvData, int[] recvCounts, int[] recvDispls) {
+    alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls, Message.TYPE_LONG);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Both arrays
+   * hold one equal block per process in rank order: block i of
+   * <code>sendData</code> goes to process i, and block i of
+   * <code>recvData</code> comes from it.
+   *
+   * @param sendData The blocks for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   */
+  public void Alltoall(float[] sendData, float[] recvData) {
+    alltoall(sendData, recvData, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Process i
+   * is sent the <code>sendCounts[i]</code> elements from
+   * <code>sendDispls[i]</code>, and the <code>recvCounts[i]</code>
+   * elements from it are placed from <code>recvDispls[i]</code>.
+   *
+   * @param sendData The blocks for each process.
+   * @param sendCounts The number of elements for each process.
+   * @param sendDispls The offset of the block for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   * @param recvCounts The number of elements from each process.
+   * @param recvDispls The offset of the block from each process.
+   */
+  public void Alltoallv(float[] sendData, int[] sendCounts, int[] sendDispls,
+                        float[] recvData, int[] recvCounts, int[] recvDispls) {
+    alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Both arrays
+   * hold one equal block per process in rank order: block i of
+   * <code>sendData</code> goes to process i, and block i of
+   * <code>recvData</code> comes from it.
+   *
+   * @param sendData The blocks for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   */
+  public void Alltoall(double[] sendData, double[] recvData) {
+    alltoall(sendData, recvData, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Sends a block of <code>sendData</code> to every process and
+   * receives a block from each into <code>recvData</code>. Process i
+   * is sent the <code>sendCounts[i]</code> elements from
+   * <code>sendDispls[i]</code>, and the <code>recvCounts[i]</code>
+   * elements from it are placed from <code>recvDispls[i]</code>.
+   *
+   * @param sendData The blocks for each process.
+   * @param sendCounts The number of elements for each process.
+   * @param sendDispls The offset of the block for each process.
+   * @param recvData The array where the blocks from each process will be placed.
+   * @param recvCounts The number of elements from each process.
+   * @param recvDispls The offset of the block from each process.
+   */
+  public void Alltoallv(double[] sendData, int[] sendCounts, int[] sendDispls,
+                        double[] recvData, int[] recvCounts, int[] recvDispls) {
+    alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with its block of the
+   * result: process i receives the <code>counts[i]</code> elements
+   * that follow the blocks of the processes before it.
+   *
+   * @param sendData The input data or operand, as long as the sum of <code>counts</code>.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param counts The number of elements in each process's block.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter(int[] sendData, int[] recvData, int[] counts, MpiOp op) {
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_INT);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with an equal block of the
+   * result, in rank order.
+   *
+   * @param sendData The input data or operand, one block for each process.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter_block(int[] sendData, int[] recvData, MpiOp op) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_INT);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with its block of the
+   * result: process i receives the <code>counts[i]</code> elements
+   * that follow the blocks of the processes before it.
+   *
+   * @param sendData The input data or operand, as long as the sum of <code>counts</code>.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param counts The number of elements in each process's block.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter(long[] sendData, long[] recvData, int[] counts, MpiOp op) {
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_LONG);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with an equal block of the
+   * result, in rank order.
+   *
+   * @param sendData The input data or operand, one block for each process.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter_block(long[] sendData, long[] recvData, MpiOp op) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_LONG);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with its block of the
+   * result: process i receives the <code>counts[i]</code> elements
+   * that follow the blocks of the processes before it.
+   *
+   * @param sendData The input data or operand, as long as the sum of <code>counts</code>.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param counts The number of elements in each process's block.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter(float[] sendData, float[] recvData, int[] counts, MpiOp op) {
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with an equal block of the
+   * result, in rank order.
+   *
+   * @param sendData The input data or operand, one block for each process.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter_block(float[] sendData, float[] recvData, MpiOp op) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with its block of the
+   * result: process i receives the <code>counts[i]</code> elements
+   * that follow the blocks of the processes before it.
+   *
+   * @param sendData The input data or operand, as long as the sum of <code>counts</code>.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param counts The number of elements in each process's block.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter(double[] sendData, double[] recvData, int[] counts, MpiOp op) {
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Reduces <code>sendData</code> over all processes with
+   * <code>op</code> and leaves each process with an equal block of the
+   * result, in rank order.
+   *
+   * @param sendData The input data or operand, one block for each process.
+   * @param recvData The array where this process's block of the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Reduce_scatter_block(double[] sendData, double[] recvData, MpiOp op) {
+    int[] counts = new int[Size()];
+    Arrays.fill(counts, recvData.length);
+
+    reduceScatter(sendData, recvData, counts, op, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Inclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to i.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Scan(int[] inData, int[] outData, MpiOp op) {
+    scan(inData, outData, op, false, Message.TYPE_INT);
+  }
+
+  /**
+   * Exclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to
+   * i - 1. <code>outData</code> on process 0 is left unchanged.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Exscan(int[] inData, int[] outData, MpiOp op) {
+    scan(inData, outData, op, true, Message.TYPE_INT);
+  }
+
+  /**
+   * Inclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to i.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Scan(long[] inData, long[] outData, MpiOp op) {
+    scan(inData, outData, op, false, Message.TYPE_LONG);
+  }
+
+  /**
+   * Exclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to
+   * i - 1. <code>outData</code> on process 0 is left unchanged.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Exscan(long[] inData, long[] outData, MpiOp op) {
+    scan(inData, outData, op, true, Message.TYPE_LONG);
+  }
+
+  /**
+   * Inclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to i.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Scan(float[] inData, float[] outData, MpiOp op) {
+    scan(inData, outData, op, false, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Exclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to
+   * i - 1. <code>outData</code> on process 0 is left unchanged.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Exscan(float[] inData, float[] outData, MpiOp op) {
+    scan(inData, outData, op, true, Message.TYPE_FLOAT);
+  }
+
+  /**
+   * Inclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to i.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Scan(double[] inData, double[] outData, MpiOp op) {
+    scan(inData, outData, op, false, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Exclusive prefix reduction. After completion,
+   * <code>outData</code> on process i holds the result of
+   * <code>op</code> over the <code>inData</code> of processes 0 to
+   * i - 1. <code>outData</code> on process 0 is left unchanged.
+   *
+   * @param inData The input data or operand.
+   * @param outData The array where the result will be placed.
+   * @param op The operation to perform on the data.
+   */
+  public void Exscan(double[] inData, double[] outData, MpiOp op) {
+    scan(inData, outData, op, true, Message.TYPE_DOUBLE);
+  }
+
+  /**
+   * Reduces <code>outData</code>, which starts as a copy of
+   * <code>inData</code>, on every process. Small vectors are reduced
+   * by recursive doubling, which takes log2(size) steps that each
+   * carry the whole vector. Large vectors are reduced around a ring,
+   * which takes 2(size-1) steps that each carry 1/size of it, so each
+   * process sends and receives the vector about twice in all whatever
+   * the size. The ring combines chunks in a different order on each
+   * process, so it is only used for commutative operations.
+   */
+  private void allReduce(Object inData, Object outData, int count, MpiOp op, int type) {
+    System.arraycopy(inData, 0, outData, 0, count);
+
+    int size = Size();
+
+    if (size == 1) return;
+
+    if ((long) count * Message.sizeOf(type) >= RING_ALLREDUCE_BYTES && count >= size && isCommutative(op)) {
+      ringAllReduce(outData, count, op, type);
+    }
+    else {
+      recursiveDoublingAllReduce(outData, count, op, type);
+    }
+  }
+
+  /**
+   * Recursive doubling: at step k each process swaps its partial
+   * result with the process whose rank differs in bit k. When the
+   * size isn't a power of two, the first 2*rem processes pair up
+   * beforehand so that the rest are a power of two, and the even one
+   * of each pair is sent the result at the end. Operands are always
+   * combined in rank order.
+   */
+  private void recursiveDoublingAllReduce(Object data, int count, MpiOp op, int type) {
+    int size = Size();
+    int rank = Rank();
+    int pof2 = Integer.highestOneBit(size);
+    int rem = size - pof2;
+
+    int tag = nextCollectiveTags(1);
+
+    int newRank;
+
+    if (rank < 2*rem) {
+      if (rank % 2 == 0) {
+        collectiveSend(data, 0, count, rank + 1, tag, type);
+        newRank = -1;
+      }
+      else {
+        combineInto(op, data, 0, collectiveRecv(rank - 1, tag), true, type);
+        newRank = rank / 2;
+      }
+    }
+    else {
+      newRank = rank - rem;
+    }
+
+    if (newRank >= 0) {
+      for (int mask = 1; mask < pof2; mask <<= 1) {
+        int newPartner = newRank ^ mask;
+        int partner = (newPartner < rem) ? newPartner*2 + 1 : newPartner + rem;
+
+        collectiveSend(data, 0, count, partner, tag, type);
+        combineInto(op, data, 0, collectiveRecv(partner, tag), partner < rank, type);
+      }
+    }
+
+    if (rank < 2*rem) {
+      if (rank % 2 == 1) {
+        collectiveSend(data, 0, count, rank - 1, tag, type);
+      }
+      else {
+        unpackInto(collectiveRecv(rank + 1, tag), data, 0, type);
+      }
+    }
+  }
+
+  /**
+   * Ring all-reduce: a reduce-scatter, after which each process holds
+   * the result for one chunk of the vector, followed by an allgather
+   * of the chunks. At every step each process sends one chunk to the
+   * process on its right and receives one from the process on its left.
+   */
+  private void ringAllReduce(Object data, int count, MpiOp op, int type) {
+    int size = Size();
+    int rank = Rank();
+    int right = (rank + 1) % size;
+    int left = (rank + size - 1) % size;
+    int tag = nextCollectiveTags(2*(size - 1));
+    int[] counts = chunkCounts(count, size);
+    int[] displs = displacements(counts);
+
+    // After step s, chunk (rank - s - 1) holds the data of s + 2 processes
+    for (int step = 0; step < size - 1; step++) {
+      int sendChunk = (rank - step + size) % size;
+      int recvChunk = (rank - step - 1 + 2*size) % size;
+
+      sendBlocks(data, counts, displs, sendChunk, sendChunk + 1, right, tag + step, type);
+      combineInto(op, data, displs[recvChunk], collectiveRecv(left, tag + step), true, type);
+    }
+
+    // This process now has the result for chunk (rank + 1)
+    ringAllgather(data, counts, displs, (rank + 1) % size, left, right, tag + size - 1, type);
+  }
+
+  /**
+   * Passes blocks around the ring until every process has all of
+   * them, starting with each process holding block <code>first</code>
+   * and its left neighbour block <code>first - 1</code>. Uses
+   * size - 1 tags from <code>tag</code>.
+   */
+  private void ringAllgather(Object data, int[] counts, int[] displs, int first, int left, int right, int tag, int type) {
+    int size = Size();
+
+    for (int step = 0; step < size - 1; step++) {
+      int sendBlock = (first - step + size) % size;
+      int recvBlock = (first - step - 1 + 2*size) % size;
+
+      sendBlocks(data, counts, displs, sendBlock, sendBlock + 1, right, tag + step, type);
+      recvBlocks(data, counts, displs, recvBlock, recvBlock + 1, left, tag + step, type);
+    }
+  }
+
+  /**
+   * Sends blocks <code>from</code> to <code>to</code> of
+   * <code>data</code> as one message, block i being
+   * <code>counts[i]</code> elements from <code>displs[i]</code>.
+   */
+  private void sendBlocks(Object data, int[] counts, int[] displs, int from, int to, int dest, int tag, int type) {
+    int length = sum(counts, from, to);
+
+    if (isContiguous(counts, displs, from, to)) {
+      collectiveSend(data, displs[from], length, dest, tag, type);
+      return;
+    }
+
+    Object packed = newArray(type, length);
+
+    for (int i = from, offset = 0; i < to; offset += counts[i++]) {
+      System.arraycopy(data, displs[i], packed, offset, counts[i]);
+    }
+
+    collectiveSend(packed, 0, length, dest, tag, type);
+  }
+
+  /**
+   * Receives blocks <code>from</code> to <code>to</code> of
+   * <code>data</code>, sent by {@link #sendBlocks}.
+   */
+  private void recvBlocks(Object data, int[] counts, int[] displs, int from, int to, int source, int tag, int type) {
+    int length = sum(counts, from, to);
+
+    if (isContiguous(counts, displs, from, to)) {
+      recvInto(data, displs[from], length, source, tag, type);
+      return;
+    }
+
+    Object packed = newArray(type, length);
+    recvInto(packed, 0, length, source, tag, type);
+
+    for (int i = from, offset = 0; i < to; offset += counts[i++]) {
+      System.arraycopy(packed, offset, data, displs[i], counts[i]);
+    }
+  }
+
+  /**
+   * Receives exactly <code>length</code> elements into
+   * <code>data</code> from <code>offset</code>.
+   */
+  private void recvInto(Object data, int offset, int length, int source, int tag, int type) {
+    Message message = collectiveRecv(source, tag);
+
+    if (message.getDataLength() != length*Message.sizeOf(type)) {
+      message.release();
+      throw new MpiException("Message lengths do not match!");
+    }
+
+    unpackInto(message, data, offset, type);
+  }
+
+  /**
+   * @return True if blocks <code>from</code> to <code>to</code> follow
+   * each other with no gaps.
+   */
+  private static boolean isContiguous(int[] counts, int[] displs, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      if (displs[i] != displs[i - 1] + counts[i - 1]) return false;
+    }
+
+    return true;
+  }
+
+  private static int sum(int[] values, int from, int to) {
+    int sum = 0;
+
+    for (int i = from; i < to; i++) {
+      sum += values[i];
+    }
+
+    return sum;
+  }
+
+  /**
+   * @return The lengths of <code>size</code> nearly equal chunks of
+   * <code>count</code> elements.
+   */
+  private static int[] chunkCounts(int count, int size) {
+    int[] counts = new int[size];
+
+    for (int i = 0; i < size; i++) {
+      counts[i] = (int) ((long) count * (i + 1) / size - (long) count * i / size);
+    }
+
+    return counts;
+  }
+
+  /**
+   * @return The offsets of blocks of the given lengths laid end to end.
+   */
+  private static int[] displacements(int[] counts) {
+    int[] displs = new int[counts.length];
+
+    for (int i = 1; i < counts.length; i++) {
+      displs[i] = displs[i - 1] + counts[i - 1];
+    }
+
+    return displs;
+  }
+
+  /**
+   * Broadcasts an array of at least {@link #PIPELINE_BCAST_BYTES}.
+   * Below {@link #SCATTER_BCAST_BYTES} the array is pipelined down a
+   * binary tree in segments, so every process forwards each segment
+   * as soon as it has it, rather than waiting for the whole array.
+   * Above it the root scatters the array over a binomial tree and the
+   * pieces are then allgathered around a ring (van de Geijn), so no
+   * process sends or receives much more than twice the array.
+   */
+  private void largeBcast(Object data, int count, int root, int type) {
+    if ((long) count * Message.sizeOf(type) >= SCATTER_BCAST_BYTES && count >= Size()) {
+      scatterAllgatherBcast(data, count, root, type);
+    }
+    else {
+      pipelinedBcast(data, count, root, type);
+    }
+  }
+
+  private void pipelinedBcast(Object data, int count, int root, int type) {
+    int size = Size();
+    int rank = relativeRank(root, Rank(), size);
+    int segment = Math.max(1, segmentBytes_ / Message.sizeOf(type));
+    int segments = (int) (((long) count + segment - 1) / segment);
+    int tag = nextCollectiveTags(segments);
+
+    int parent = originalRank(root, (rank - 1) / 2, size);
+    int left = 2*rank + 1;
+    int right = 2*rank + 2;
+
+    for (int i = 0; i < segments; i++) {
+      int offset = i*segment;
+      int length = Math.min(segment, count - offset);
+
+      if (rank != 0) {
+        unpackInto(collectiveRecv(parent, tag + i), data, offset, type);
+      }
+
+      if (left < size) {
+        collectiveSend(data, offset, length, originalRank(root, left, size), tag + i, type);
+      }
+
+      if (right < size) {
+        collectiveSend(data, offset, length, originalRank(root, right, size), tag + i, type);
+      }
+    }
+  }
+
+  /**
+   * The process with relative rank r ends up owning chunk r of the
+   * array after the scatter.
+   */
+  private void scatterAllgatherBcast(Object data, int count, int root, int type) {
+    int size = Size();
+    int rank = relativeRank(root, Rank(), size);
+    int tag = nextCollectiveTags(size);
+    int[] counts = chunkCounts(count, size);
+    int[] displs = displacements(counts);
+
+    // Receive the chunks from rank to rank + mask from the parent
+    int mask = 1;
+
+    while (mask < size) {
+      if ((rank & mask) != 0) {
+        recvBlocks(data, counts, displs, rank, Math.min(rank + mask, size),
+                   originalRank(root, rank - mask, size), tag, type);
+        break;
+      }
+
+      mask <<= 1;
+    }
+
+    // Pass on the upper half of what's held at each level
+    for (mask >>= 1; mask > 0; mask >>= 1) {
+      if (rank + mask < size) {
+        sendBlocks(data, counts, displs, rank + mask, Math.min(rank + 2*mask, size),
+                   originalRank(root, rank + mask, size), tag, type);
+      }
+    }
+
+    ringAllgather(data, counts, displs, rank,
+                  originalRank(root, (rank + size - 1) % size, size),
+                  originalRank(root, (rank + 1) % size, size), tag + 1, type);
+  }
+
+  /**
+   * Scatters over a binomial tree. Each process receives the shares
+   * for itself and the processes below it in the tree from its parent
+   * in one message, keeps its own and passes the rest on, so the root
+   * sends log2(size) messages rather than size - 1. Unless
+   * <code>countsKnown</code>, the share sizes are sent down the tree
+   * ahead of the data.
+   */
+  private void scatterv(Object sendData, int[] counts, int[] displs, Object recvData, int root,
+                        boolean countsKnown, int type) {
+    int size = Size();
+    int rank = relativeRank(root, Rank(), size);
+    int tag = nextCollectiveTags(2);
+
+    // The share sizes and data for relative ranks rank onwards
+    int[] held;
+    Object buffer;
+    int mask = 1;
+
+    if (rank == 0) {
+      checkBlocks(sendData, counts, displs);
+
+      held = new int[size];
+
+      for (int i = 0; i < size; i++) {
+        held[i] = counts[originalRank(root, i, size)];
+      }
+
+      buffer = newArray(type, sum(held, 0, size));
+
+      for (int i = 0, offset = 0; i < size; offset += held[i++]) {
+        System.arraycopy(sendData, displs[originalRank(root, i, size)], buffer, offset, held[i]);
+      }
+
+      while (mask < size) {
+        mask <<= 1;
+      }
+    }
+    else {
+      while ((rank & mask) == 0) {
+        mask <<= 1;
+      }
+
+      int parent = originalRank(root, rank - mask, size);
+
+      if (countsKnown) {
+        held = new int[Math.min(mask, size - rank)];
+
+        for (int i = 0; i < held.length; i++) {
+          held[i] = counts[originalRank(root, rank + i, size)];
+        }
+      }
+      else {
+        held = (int[]) unpack(collectiveRecv(parent, tag), Message.TYPE_INT);
+      }
+
+      buffer = unpack(collectiveRecv(parent, tag + 1), type);
+    }
+
+    for (mask >>= 1; mask > 0; mask >>= 1) {
+      if (rank + mask < size) {
+        int end = Math.min(2*mask, size - rank);
+        int child = originalRank(root, rank + mask, size);
+
+        if (!countsKnown) {
+          collectiveSend(held, mask, end - mask, child, tag, Message.TYPE_INT);
+        }
+
+        collectiveSend(buffer, sum(held, 0, mask), sum(held, mask, end), child, tag + 1, type);
+      }
+    }
+
+    if (held[0] != Array.getLength(recvData)) {
+      throw new MpiException("Message lengths do not match!");
+    }
+
+    System.arraycopy(buffer, 0, recvData, 0, held[0]);
+  }
+
+  /**
+   * Gathers over a binomial tree, the reverse of {@link #scatterv}.
+   * Each process collects the data of the processes below it in the
+   * tree, in rank order, and sends it to its parent in one message.
+   * Only the root needs to know how much each process sends.
+   */
+  private void gatherv(Object sendData, Object recvData, int[] counts, int[] displs, int root, int type) {
+    int size = Size();
+    int rank = relativeRank(root, Rank(), size);
+    int tag = nextCollectiveTags(1);
+
+    ArrayList<Object> parts = new ArrayList<Object>();
+    int length = Array.getLength(sendData);
+    parts.add(sendData);
+
+    for (int mask = 1; mask < size; mask <<= 1) {
+      if ((rank & mask) != 0) {
+        collectiveSend(concat(parts, length, type), 0, length, originalRank(root, rank - mask, size), tag, type);
+        return;
+      }
+
+      if (rank + mask < size) {
+        Object part = unpack(collectiveRecv(originalRank(root, rank + mask, size), tag), type);
+        parts.add(part);
+        length += Array.getLength(part);
+      }
+    }
+
+    checkBlocks(recvData, counts, displs);
+
+    Object all = concat(parts, length, type);
+
+    for (int i = 0, offset = 0; i < size; i++) {
+      int source = originalRank(root, i, size);
+
+      if (offset + counts[source] > length) {
+        throw new MpiException("Message lengths do not match!");
+      }
+
+      System.arraycopy(all, offset, recvData, displs[source], counts[source]);
+      offset += counts[source];
+    }
+  }
+
+  /**
+   * Allgathers by recursive doubling when the result is small and the
+   * size is a power of two, since that takes log2(size) steps, and
+   * around a ring otherwise, since that sends each block only once
+   * over each link.
+   */
+  private void allgatherv(Object sendData, Object recvData, int[] counts, int[] displs, int type) {
+    int size = Size();
+    int rank = Rank();
+
+    checkBlocks(recvData, counts, displs);
+
+    if (Array.getLength(sendData) != counts[rank]) {
+      throw new MpiException("Message lengths do not match!");
+    }
+
+    System.arraycopy(sendData, 0, recvData, displs[rank], counts[rank]);
+
+    if (size == 1) return;
+
+    if ((long) sum(counts, 0, size) * Message.sizeOf(type) >= RING_ALLGATHER_BYTES || (size & (size - 1)) != 0) {
+      ringAllgather(recvData, counts, displs, rank, (rank + size - 1) % size, (rank + 1) % size,
+                    nextCollectiveTags(size - 1), type);
+      return;
+    }
+
+    int tag = nextCollectiveTags(1);
+
+    for (int mask = 1; mask < size; mask <<= 1) {
+      int partner = rank ^ mask;
+      int mine = rank & ~(mask - 1);
+      int theirs = partner & ~(mask - 1);
+
+      sendBlocks(recvData, counts, displs, mine, mine + mask, partner, tag, type);
+      recvBlocks(recvData, counts, displs, theirs, theirs + mask, partner, tag, type);
+    }
+  }
+
+  /**
+   * Checks that every block lies within <code>data</code>.
+   */
+  private static void checkBlocks(Object data, int[] counts, int[] displs) {
+    int length = Array.getLength(data);
+
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] < 0 || displs[i] < 0 || displs[i] + counts[i] > length) {
+        throw new MpiException("Block " + i + " doesn't fit in an array of length " + length);
+      }
+    }
+  }
+
+  /**
+   * @return The arrays in <code>parts</code> laid end to end.
+   */
+  private static Object concat(ArrayList<Object> parts, int length, int type) {
+    if (parts.size() == 1) return parts.get(0);
+
+    Object all = newArray(type, length);
+    int offset = 0;
+
+    for (Object part : parts) {
+      int partLength = Array.getLength(part);
+      System.arraycopy(part, 0, all, offset, partLength);
+      offset += partLength;
+    }
+
+    return all;
+  }
+
+  private void alltoall(Object sendData, Object recvData, int type) {
+    int size = Size();
+    int length = Array.getLength(sendData);
+
+    if (length != Array.getLength(recvData) || length % size != 0) {
+      throw new MpiException("Alltoall needs two arrays of the same length, a multiple of " + size);
+    }
+
+    int block = length / size;
+
+    if (block*Message.sizeOf(type) <= BRUCK_ALLTOALL_BYTES) {
+      bruckAlltoall(sendData, recvData, block, type);
+    }
+    else {
+      int[] counts = new int[size];
+      Arrays.fill(counts, block);
+      int[] displs = displacements(counts);
+
+      alltoallv(sendData, counts, displs, recvData, counts, displs, type);
+    }
+  }
+
+  /**
+   * Bruck's algorithm, for small blocks. The blocks are rotated so
+   * that block i is the one for the process i ranks above, then in
+   * round k every block whose index has bit k set is sent on 2^k
+   * ranks, all in one message. After ceil(log2(size)) rounds each
+   * block has reached its process, at the cost of sending each block
+   * up to log2(size) times.
+   */
+  private void bruckAlltoall(Object sendData, Object recvData, int block, int type) {
+    int size = Size();
+    int rank = Rank();
+    int tag = nextCollectiveTags(32 - Integer.numberOfLeadingZeros(size - 1));
+
+    Object rotated = newArray(type, block*size);
+
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(sendData, ((rank + i) % size)*block, rotated, i*block, block);
+    }
+
+    Object packed = newArray(type, block*((size + 1) / 2));
+
+    for (int distance = 1; distance < size; distance <<= 1, tag++) {
+      int length = 0;
+
+      for (int i = distance; i < size; i++) {
+        if ((i & distance) != 0) {
+          System.arraycopy(rotated, i*block, packed, length, block);
+          length += block;
+        }
+      }
+
+      collectiveSend(packed, 0, length, (rank + distance) % size, tag, type);
+
+      recvInto(packed, 0, length, (rank - distance + size) % size, tag, type);
+
+      for (int i = distance, offset = 0; i < size; i++) {
+        if ((i & distance) != 0) {
+          System.arraycopy(packed, offset, rotated, i*block, block);
+          offset += block;
+        }
+      }
+    }
+
+    // Block i now came from the process i ranks below
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(rotated, i*block, recvData, ((rank - i + size) % size)*block, block);
+    }
+  }
+
+  /**
+   * Pairwise exchange: at step s each process sends to the process s
+   * ranks above it and receives from the one s ranks below, so every
+   * process talks to a different partner at each step and none is
+   * sent to by more than one at once. All the sends are started
+   * before the first receive, so they go out while this process is
+   * receiving.
+   */
+  private void alltoallv(Object sendData, int[] sendCounts, int[] sendDispls,
+                         Object recvData, int[] recvCounts, int[] recvDispls, int type) {
+    int size = Size();
+    int rank = Rank();
+
+    checkBlocks(sendData, sendCounts, sendDispls);
+    checkBlocks(recvData, recvCounts, recvDispls);
+
+    if (sendCounts[rank] != recvCounts[rank]) {
+      throw new MpiException("Message lengths do not match!");
+    }
+
+    System.arraycopy(sendData, sendDispls[rank], recvData, recvDispls[rank], sendCounts[rank]);
+
+    if (size == 1) return;
+
+    int tag = nextCollectiveTags(1);
+    ArrayList<Future<?>> sends = new ArrayList<Future<?>>(size - 1);
+
+    for (int step = 1; step < size; step++) {
+      int dest = (rank + step) % size;
+      sends.add(collectiveIsend(sendData, sendDispls[dest], sendCounts[dest], dest, tag, type));
+    }
+
+    for (int step = 1; step < size; step++) {
+      int source = (rank - step + size) % size;
+      recvBlocks(recvData, recvCounts, recvDispls, source, source + 1, source, tag, type);
+    }
+
+    waitAll(sends);
+  }
+
+  /**
+   * Reduce-scatters by recursive halving for commutative operations,
+   * which sends about the whole vector in log2(size) steps, and by a
+   * pairwise exchange otherwise, which sends each block straight to
+   * its owner so that it can combine them in rank order.
+   */
+  private void reduceScatter(Object sendData, Object recvData, int[] counts, MpiOp op, int type) {
+    int size = Size();
+    int rank = Rank();
+
+    if (counts.length != size || Array.getLength(sendData) != sum(counts, 0, size)
+        || Array.getLength(recvData) != counts[rank]) {
+      throw new MpiException("Message lengths do not match!");
+    }
+
+    int[] displs = displacements(counts);
+
+    if (size == 1) {
+      System.arraycopy(sendData, 0, recvData, 0, counts[0]);
+    }
+    else if (isCommutative(op)) {
+      recursiveHalvingReduceScatter(sendData, recvData, counts, displs, op, type);
+    }
+    else {
+      pairwiseReduceScatter(sendData, recvData, counts, displs, op, type);
+    }
+  }
+
+  /**
+   * Recursive halving: at each step a process keeps the half of its
+   * current range of blocks that holds its own, sends the other half
+   * to its partner and combines the partner's copy of the kept half.
+   * When the size isn't a power of two, the first 2*rem processes pair
+   * up beforehand as in {@link #recursiveDoublingAllReduce}, and the
+   * odd one of each pair hands back the even one's block at the end.
+   */
+  private void recursiveHalvingReduceScatter(Object sendData, Object recvData, int[] counts, int[] displs,
+                                             MpiOp op, int type) {
+    int size = Size();
+    int rank = Rank();
+    int pof2 = Integer.highestOneBit(size);
+    int rem = size - pof2;
+    int total = Array.getLength(sendData);
+
+    int tag = nextCollectiveTags(1);
+
+    Object data = newArray(type, total);
+    System.arraycopy(sendData, 0, data, 0, total);
+
+    if (rank < 2*rem && rank % 2 == 0) {
+      collectiveSend(data, 0, total, rank + 1, tag, type);
+      recvInto(recvData, 0, counts[rank], rank + 1, tag, type);
+      return;
+    }
+
+    if (rank < 2*rem) {
+      combineInto(op, data, 0, collectiveRecv(rank - 1, tag), true, type);
+    }
+
+    int newRank = (rank < 2*rem) ? rank / 2 : rank - rem;
+    int lo = 0;
+    int hi = pof2;
+
+    for (int mask = pof2 >> 1; mask > 0; mask >>= 1) {
+      int newPartner = newRank ^ mask;
+      int partner = (newPartner < rem) ? newPartner*2 + 1 : newPartner + rem;
+      int sendLo;
+      int sendHi;
+
+      if (newRank < newPartner) {
+        sendLo = lo + mask;
+        sendHi = hi;
+        hi = lo + mask;
+      }
+      else {
+        sendLo = lo;
+        sendHi = lo + mask;
+        lo = lo + mask;
+      }
+
+      int sendOffset = newRankOffset(sendLo, rem, pof2, displs, total);
+      collectiveSend(data, sendOffset, newRankOffset(sendHi, rem, pof2, displs, total) - sendOffset,
+                     partner, tag, type);
+      combineInto(op, data, newRankOffset(lo, rem, pof2, displs, total),
+                  collectiveRecv(partner, tag), true, type);
+    }
+
+    if (rank < 2*rem) {
+      collectiveSend(data, displs[rank - 1], counts[rank - 1], rank - 1, tag, type);
+    }
+
+    System.arraycopy(data, displs[rank], recvData, 0, counts[rank]);
+  }
+
+  /**
+   * @return The offset of the first block held by the process with
+   * the given rank among the power of two left after pairing up.
+   */
+  private static int newRankOffset(int newRank, int rem, int pof2, int[] displs, int total) {
+    if (newRank == pof2) return total;
+
+    return displs[(newRank < rem) ? newRank*2 : newRank + rem];
+  }
+
+  private void pairwiseReduceScatter(Object sendData, Object recvData, int[] counts, int[] displs,
+                                     MpiOp op, int type) {
+    int size = Size();
+    int rank = Rank();
+    int tag = nextCollectiveTags(1);
+    ArrayList<Future<?>> sends = new ArrayList<Future<?>>(size - 1);
+
+    for (int step = 1; step < size; step++) {
+      int dest = (rank + step) % size;
+      sends.add(collectiveIsend(sendData, displs[dest], counts[dest], dest, tag, type));
+    }
+
+    // Every process's contribution to this process's block, in rank order
+    Object[] operands = new Object[size];
+    operands[rank] = newArray(type, counts[rank]);
+    System.arraycopy(sendData, displs[rank], operands[rank], 0, counts[rank]);
+
+    for (int step = 1; step < size; step++) {
+      int source = (rank - step + size) % size;
+
+      operands[source] = newArray(type, counts[rank]);
+      recvInto(operands[source], 0, counts[rank], source, tag, type);
+    }
+
+    waitAll(sends);
+
+    System.arraycopy(combine(op, operands, type), 0, recvData, 0, counts[rank]);
+  }
+
+  /**
+   * Prefix reduction by recursive doubling: at step k each process
+   * swaps the reduction of the 2^k processes it has heard from with
+   * the process whose rank differs in bit k, and folds what it
+   * receives from a lower rank into its result. Operands are always
+   * combined in rank order.
+   */
+  private void scan(Object inData, Object outData, MpiOp op, boolean exclusive, int type) {
+    int size = Size();
+    int rank = Rank();
+    int count = Array.getLength(inData);
+
+    if (Array.getLength(outData) != count) {
+      throw new MpiException("Message lengths do not match!");
+    }
+
+    int tag = nextCollectiveTags(1);
+
+    Object partial = inData;
+    Object result = exclusive ? null : inData;
+
+    for (int mask = 1; mask < size; mask <<= 1) {
+      int partner = rank ^ mask;
+
+      if (partner >= size) continue;
+
+      collectiveSend(partial, 0, count, partner, tag, type);
+
+      Object received = newArray(type, count);
+      recvInto(received, 0, count, partner, tag, type);
+
+      if (partner < rank) {
+        partial = combine(op, received, partial, type);
+        result = (result == null) ? received : combine(op, received, result, type);
+      }
+      else {
+        partial = combine(op, partial, received, type);
+      }
+    }
+
+    if (result != null) {
+      System.arraycopy(result, 0, outData, 0, count);
+    }
   }
 }
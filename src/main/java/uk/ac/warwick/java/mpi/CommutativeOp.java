@@ -0,0 +1,18 @@
+package uk.ac.warwick.java.mpi;
+
+
+/**
+ * An {@link MpiOp} whose result doesn't depend on the order of its
+ * operands.
+ *
+ * <p> Implementing this interface lets the collectives use algorithms
+ * that combine the operands in a different order on each process.
+ * Operations that don't implement it are always combined in rank
+ * order.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public interface CommutativeOp extends MpiOp {
+} // CommutativeOp
@@ -3,10 +3,15 @@ package uk.ac.warwick.java.mpi;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import uk.ac.warwick.java.mpi.system.NetDevice;
 import uk.ac.warwick.java.mpi.system.Processor;
 import uk.ac.warwick.java.mpi.system.Message;
 import uk.ac.warwick.java.mpi.system.MessageQueue;
+import uk.ac.warwick.java.mpi.system.PostedReceive;
 
 import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
 
@@ -16,14 +21,31 @@ import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
  * Class that holds all the information related to the Group
  * concept, and provides the methods for manipulating groups of
  * {@Processor}s.
+ *
+ * <p> Every group made from another shares its table of all the
+ * processors in the job, the world, and only holds the world rank of
+ * each of its members. The local process's rank is found once, when
+ * the group is made.
  */
 public class Group {
-  /** All the processors in the current group. */
-  private ArrayList<Processor> processors_;
+  /** All the processors in the job, indexed by world rank. */
+  private Processor[] world_;
+
+  /** The world rank of each member of the group, indexed by group rank. */
+  private int[] ranks_;
+
+  /** The group rank of each world rank, or UNDEFINED, made on first use. */
+  private int[] groupRanks_ = null;
 
   /** The <code>Processor</code> object corresponding to the local processor. */
   private Processor localProcessor_;
 
+  /** The rank of the local processor in this group, or UNDEFINED. */
+  private int rank_;
+
+  /** The most recently started non-blocking send. */
+  private Future<?> lastIsend_ = null;
+
   /**
    * Create a group of n processes.
    *
@@ -35,7 +57,9 @@ public class Group {
       System.err.println( "In group constructor!" );
     }
 
-    processors_ = new ArrayList<Processor>( n );
+    world_ = new Processor[0];
+    ranks_ = new int[0];
+    rank_ = Mpi.UNDEFINED;
   }
 
   /**
@@ -47,8 +71,38 @@ public class Group {
    * (local) process.
    */
   public Group(ArrayList<Processor> processors, Processor localProcessor) {
-    processors_ = processors;
+    world_ = processors.toArray(new Processor[processors.size()]);
+    ranks_ = new int[world_.length];
     localProcessor_ = localProcessor;
+    rank_ = Mpi.UNDEFINED;
+
+    for (int i = 0; i < ranks_.length; i++) {
+      ranks_[i] = i;
+
+      if (world_[i] == localProcessor && rank_ == Mpi.UNDEFINED) {
+        rank_ = i;
+      }
+    }
+  }
+
+  /**
+   * Creates a group of some of the processors of another.
+   *
+   * @param parent The group whose world this group shares.
+   * @param ranks The world rank of each member.
+   */
+  private Group(Group parent, int[] ranks) {
+    world_ = parent.world_;
+    ranks_ = ranks;
+    localProcessor_ = parent.localProcessor_;
+    rank_ = Mpi.UNDEFINED;
+
+    for (int i = 0; i < ranks_.length; i++) {
+      if (world_[ranks_[i]] == localProcessor_) {
+        rank_ = i;
+        break;
+      }
+    }
   }
 
   /**
@@ -56,24 +110,296 @@ public class Group {
    * @return The size of the group.
    */
   public int Size() {
-    return processors_.size();
+    return ranks_.length;
   }
 
   /**
    *
-   * @return The rank of the local processor in this group.
+   * @return The rank of the local processor in this group, or
+   * <code>Mpi.UNDEFINED</code> if it is not a member.
    */
   public int Rank() {
-    return processors_.indexOf( localProcessor_ );
+    return rank_;
+  }
+
+  /**
+   * Creates a group of the given members of this group, in the order
+   * given.
+   *
+   * @param ranks The ranks in this group of the members of the new group.
+   * @return The new group.
+   */
+  public Group Incl(int[] ranks) {
+    int[] world = new int[ranks.length];
+
+    for (int i = 0; i < ranks.length; i++) {
+      world[i] = worldRank(ranks[i]);
+    }
+
+    return new Group(this, world);
+  }
+
+  /**
+   * Creates a group of all the members of this group except the ones
+   * given, in the same order as in this group.
+   *
+   * @param ranks The ranks in this group of the processes to leave out.
+   * @return The new group.
+   */
+  public Group Excl(int[] ranks) {
+    boolean[] excluded = new boolean[ranks_.length];
+    int count = ranks_.length;
+
+    for (int rank : ranks) {
+      // Checks the rank is in the group
+      worldRank(rank);
+
+      if (!excluded[rank]) {
+        excluded[rank] = true;
+        count--;
+      }
+    }
+
+    int[] world = new int[count];
+
+    for (int i = 0, j = 0; i < ranks_.length; i++) {
+      if (!excluded[i]) world[j++] = ranks_[i];
+    }
+
+    return new Group(this, world);
+  }
+
+  /**
+   * Creates a group of the members of <code>group1</code>, followed by
+   * the members of <code>group2</code> that are not in
+   * <code>group1</code>.
+   *
+   * @return The union of the two groups.
+   */
+  public static Group Union(Group group1, Group group2) {
+    checkSameWorld(group1, group2);
+
+    int[] world = new int[group1.ranks_.length + group2.ranks_.length];
+    System.arraycopy(group1.ranks_, 0, world, 0, group1.ranks_.length);
+    int count = group1.ranks_.length;
+
+    for (int w : group2.ranks_) {
+      if (group1.groupRank(w) == Mpi.UNDEFINED) world[count++] = w;
+    }
+
+    return new Group(group1, Arrays.copyOf(world, count));
+  }
+
+  /**
+   * Creates a group of the members of <code>group1</code> that are
+   * also in <code>group2</code>, in the order they are in
+   * <code>group1</code>.
+   *
+   * @return The intersection of the two groups.
+   */
+  public static Group Intersection(Group group1, Group group2) {
+    return select(group1, group2, true);
+  }
+
+  /**
+   * Creates a group of the members of <code>group1</code> that are not
+   * in <code>group2</code>, in the order they are in
+   * <code>group1</code>.
+   *
+   * @return The difference of the two groups.
+   */
+  public static Group Difference(Group group1, Group group2) {
+    return select(group1, group2, false);
+  }
+
+  /**
+   * Creates a group of the members of <code>group1</code> that are, or
+   * are not, in <code>group2</code>.
+   */
+  private static Group select(Group group1, Group group2, boolean inGroup2) {
+    checkSameWorld(group1, group2);
+
+    int[] world = new int[group1.ranks_.length];
+    int count = 0;
+
+    for (int w : group1.ranks_) {
+      if ((group2.groupRank(w) != Mpi.UNDEFINED) == inGroup2) world[count++] = w;
+    }
+
+    return new Group(group1, Arrays.copyOf(world, count));
+  }
+
+  /**
+   * Finds the ranks in <code>group2</code> of processes given by their
+   * ranks in <code>group1</code>.
+   *
+   * @param group1 The group the ranks are in.
+   * @param ranks1 Ranks in <code>group1</code>.
+   * @param group2 The group to find the ranks in.
+   * @return The rank in <code>group2</code> of each process, or
+   * <code>Mpi.UNDEFINED</code> where it is not a member.
+   */
+  public static int[] Translate_ranks(Group group1, int[] ranks1, Group group2) {
+    checkSameWorld(group1, group2);
+
+    int[] ranks2 = new int[ranks1.length];
+
+    for (int i = 0; i < ranks1.length; i++) {
+      ranks2[i] = group2.groupRank(group1.worldRank(ranks1[i]));
+    }
+
+    return ranks2;
+  }
+
+  /**
+   * Compares two groups.
+   *
+   * @return <code>Mpi.IDENT</code> if they have the same members in
+   * the same order, <code>Mpi.SIMILAR</code> if they have the same
+   * members in a different order, and <code>Mpi.UNEQUAL</code>
+   * otherwise.
+   */
+  public static int Compare(Group group1, Group group2) {
+    checkSameWorld(group1, group2);
+
+    if (group1.ranks_.length != group2.ranks_.length) {
+      return Mpi.UNEQUAL;
+    }
+
+    if (Arrays.equals(group1.ranks_, group2.ranks_)) {
+      return Mpi.IDENT;
+    }
+
+    for (int w : group1.ranks_) {
+      if (group2.groupRank(w) == Mpi.UNDEFINED) return Mpi.UNEQUAL;
+    }
+
+    return Mpi.SIMILAR;
+  }
+
+  /**
+   * @return The world rank of the member with the given rank in this group.
+   */
+  private int worldRank(int rank) {
+    if (rank < 0 || rank >= ranks_.length) {
+      throw new MpiException("Rank " + rank + " is not in a group of size " + ranks_.length);
+    }
+
+    return ranks_[rank];
+  }
+
+  /**
+   * @return The rank in this group of the given world rank, or
+   * <code>Mpi.UNDEFINED</code>.
+   */
+  private synchronized int groupRank(int worldRank) {
+    if (groupRanks_ == null) {
+      groupRanks_ = new int[world_.length];
+      Arrays.fill(groupRanks_, Mpi.UNDEFINED);
+
+      for (int i = 0; i < ranks_.length; i++) {
+        groupRanks_[ranks_[i]] = i;
+      }
+    }
+
+    return groupRanks_[worldRank];
+  }
+
+  private static void checkSameWorld(Group group1, Group group2) {
+    if (group1.world_ != group2.world_) {
+      throw new MpiException("The groups are not from the same job");
+    }
   }
 
   protected void Send(Message m, int dest) {
-    //TODO
-    localProcessor_.getNetDevice().Send(m,getProcessorAt(dest).getHost(), getProcessorAt(dest).getPort());
+    Future<?> pending;
+
+    synchronized (this) {
+      pending = lastIsend_;
+    }
+
+    // Don't overtake messages from earlier non-blocking sends
+    if (pending != null) {
+      try {
+        pending.get();
+      } catch (Exception exception) {
+        // The failure is reported through that send's Request
+      }
+    }
+
+    deliver(m, dest);
+  }
+
+  /**
+   * Sends the message with the local device if the destination is
+   * another process on this host, and the network device otherwise.
+   */
+  private void deliver(Message m, int dest) {
+    Processor target = getProcessorAt(dest);
+    NetDevice device = localProcessor_.getLocalNetDevice();
+
+    if (device == null || !target.getHost().equals(localProcessor_.getHost())
+        || target.getPort() == localProcessor_.getPort()) {
+      device = localProcessor_.getNetDevice();
+    }
+
+    device.Send(m, target.getHost(), target.getPort());
+  }
+
+  /**
+   * Sends the message in the background. Sends are carried out one at
+   * a time, in the order they were started, so messages between a
+   * pair of processes are not overtaken. The message is released once
+   * it has been sent.
+   *
+   * @return A <code>Future</code> that is done once the message has
+   * been sent.
+   */
+  protected Future<?> Isend(Message m, int dest) {
+    return Isend(m, dest, null);
+  }
+
+  /**
+   * Sends the message in the background, as {@link #Isend(Message, int)},
+   * and runs <code>whenDone</code> once the returned
+   * <code>Future</code> is done.
+   */
+  protected synchronized Future<?> Isend(final Message m, final int dest, final Runnable whenDone) {
+    FutureTask<Object> send = new FutureTask<Object>(new Runnable() {
+        public void run() {
+          deliver(m, dest);
+          m.release();
+        }
+      }, null) {
+        protected void done() {
+          if (whenDone != null) {
+            whenDone.run();
+          }
+        }
+      };
+
+    localProcessor_.getSendExecutor().execute(send);
+    lastIsend_ = send;
+
+    return lastIsend_;
   }
 
-  protected Message Recv(int source, int tag) {
-    return localProcessor_.getNetDevice().Receive(source,tag);
+  protected Message Recv(int context, int source, int tag) {
+    return localProcessor_.getNetDevice().Receive(context,source,tag);
+  }
+
+  /**
+   * @return A matching message if one has arrived, otherwise null.
+   */
+  protected Message TryRecv(int context, int source, int tag) {
+    return localProcessor_.getNetDevice().AsynchronousReceive(context,source,tag);
+  }
+
+  /**
+   * Registers a receive to be filled as soon as its message arrives.
+   */
+  protected void Post(PostedReceive receive) {
+    localProcessor_.getNetDevice().Post(receive);
   }
 
   protected Processor getLocalProcessor() {
@@ -81,6 +407,6 @@ public class Group {
   }
 
   protected Processor getProcessorAt(int i) {
-    return processors_.get(i);
+    return world_[ranks_[i]];
   }
 }
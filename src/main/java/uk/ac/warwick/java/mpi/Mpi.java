@@ -32,6 +32,14 @@ public class Mpi {
   public static final int ANY_TAG = -1;
   /** MPI constant ANY_SOURCE */
   public static final int ANY_SOURCE = -2;
+  /** MPI constant UNDEFINED, for a colour that joins no communicator. */
+  public static final int UNDEFINED = -32766;
+  /** Result of <code>Group.Compare</code> for the same members in the same order. */
+  public static final int IDENT = 0;
+  /** Result of <code>Group.Compare</code> for the same members in a different order. */
+  public static final int SIMILAR = 1;
+  /** Result of <code>Group.Compare</code> for different members. */
+  public static final int UNEQUAL = 2;
   // Return values
   public static final int SUCCESS = 1;
 
@@ -91,8 +99,14 @@ public class Mpi {
       System.err.println("Mpi: \tFinalize called");
     }
 
-    // null comm_world
-    COMM_WORLD = null;
+    // With ranks as threads, only unbind this rank, the others may still be running
+    if (COMM_WORLD instanceof ThreadBoundComm) {
+      ((ThreadBoundComm) COMM_WORLD).unbind();
+    }
+    else {
+      // null comm_world
+      COMM_WORLD = null;
+    }
 
   } // Finalize
 
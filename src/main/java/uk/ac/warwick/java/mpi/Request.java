@@ -0,0 +1,218 @@
+package uk.ac.warwick.java.mpi;
+
+
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Handle on a non-blocking communication started by
+ * {@link Comm#Isend} or {@link Comm#Irecv}.
+ *
+ * <p> The operation is complete once <code>Wait</code> has returned,
+ * or <code>Test</code> has returned a <code>Status</code>. For a send
+ * the data has then been handed to the network; for a receive the
+ * data has been copied into the user's array.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public abstract class Request {
+
+  /** The status of the operation, null until it is complete. */
+  private Status status_ = null;
+
+  /** Set once the operation has completed and waiters were signalled. */
+  private boolean signalled_ = false;
+  /** The latches of <code>Waitany</code> calls blocked on this request. */
+  private ArrayList<CountDownLatch> waiters_ = null;
+
+  /**
+   * Blocks until the operation is complete.
+   *
+   * @return The <code>Status</code> of the operation.
+   */
+  public Status Wait() {
+    if (status_ == null) {
+      status_ = complete();
+    }
+
+    return status_;
+  }
+
+  /**
+   * Checks whether the operation is complete without blocking.
+   *
+   * @return The <code>Status</code> of the operation if it is
+   * complete, otherwise null.
+   */
+  public Status Test() {
+    if (status_ == null) {
+      status_ = tryComplete();
+    }
+
+    return status_;
+  }
+
+  /**
+   * Blocks until every request in the array is complete.
+   *
+   * @param requests The requests to wait for, null entries are ignored.
+   * @return The <code>Status</code> of each request, in the same order.
+   */
+  public static Status[] Waitall(Request[] requests) {
+    Status[] statuses = new Status[requests.length];
+
+    for (int i = 0; i < requests.length; i++) {
+      if (requests[i] != null) {
+        statuses[i] = requests[i].Wait();
+      }
+    }
+
+    return statuses;
+  }
+
+  /**
+   * Blocks until one of the requests in the array is complete. The
+   * completed request is replaced with null in the array, so it is
+   * not returned again.
+   *
+   * @param requests The requests to wait for, null entries are ignored.
+   * @return The <code>Status</code> of the completed request, with its
+   * index in the array, or null if every entry is null.
+   */
+  public static Status Waitany(Request[] requests) {
+    while (true) {
+      boolean active = false;
+
+      for (int i = 0; i < requests.length; i++) {
+        if (requests[i] == null) continue;
+
+        active = true;
+        Status status = requests[i].Test();
+
+        if (status != null) {
+          requests[i] = null;
+          status.setIndex(i);
+          return status;
+        }
+      }
+
+      if (!active) return null;
+
+      // Sleep until one of the requests signals it has completed. The
+      // latch is registered before the requests are tested again, so
+      // a completion in between is not missed.
+      CountDownLatch latch = new CountDownLatch(1);
+
+      for (Request request : requests) {
+        if (request != null && !request.addWaiter(latch)) {
+          latch.countDown();
+        }
+      }
+
+      try {
+        latch.await();
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new MpiException("Interrupted while waiting for a request");
+      } finally {
+        for (Request request : requests) {
+          if (request != null) {
+            request.removeWaiter(latch);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Completes whichever of the requests in the array are ready,
+   * without blocking. Completed requests are replaced with null in the
+   * array.
+   *
+   * @param requests The requests to test, null entries are ignored.
+   * @return The <code>Status</code> of each completed request, with
+   * its index in the array. Empty if none are complete.
+   */
+  public static Status[] Testsome(Request[] requests) {
+    Status[] completed = new Status[requests.length];
+    int count = 0;
+
+    for (int i = 0; i < requests.length; i++) {
+      if (requests[i] == null) continue;
+
+      Status status = requests[i].Test();
+
+      if (status != null) {
+        requests[i] = null;
+        status.setIndex(i);
+        completed[count++] = status;
+      }
+    }
+
+    Status[] statuses = new Status[count];
+    System.arraycopy(completed, 0, statuses, 0, count);
+    return statuses;
+  }
+
+  /**
+   * Wakes any <code>Waitany</code> call blocked on this request.
+   * Subclasses call this once the operation has completed, that is
+   * once <code>tryComplete</code> would no longer return null.
+   */
+  protected void signalComplete() {
+    ArrayList<CountDownLatch> waiters;
+
+    synchronized (this) {
+      signalled_ = true;
+      waiters = waiters_;
+      waiters_ = null;
+    }
+
+    if (waiters != null) {
+      for (CountDownLatch latch : waiters) {
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Registers a latch to be counted down when the request completes.
+   *
+   * @return False if the request has already completed.
+   */
+  private synchronized boolean addWaiter(CountDownLatch latch) {
+    if (signalled_) return false;
+
+    if (waiters_ == null) {
+      waiters_ = new ArrayList<CountDownLatch>(1);
+    }
+
+    waiters_.add(latch);
+    return true;
+  }
+
+  private synchronized void removeWaiter(CountDownLatch latch) {
+    if (waiters_ != null) {
+      waiters_.remove(latch);
+    }
+  }
+
+  /**
+   * Blocks until the operation is complete.
+   *
+   * @return The <code>Status</code> of the operation.
+   */
+  protected abstract Status complete();
+
+  /**
+   * Completes the operation if it can be done without blocking.
+   *
+   * @return The <code>Status</code> of the operation, or null if it
+   * is not yet complete.
+   */
+  protected abstract Status tryComplete();
+} // Request
@@ -15,6 +15,8 @@ public class Status {
   private int source_;
   private int tag_;
   private int error_;
+  /** Position in the request array, set by <code>Waitany</code> and <code>Testsome</code>. */
+  private int index_ = -1;
 
   public Status(int source, int tag, int error) {
     source_ = source;
@@ -36,6 +38,10 @@ public class Status {
     return error_;
   }
 
+  public int getIndex() {
+    return index_;
+  }
+
   protected void setSource(int source) {
     source_ = source;
   }
@@ -47,4 +53,8 @@ public class Status {
   protected void setError(int error) {
     error_ = error;
   }
+
+  protected void setIndex(int index) {
+    index_ = index;
+  }
 } // Status
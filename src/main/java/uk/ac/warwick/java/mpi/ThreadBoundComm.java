@@ -0,0 +1,395 @@
+package uk.ac.warwick.java.mpi;
+
+
+
+/**
+ * A communicator that stands for a different {@link Comm} in each
+ * thread, used as <code>Mpi.COMM_WORLD</code> when ranks run as
+ * threads in one JVM.
+ *
+ * <p> Each rank's thread binds its own <code>Comm</code> before
+ * running the user program, and every method is passed on to the
+ * <code>Comm</code> bound to the calling thread. Every public method
+ * of <code>Comm</code> must be overridden here.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class ThreadBoundComm extends Comm {
+
+  private final ThreadLocal<Comm> comm_ = new ThreadLocal<Comm>();
+
+  public ThreadBoundComm() {
+    super((Group) null);
+  }
+
+  /**
+   * Binds <code>comm</code> to the calling thread.
+   *
+   * @param comm The communicator for the calling thread's rank.
+   */
+  public void bind(Comm comm) {
+    comm_.set(comm);
+  }
+
+  /**
+   * Removes the communicator bound to the calling thread.
+   */
+  public void unbind() {
+    comm_.remove();
+  }
+
+  /**
+   * @return The communicator bound to the calling thread.
+   */
+  protected Comm current() {
+    Comm comm = comm_.get();
+
+    if (comm == null) {
+      throw new MpiException("No communicator is bound to this thread");
+    }
+
+    return comm;
+  }
+
+  public int Size() {
+    return current().Size();
+  }
+
+  public int Rank() {
+    return current().Rank();
+  }
+
+  public Group Group() {
+    return current().Group();
+  }
+
+  public void SetSegmentSize(int bytes) {
+    current().SetSegmentSize(bytes);
+  }
+
+  public Comm Dup() {
+    return current().Dup();
+  }
+
+  public Comm Split(int color, int key) {
+    return current().Split(color, key);
+  }
+
+  public Comm Create(Group group) {
+    return current().Create(group);
+  }
+
+  public void Send(int[] data, int dest, int tag) {
+    current().Send(data, dest, tag);
+  }
+
+  public void Send(long[] data, int dest, int tag) {
+    current().Send(data, dest, tag);
+  }
+
+  public void Send(float[] data, int dest, int tag) {
+    current().Send(data, dest, tag);
+  }
+
+  public void Send(double[] data, int dest, int tag) {
+    current().Send(data, dest, tag);
+  }
+
+  public void Recv(int[] data, int source, int tag, Status status) {
+    current().Recv(data, source, tag, status);
+  }
+
+  public void Recv(long[] data, int source, int tag, Status status) {
+    current().Recv(data, source, tag, status);
+  }
+
+  public void Recv(float[] data, int source, int tag, Status status) {
+    current().Recv(data, source, tag, status);
+  }
+
+  public void Recv(double[] data, int source, int tag, Status status) {
+    current().Recv(data, source, tag, status);
+  }
+
+  public Request Isend(int[] data, int dest, int tag) {
+    return current().Isend(data, dest, tag);
+  }
+
+  public Request Isend(long[] data, int dest, int tag) {
+    return current().Isend(data, dest, tag);
+  }
+
+  public Request Isend(float[] data, int dest, int tag) {
+    return current().Isend(data, dest, tag);
+  }
+
+  public Request Isend(double[] data, int dest, int tag) {
+    return current().Isend(data, dest, tag);
+  }
+
+  public Request Irecv(int[] data, int source, int tag) {
+    return current().Irecv(data, source, tag);
+  }
+
+  public Request Irecv(long[] data, int source, int tag) {
+    return current().Irecv(data, source, tag);
+  }
+
+  public Request Irecv(float[] data, int source, int tag) {
+    return current().Irecv(data, source, tag);
+  }
+
+  public Request Irecv(double[] data, int source, int tag) {
+    return current().Irecv(data, source, tag);
+  }
+
+  public void Bcast(int[] data, int root) {
+    current().Bcast(data, root);
+  }
+
+  public void Bcast(long[] data, int root) {
+    current().Bcast(data, root);
+  }
+
+  public void Bcast(float[] data, int root) {
+    current().Bcast(data, root);
+  }
+
+  public void Bcast(double[] data, int root) {
+    current().Bcast(data, root);
+  }
+
+  public void Barrier() {
+    current().Barrier();
+  }
+
+  public void Reduce(int[] inData, int[] outData, MpiOp op, int root) {
+    current().Reduce(inData, outData, op, root);
+  }
+
+  public void Reduce(long[] inData, long[] outData, MpiOp op, int root) {
+    current().Reduce(inData, outData, op, root);
+  }
+
+  public void Reduce(float[] inData, float[] outData, MpiOp op, int root) {
+    current().Reduce(inData, outData, op, root);
+  }
+
+  public void Reduce(double[] inData, double[] outData, MpiOp op, int root) {
+    current().Reduce(inData, outData, op, root);
+  }
+
+  public void AllReduce(int[] inData, int[] outData, MpiOp op) {
+    current().AllReduce(inData, outData, op);
+  }
+
+  public void AllReduce(long[] inData, long[] outData, MpiOp op) {
+    current().AllReduce(inData, outData, op);
+  }
+
+  public void AllReduce(float[] inData, float[] outData, MpiOp op) {
+    current().AllReduce(inData, outData, op);
+  }
+
+  public void AllReduce(double[] inData, double[] outData, MpiOp op) {
+    current().AllReduce(inData, outData, op);
+  }
+
+  public void Reduce_scatter(int[] sendData, int[] recvData, int[] counts, MpiOp op) {
+    current().Reduce_scatter(sendData, recvData, counts, op);
+  }
+
+  public void Reduce_scatter_block(int[] sendData, int[] recvData, MpiOp op) {
+    current().Reduce_scatter_block(sendData, recvData, op);
+  }
+
+  public void Reduce_scatter(long[] sendData, long[] recvData, int[] counts, MpiOp op) {
+    current().Reduce_scatter(sendData, recvData, counts, op);
+  }
+
+  public void Reduce_scatter_block(long[] sendData, long[] recvData, MpiOp op) {
+    current().Reduce_scatter_block(sendData, recvData, op);
+  }
+
+  public void Reduce_scatter(float[] sendData, float[] recvData, int[] counts, MpiOp op) {
+    current().Reduce_scatter(sendData, recvData, counts, op);
+  }
+
+  public void Reduce_scatter_block(float[] sendData, float[] recvData, MpiOp op) {
+    current().Reduce_scatter_block(sendData, recvData, op);
+  }
+
+  public void Reduce_scatter(double[] sendData, double[] recvData, int[] counts, MpiOp op) {
+    current().Reduce_scatter(sendData, recvData, counts, op);
+  }
+
+  public void Reduce_scatter_block(double[] sendData, double[] recvData, MpiOp op) {
+    current().Reduce_scatter_block(sendData, recvData, op);
+  }
+
+  public void Scan(int[] inData, int[] outData, MpiOp op) {
+    current().Scan(inData, outData, op);
+  }
+
+  public void Exscan(int[] inData, int[] outData, MpiOp op) {
+    current().Exscan(inData, outData, op);
+  }
+
+  public void Scan(long[] inData, long[] outData, MpiOp op) {
+    current().Scan(inData, outData, op);
+  }
+
+  public void Exscan(long[] inData, long[] outData, MpiOp op) {
+    current().Exscan(inData, outData, op);
+  }
+
+  public void Scan(float[] inData, float[] outData, MpiOp op) {
+    current().Scan(inData, outData, op);
+  }
+
+  public void Exscan(float[] inData, float[] outData, MpiOp op) {
+    current().Exscan(inData, outData, op);
+  }
+
+  public void Scan(double[] inData, double[] outData, MpiOp op) {
+    current().Scan(inData, outData, op);
+  }
+
+  public void Exscan(double[] inData, double[] outData, MpiOp op) {
+    current().Exscan(inData, outData, op);
+  }
+
+  public void Scatter(int[] sendData, int[] recvData, int root) {
+    current().Scatter(sendData, recvData, root);
+  }
+
+  public void Scatterv(int[] sendData, int[] counts, int[] displs, int[] recvData, int root) {
+    current().Scatterv(sendData, counts, displs, recvData, root);
+  }
+
+  public void Gather(int[] sendData, int[] recvData, int root) {
+    current().Gather(sendData, recvData, root);
+  }
+
+  public void Gatherv(int[] sendData, int[] recvData, int[] counts, int[] displs, int root) {
+    current().Gatherv(sendData, recvData, counts, displs, root);
+  }
+
+  public void Allgather(int[] sendData, int[] recvData) {
+    current().Allgather(sendData, recvData);
+  }
+
+  public void Allgatherv(int[] sendData, int[] recvData, int[] counts, int[] displs) {
+    current().Allgatherv(sendData, recvData, counts, displs);
+  }
+
+  public void Scatter(long[] sendData, long[] recvData, int root) {
+    current().Scatter(sendData, recvData, root);
+  }
+
+  public void Scatterv(long[] sendData, int[] counts, int[] displs, long[] recvData, int root) {
+    current().Scatterv(sendData, counts, displs, recvData, root);
+  }
+
+  public void Gather(long[] sendData, long[] recvData, int root) {
+    current().Gather(sendData, recvData, root);
+  }
+
+  public void Gatherv(long[] sendData, long[] recvData, int[] counts, int[] displs, int root) {
+    current().Gatherv(sendData, recvData, counts, displs, root);
+  }
+
+  public void Allgather(long[] sendData, long[] recvData) {
+    current().Allgather(sendData, recvData);
+  }
+
+  public void Allgatherv(long[] sendData, long[] recvData, int[] counts, int[] displs) {
+    current().Allgatherv(sendData, recvData, counts, displs);
+  }
+
+  public void Scatter(float[] sendData, float[] recvData, int root) {
+    current().Scatter(sendData, recvData, root);
+  }
+
+  public void Scatterv(float[] sendData, int[] counts, int[] displs, float[] recvData, int root) {
+    current().Scatterv(sendData, counts, displs, recvData, root);
+  }
+
+  public void Gather(float[] sendData, float[] recvData, int root) {
+    current().Gather(sendData, recvData, root);
+  }
+
+  public void Gatherv(float[] sendData, float[] recvData, int[] counts, int[] displs, int root) {
+    current().Gatherv(sendData, recvData, counts, displs, root);
+  }
+
+  public void Allgather(float[] sendData, float[] recvData) {
+    current().Allgather(sendData, recvData);
+  }
+
+  public void Allgatherv(float[] sendData, float[] recvData, int[] counts, int[] displs) {
+    current().Allgatherv(sendData, recvData, counts, displs);
+  }
+
+  public void Scatter(double[] sendData, double[] recvData, int root) {
+    current().Scatter(sendData, recvData, root);
+  }
+
+  public void Scatterv(double[] sendData, int[] counts, int[] displs, double[] recvData, int root) {
+    current().Scatterv(sendData, counts, displs, recvData, root);
+  }
+
+  public void Gather(double[] sendData, double[] recvData, int root) {
+    current().Gather(sendData, recvData, root);
+  }
+
+  public void Gatherv(double[] sendData, double[] recvData, int[] counts, int[] displs, int root) {
+    current().Gatherv(sendData, recvData, counts, displs, root);
+  }
+
+  public void Allgather(double[] sendData, double[] recvData) {
+    current().Allgather(sendData, recvData);
+  }
+
+  public void Allgatherv(double[] sendData, double[] recvData, int[] counts, int[] displs) {
+    current().Allgatherv(sendData, recvData, counts, displs);
+  }
+
+  public void Alltoall(int[] sendData, int[] recvData) {
+    current().Alltoall(sendData, recvData);
+  }
+
+  public void Alltoallv(int[] sendData, int[] sendCounts, int[] sendDispls,
+                        int[] recvData, int[] recvCounts, int[] recvDispls) {
+    current().Alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls);
+  }
+
+  public void Alltoall(long[] sendData, long[] recvData) {
+    current().Alltoall(sendData, recvData);
+  }
+
+  public void Alltoallv(long[] sendData, int[] sendCounts, int[] sendDispls,
+                        long[] recvData, int[] recvCounts, int[] recvDispls) {
+    current().Alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls);
+  }
+
+  public void Alltoall(float[] sendData, float[] recvData) {
+    current().Alltoall(sendData, recvData);
+  }
+
+  public void Alltoallv(float[] sendData, int[] sendCounts, int[] sendDispls,
+                        float[] recvData, int[] recvCounts, int[] recvDispls) {
+    current().Alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls);
+  }
+
+  public void Alltoall(double[] sendData, double[] recvData) {
+    current().Alltoall(sendData, recvData);
+  }
+
+  public void Alltoallv(double[] sendData, int[] sendCounts, int[] sendDispls,
+                        double[] recvData, int[] recvCounts, int[] recvDispls) {
+    current().Alltoallv(sendData, sendCounts, sendDispls, recvData, recvCounts, recvDispls);
+  }
+} // ThreadBoundComm
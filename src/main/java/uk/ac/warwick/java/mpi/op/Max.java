@@ -1,16 +1,22 @@
 package uk.ac.warwick.java.mpi.op;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import uk.ac.warwick.java.mpi.MpiOp;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
+import uk.ac.warwick.java.mpi.CommutativeOp;
 
 /**
  * Finds the maximum value on an element by element basis
  *
+ * <p> For <code>float</code> and <code>double</code> arrays a NaN in
+ * any operand gives NaN at that position, as with
+ * <code>Math.max</code>.
+ *
  * Created: 01/12/11
  *
  * @author David Beckingsale
  */
-public class Max implements MpiOp {
+public class Max implements AccumulatingOp, CommutativeOp {
 
   /**
    * Finds the maximum value on an element by element basis in the
@@ -20,18 +26,13 @@ public class Max implements MpiOp {
    * @return An <code>int</code> array containing the maximum element in each position.
    */
   public int[] run(ArrayList<int[]> arrays) {
-    int length = arrays.get(0).length;
+    int[] result = arrays.get(0).clone();
 
-    int[] result = new int[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Integer.MIN_VALUE;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      int[] array = arrays.get(j);
 
-    for (int[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] > result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.max(result[i], array[i]);
       }
     }
 
@@ -46,18 +47,13 @@ public class Max implements MpiOp {
    * @return A <code>long</code> array containing the maximum element at each position.
    */
   public long[] run(ArrayList<long[]> arrays) {
-    int length = arrays.get(0).length;
+    long[] result = arrays.get(0).clone();
 
-    long[] result = new long[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Long.MIN_VALUE;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      long[] array = arrays.get(j);
 
-    for (long[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] > result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.max(result[i], array[i]);
       }
     }
 
@@ -72,18 +68,13 @@ public class Max implements MpiOp {
    * @return A <code>float</code> array containing the maximum element at each position.
    */
   public float[] run(ArrayList<float[]> arrays) {
-    int length = arrays.get(0).length;
+    float[] result = arrays.get(0).clone();
 
-    float[] result = new float[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Float.NEGATIVE_INFINITY;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      float[] array = arrays.get(j);
 
-    for (float[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] > result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.max(result[i], array[i]);
       }
     }
 
@@ -98,21 +89,104 @@ public class Max implements MpiOp {
    * @return A <code>double</code> array containing the maximum element at each position.
    */
   public double[] run(ArrayList<double[]> arrays) {
-    int length = arrays.get(0).length;
+    double[] result = arrays.get(0).clone();
 
-    double[] result = new double[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Double.NEGATIVE_INFINITY;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      double[] array = arrays.get(j);
 
-    for (double[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] > result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.max(result[i], array[i]);
       }
     }
 
     return result;
   }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(int[] inout, int[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(int[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in.getInt(start + 4*i));
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(long[] inout, long[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(long[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in.getLong(start + 8*i));
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(float[] inout, float[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(float[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in.getFloat(start + 4*i));
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(double[] inout, double[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the larger of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(double[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.max(inout[offset + i], in.getDouble(start + 8*i));
+    }
+  }
 } // Max
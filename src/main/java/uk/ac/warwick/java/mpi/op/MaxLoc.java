@@ -15,8 +15,11 @@ import java.util.ArrayList;
  * @since 2/2/2011
  */
 public class MaxLoc implements MpiOp {
-  /** Stores the location of max after run() has been called */
-  private static int[] location;
+  /**
+   * Stores the location of max after run() has been called, for each
+   * thread, since every rank may be a thread of one JVM.
+   */
+  private static final ThreadLocal<int[]> location_ = new ThreadLocal<int[]>();
 
   /**
    * Finds the maximum value on an element by element basis in the
@@ -27,7 +30,8 @@ public class MaxLoc implements MpiOp {
    */
   public int[] run(ArrayList<int[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     int[] result = new int[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -55,7 +59,8 @@ public class MaxLoc implements MpiOp {
    */
   public long[] run(ArrayList<long[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     long[] result = new long[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -83,7 +88,8 @@ public class MaxLoc implements MpiOp {
    */
   public float[] run(ArrayList<float[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     float[] result = new float[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -111,7 +117,8 @@ public class MaxLoc implements MpiOp {
    */
   public double[] run(ArrayList<double[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     double[] result = new double[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -133,7 +140,9 @@ public class MaxLoc implements MpiOp {
   /**
    * Returns the array of locations for the maximums. This is only
    * valid AFTER the Reduce or Allreduce has been used, on the process
-   * used as "root" for that operation.
+   * used as "root" for that operation. For AllReduce
+   * that is process 0. The locations are kept for each thread, so
+   * they must be read on the thread that made the call.
    *
    * <p> The two arrays correspond such that location[i] is the rank
    * where result[i] can be found.
@@ -141,6 +150,6 @@ public class MaxLoc implements MpiOp {
    * @return An array of ranks where the maximums are found.
    */
   public int[] getLocArray() {
-    return location;
+    return location_.get();
   }
 } // MaxLoc
@@ -1,7 +1,9 @@
 package uk.ac.warwick.java.mpi.op;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import uk.ac.warwick.java.mpi.MpiOp;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
+import uk.ac.warwick.java.mpi.CommutativeOp;
 
 /**
  * Class containing the Min operation.
@@ -10,11 +12,15 @@ import uk.ac.warwick.java.mpi.MpiOp;
  * {5,3} and b[] = {1,4}, then the result of min on these arrays would
  * be {5,4}.
  *
+ * <p> For <code>float</code> and <code>double</code> arrays a NaN in
+ * any operand gives NaN at that position, as with
+ * <code>Math.min</code>.
+ *
  * Created: 01/12/11
  *
  * @author David Beckingsale
  */
-public class Min implements MpiOp {
+public class Min implements AccumulatingOp, CommutativeOp {
 
   /**
    * Finds the minimum value on an element by element basis in the arrays in the
@@ -25,18 +31,13 @@ public class Min implements MpiOp {
    * @return An array containing the minimum value at each position.
    */
   public int[] run(ArrayList<int[]> arrays) {
-    int length = arrays.get(0).length;
+    int[] result = arrays.get(0).clone();
 
-    int[] result = new int[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Integer.MAX_VALUE;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      int[] array = arrays.get(j);
 
-    for (int[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] < result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.min(result[i], array[i]);
       }
     }
 
@@ -52,18 +53,13 @@ public class Min implements MpiOp {
    * @return An array containing the minimum value at each position.
    */
   public long[] run(ArrayList<long[]> arrays) {
-    int length = arrays.get(0).length;
+    long[] result = arrays.get(0).clone();
 
-    long[] result = new long[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Long.MAX_VALUE;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      long[] array = arrays.get(j);
 
-    for (long[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] < result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.min(result[i], array[i]);
       }
     }
 
@@ -79,18 +75,13 @@ public class Min implements MpiOp {
    * @return An array containing the minimum value at each position.
    */
   public float[] run(ArrayList<float[]> arrays) {
-    int length = arrays.get(0).length;
+    float[] result = arrays.get(0).clone();
 
-    float[] result = new float[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Float.POSITIVE_INFINITY;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      float[] array = arrays.get(j);
 
-    for (float[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] < result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.min(result[i], array[i]);
       }
     }
 
@@ -106,21 +97,104 @@ public class Min implements MpiOp {
    * @return An array containing the minimum value at each position.
    */
   public double[] run(ArrayList<double[]> arrays) {
-    int length = arrays.get(0).length;
+    double[] result = arrays.get(0).clone();
 
-    double[] result = new double[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = Double.POSITIVE_INFINITY;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      double[] array = arrays.get(j);
 
-    for (double[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-        if (array[i] < result[i]) {
-          result[i] = array[i];
-        }
+        result[i] = Math.min(result[i], array[i]);
       }
     }
 
     return result;
   }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(int[] inout, int[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(int[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in.getInt(start + 4*i));
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(long[] inout, long[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(long[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in.getLong(start + 8*i));
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(float[] inout, float[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(float[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in.getFloat(start + 4*i));
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element of <code>in</code>.
+   */
+  public void accumulate(double[] inout, double[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in[i]);
+    }
+  }
+
+  /**
+   * Keeps the smaller of each element of <code>inout</code> from
+   * <code>offset</code> and the matching element read from <code>in</code>.
+   */
+  public void accumulate(double[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] = Math.min(inout[offset + i], in.getDouble(start + 8*i));
+    }
+  }
 } // Min
@@ -14,8 +14,11 @@ import java.util.ArrayList;
  * @author David Beckingsale
  */
 public class MinLoc implements MpiOp {
-  /** Stores the location of min after run() has been called */
-  private static int[] location;
+  /**
+   * Stores the location of min after run() has been called, for each
+   * thread, since every rank may be a thread of one JVM.
+   */
+  private static final ThreadLocal<int[]> location_ = new ThreadLocal<int[]>();
 
   /**
    * Finds the minimum value on an element by element basis in the arrays in the
@@ -27,7 +30,8 @@ public class MinLoc implements MpiOp {
    */
   public int[] run(ArrayList<int[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     int[] result = new int[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -56,7 +60,8 @@ public class MinLoc implements MpiOp {
    */
   public long[] run(ArrayList<long[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     long[] result = new long[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -85,7 +90,8 @@ public class MinLoc implements MpiOp {
    */
   public float[] run(ArrayList<float[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     float[] result = new float[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -114,7 +120,8 @@ public class MinLoc implements MpiOp {
    */
   public double[] run(ArrayList<double[]> arrays) {
     int length = arrays.get(0).length;
-    location = new int[length];
+    int[] location = new int[length];
+    location_.set(location);
 
     double[] result = new double[arrays.get(0).length];
     for (int i = 0; i < length; i++) {
@@ -136,7 +143,9 @@ public class MinLoc implements MpiOp {
   /**
    * Returns the array of locations for the maximums. This method is
    * only valid AFTER Reduce/AllReduce has been called, and only on
-   * the process of rank "root" for that operation.
+   * the process of rank "root" for that operation. For AllReduce
+   * that is process 0. The locations are kept for each thread, so
+   * they must be read on the thread that made the call.
    *
    * <p> The two arrays correspond such that location[i] is the rank
    * where result[i] can be found.
@@ -144,7 +153,7 @@ public class MinLoc implements MpiOp {
    * @return An array of ranks where the maximums are found.
    */
   public int[] getLocArray() {
-    return location;
+    return location_.get();
   }
 
 } // MinLoc
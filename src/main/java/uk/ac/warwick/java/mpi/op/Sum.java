@@ -1,7 +1,9 @@
 package uk.ac.warwick.java.mpi.op;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import uk.ac.warwick.java.mpi.MpiOp;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
+import uk.ac.warwick.java.mpi.CommutativeOp;
 
 /**
  * Class containing the Sum operation.
@@ -13,7 +15,7 @@ import uk.ac.warwick.java.mpi.MpiOp;
  *
  * @author David Beckingsale
  */
-public class Sum implements MpiOp {
+public class Sum implements AccumulatingOp, CommutativeOp {
 
   /**
    * Sums all the arrays in the array list <code>arrays</code>.
@@ -22,18 +24,15 @@ public class Sum implements MpiOp {
    * @return An array containing, at each position, the sum of that position.
    */
   public int[] run(ArrayList<int[]> arrays) {
-   int length = arrays.get(0).length;
+    int[] result = arrays.get(0).clone();
 
-    int[] result = new int[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = 0;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      int[] array = arrays.get(j);
 
-    for (int[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-          result[i] = result[i] + array[i];
-        }
+        result[i] += array[i];
       }
+    }
 
     return result;
   }
@@ -45,18 +44,15 @@ public class Sum implements MpiOp {
    * @return An array containing, at each position, the sum of that position.
    */
   public long[] run(ArrayList<long[]> arrays) {
-   int length = arrays.get(0).length;
+    long[] result = arrays.get(0).clone();
 
-    long[] result = new long[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = 0;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      long[] array = arrays.get(j);
 
-    for (long[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-          result[i] = result[i] + array[i];
-        }
+        result[i] += array[i];
       }
+    }
 
     return result;
   }
@@ -68,18 +64,15 @@ public class Sum implements MpiOp {
    * @return An array containing, at each position, the sum of that position.
    */
   public float[] run(ArrayList<float[]> arrays) {
-   int length = arrays.get(0).length;
+    float[] result = arrays.get(0).clone();
 
-    float[] result = new float[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = 0;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      float[] array = arrays.get(j);
 
-    for (float[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-          result[i] = result[i] + array[i];
-        }
+        result[i] += array[i];
       }
+    }
 
     return result;
   }
@@ -91,19 +84,104 @@ public class Sum implements MpiOp {
    * @return An array containing, at each position, the sum of that position.
    */
   public double[] run(ArrayList<double[]> arrays) {
-   int length = arrays.get(0).length;
+    double[] result = arrays.get(0).clone();
 
-    double[] result = new double[arrays.get(0).length];
-    for (int i = 0; i < length; i++) {
-      result[i] = 0;
-    }
+    for (int j = 1; j < arrays.size(); j++) {
+      double[] array = arrays.get(j);
 
-    for (double[] array : arrays) {
       for (int i = 0; i < array.length; i++) {
-          result[i] = result[i] + array[i];
-        }
+        result[i] += array[i];
       }
+    }
 
     return result;
   }
+
+  /**
+   * Adds the first <code>count</code> elements of <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(int[] inout, int[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in[i];
+    }
+  }
+
+  /**
+   * Adds <code>count</code> elements read from <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(int[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in.getInt(start + 4*i);
+    }
+  }
+
+  /**
+   * Adds the first <code>count</code> elements of <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(long[] inout, long[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in[i];
+    }
+  }
+
+  /**
+   * Adds <code>count</code> elements read from <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(long[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in.getLong(start + 8*i);
+    }
+  }
+
+  /**
+   * Adds the first <code>count</code> elements of <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(float[] inout, float[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in[i];
+    }
+  }
+
+  /**
+   * Adds <code>count</code> elements read from <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(float[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in.getFloat(start + 4*i);
+    }
+  }
+
+  /**
+   * Adds the first <code>count</code> elements of <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(double[] inout, double[] in, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in[i];
+    }
+  }
+
+  /**
+   * Adds <code>count</code> elements read from <code>in</code> to
+   * <code>inout</code> from <code>offset</code>.
+   */
+  public void accumulate(double[] inout, ByteBuffer in, int offset, int count) {
+    int start = in.position();
+
+    for (int i = 0; i < count; i++) {
+      inout[offset + i] += in.getDouble(start + 8*i);
+    }
+  }
 } // Sum
@@ -0,0 +1,167 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * A pool of <code>byte</code> arrays for message data, so that
+ * buffers of the same size can be reused rather than reallocated for
+ * every message.
+ *
+ * <p> Buffers come in power-of-two size classes from
+ * {@link #MIN_SIZE} to {@link #MAX_SIZE} bytes, so a buffer may be
+ * longer than was asked for. Each thread keeps a few buffers of each
+ * class up to {@link #LOCAL_MAX_SIZE} bytes for itself, and passes
+ * any more, and every larger buffer, on to a shared pool, so a buffer
+ * allocated by an I/O thread can be released by the receiving thread
+ * and then reused. The shared pool holds at most
+ * {@link #SHARED_BYTES} bytes in all, so a thread's cache is a few
+ * hundred kilobytes at most and the whole pool stays bounded however
+ * many threads there are.
+ *
+ * <p> Only arrays that are exactly a size class long are kept, so
+ * releasing any other array is harmless. A buffer must not be used
+ * after it has been released.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public final class BufferPool {
+
+  private static final int MIN_SHIFT = 6;
+  private static final int LOCAL_MAX_SHIFT = 16;
+  private static final int MAX_SHIFT = 22;
+
+  /** The smallest buffer handed out, in bytes. */
+  public static final int MIN_SIZE = 1 << MIN_SHIFT;
+  /** The largest buffer a thread keeps for itself, in bytes. */
+  public static final int LOCAL_MAX_SIZE = 1 << LOCAL_MAX_SHIFT;
+  /** The largest buffer kept in the pool, in bytes. */
+  public static final int MAX_SIZE = 1 << MAX_SHIFT;
+  /** The most bytes kept in the shared pool, over all size classes. */
+  public static final int SHARED_BYTES = 1 << 25;
+
+  /** Buffers of each class each thread keeps for itself. */
+  private static final int LOCAL_CAPACITY = 4;
+
+  private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+  private static final int LOCAL_CLASSES = LOCAL_MAX_SHIFT - MIN_SHIFT + 1;
+
+  private static final ConcurrentLinkedQueue<byte[]>[] shared_;
+  /** The bytes currently held in the shared pool. */
+  private static final AtomicLong sharedBytes_ = new AtomicLong();
+
+  private static final ThreadLocal<LocalCache> local_ = new ThreadLocal<LocalCache>() {
+      protected LocalCache initialValue() {
+        return new LocalCache();
+      }
+    };
+
+  static {
+    @SuppressWarnings("unchecked")
+    ConcurrentLinkedQueue<byte[]>[] queues = new ConcurrentLinkedQueue[CLASSES];
+    shared_ = queues;
+
+    for (int i = 0; i < CLASSES; i++) {
+      shared_[i] = new ConcurrentLinkedQueue<byte[]>();
+    }
+  }
+
+  private BufferPool() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The buffers one thread keeps for itself.
+   */
+  private static class LocalCache {
+    byte[][][] buffers_ = new byte[LOCAL_CLASSES][LOCAL_CAPACITY][];
+    int[] counts_ = new int[LOCAL_CLASSES];
+  }
+
+  /**
+   * Returns a buffer at least <code>length</code> bytes long. Its
+   * contents are undefined.
+   *
+   * @param length The number of bytes needed.
+   *
+   * @return A buffer of at least <code>length</code> bytes.
+   */
+  public static byte[] acquire(int length) {
+    if (length > MAX_SIZE) {
+      return new byte[length];
+    }
+
+    int sizeClass = sizeClass(length);
+
+    if (sizeClass < LOCAL_CLASSES) {
+      LocalCache cache = local_.get();
+
+      if (cache.counts_[sizeClass] > 0) {
+        int i = --cache.counts_[sizeClass];
+        byte[] buffer = cache.buffers_[sizeClass][i];
+        cache.buffers_[sizeClass][i] = null;
+        return buffer;
+      }
+    }
+
+    byte[] buffer = shared_[sizeClass].poll();
+
+    if (buffer != null) {
+      sharedBytes_.addAndGet(-buffer.length);
+      return buffer;
+    }
+
+    return new byte[1 << (sizeClass + MIN_SHIFT)];
+  }
+
+  /**
+   * Returns a buffer to the pool. Arrays that did not come from the
+   * pool are ignored unless they happen to be exactly a size class
+   * long, as are buffers larger than {@link #MAX_SIZE} and any that
+   * would take the shared pool over {@link #SHARED_BYTES}.
+   *
+   * @param buffer The buffer to return, may be null.
+   */
+  public static void release(byte[] buffer) {
+    if (buffer == null) return;
+
+    int length = buffer.length;
+
+    if (length < MIN_SIZE || length > MAX_SIZE || (length & (length - 1)) != 0) {
+      return;
+    }
+
+    int sizeClass = sizeClass(length);
+
+    if (sizeClass < LOCAL_CLASSES) {
+      LocalCache cache = local_.get();
+
+      if (cache.counts_[sizeClass] < LOCAL_CAPACITY) {
+        cache.buffers_[sizeClass][cache.counts_[sizeClass]++] = buffer;
+        return;
+      }
+    }
+
+    if (sharedBytes_.addAndGet(length) <= SHARED_BYTES) {
+      shared_[sizeClass].offer(buffer);
+    }
+    else {
+      sharedBytes_.addAndGet(-length);
+    }
+  }
+
+  /**
+   * @return The index of the smallest size class holding <code>length</code> bytes.
+   */
+  static int sizeClass(int length) {
+    if (length <= MIN_SIZE) return 0;
+
+    return (32 - Integer.numberOfLeadingZeros(length - 1)) - MIN_SHIFT;
+  }
+} // BufferPool
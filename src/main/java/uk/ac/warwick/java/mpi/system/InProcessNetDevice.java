@@ -0,0 +1,113 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.ac.warwick.java.mpi.MpiException;
+
+import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
+
+
+
+/**
+ * Implementation of {@link NetDevice} for ranks that run as threads in
+ * the same JVM.
+ *
+ * <p> Each rank has its own device and {@link MessageQueue}, and the
+ * devices find each other through a shared map from port to queue.
+ * Sending copies the message data once, into a pooled buffer, and adds
+ * the copy straight to the receiver's queue; nothing is serialized
+ * and no sockets are used.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class InProcessNetDevice
+  implements NetDevice
+{
+
+  private MessageQueue messagequeue_;
+  /** The queues of every rank in the JVM, keyed on port. */
+  private ConcurrentHashMap<Integer, MessageQueue> queues_;
+
+  /**
+   * Creates a device for the rank with the given port and adds its
+   * queue to <code>queues</code>.
+   *
+   * @param port The port identifying this rank.
+   * @param queues The queues of all the ranks, shared by their devices.
+   * @param queue The queue incoming messages are added to.
+   */
+  public InProcessNetDevice(int port, ConcurrentHashMap<Integer, MessageQueue> queues, MessageQueue queue) {
+    messagequeue_ = queue;
+    queues_ = queues;
+    queues_.put(port, queue);
+  }
+
+  /**
+   * Adds a copy of the message to the queue of the rank on
+   * <code>portNumber</code>. The copy is made so that the sender can
+   * reuse or release its message as soon as this returns.
+   *
+   * @param message The <code>Message</code> to send.
+   * @param host Ignored, all ranks are in this JVM.
+   * @param portNumber The port of the target rank.
+   */
+  public void Send(Message message, String host, int portNumber) {
+    if (DEBUG_MODE) {
+      System.out.println("InProcessNetDevice: \tSend called with port " + portNumber);
+    }
+
+    MessageQueue target = queues_.get(portNumber);
+
+    if (target == null) {
+      throw new MpiException("No rank in this JVM on port " + portNumber);
+    }
+
+    int length = message.getDataLength();
+    byte[] data = BufferPool.acquire(length);
+    message.dataBuffer().get(data, 0, length);
+
+    Message copy = new Message(data, length, message.getSource(), message.getTag(), message.getType());
+    copy.setContext(message.getContext());
+    target.add(copy);
+  }
+
+
+  /**
+   * Blocks until a matching message has been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>.
+   */
+  public Message Receive(int context, int source, int tag) {
+    return messagequeue_.take(context, source, tag);
+  }
+
+  /**
+   * Returns a matching message if one has already been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>, or null.
+   */
+  public Message AsynchronousReceive(int context, int source, int tag) {
+    return messagequeue_.get(context, source, tag);
+  }
+
+  /**
+   * Fills the receive with a matching message once one is delivered.
+   *
+   * @param receive The receive to fill.
+   */
+  public void Post(PostedReceive receive) {
+    messagequeue_.post(receive);
+  }
+}
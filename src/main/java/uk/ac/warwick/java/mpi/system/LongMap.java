@@ -0,0 +1,126 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+/**
+ * A hash map from primitive <code>long</code> keys to objects, so
+ * that looking a key up doesn't allocate a boxed key.
+ *
+ * <p> Keys are kept by open addressing with linear probing, and
+ * removal shifts later entries back rather than leaving markers, so
+ * a map whose keys come and go doesn't fill up. Not thread safe.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+class LongMap<V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] keys_;
+  private Object[] values_;
+  private int size_;
+  private int mask_;
+
+  LongMap() {
+    keys_ = new long[INITIAL_CAPACITY];
+    values_ = new Object[INITIAL_CAPACITY];
+    mask_ = INITIAL_CAPACITY - 1;
+  }
+
+  /**
+   * Spreads the bits of the key, since keys often differ only in
+   * their high half.
+   */
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * @return The value for <code>key</code>, or null if there isn't one.
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    for (int i = hash(key) & mask_; values_[i] != null; i = (i + 1) & mask_) {
+      if (keys_[i] == key) return (V) values_[i];
+    }
+
+    return null;
+  }
+
+  /**
+   * Sets the value for <code>key</code>, which must not be null.
+   */
+  void put(long key, V value) {
+    int i = hash(key) & mask_;
+
+    for (; values_[i] != null; i = (i + 1) & mask_) {
+      if (keys_[i] == key) {
+        values_[i] = value;
+        return;
+      }
+    }
+
+    keys_[i] = key;
+    values_[i] = value;
+
+    // Keep the table at most half full, so probe runs stay short
+    if (++size_ > keys_.length / 2) {
+      resize(keys_.length * 2);
+    }
+  }
+
+  /**
+   * Removes the value for <code>key</code>, if there is one.
+   */
+  void remove(long key) {
+    int i = hash(key) & mask_;
+
+    for (; values_[i] != null; i = (i + 1) & mask_) {
+      if (keys_[i] == key) break;
+    }
+
+    if (values_[i] == null) return;
+
+    // Move back any later entry in the run that would no longer be
+    // found once this slot is empty
+    int hole = i;
+
+    for (int j = (i + 1) & mask_; values_[j] != null; j = (j + 1) & mask_) {
+      int home = hash(keys_[j]) & mask_;
+
+      if (((j - home) & mask_) >= ((j - hole) & mask_)) {
+        keys_[hole] = keys_[j];
+        values_[hole] = values_[j];
+        hole = j;
+      }
+    }
+
+    values_[hole] = null;
+    size_--;
+  }
+
+  /**
+   * @return The number of keys in the map.
+   */
+  int size() {
+    return size_;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void resize(int capacity) {
+    long[] keys = keys_;
+    Object[] values = values_;
+
+    keys_ = new long[capacity];
+    values_ = new Object[capacity];
+    mask_ = capacity - 1;
+    size_ = 0;
+
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null) put(keys[i], (V) values[i]);
+    }
+  }
+} // LongMap
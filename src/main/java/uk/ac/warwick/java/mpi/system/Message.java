@@ -1,6 +1,12 @@
 package uk.ac.warwick.java.mpi.system;
 
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+
 import java.util.Arrays;
 
 
@@ -8,6 +14,10 @@ import java.util.Arrays;
  * Represents a locally stored message. For transmission across the
  * network, it will be converted to a byte array.
  *
+ * <p> All values are stored big-endian. Arrays are converted in bulk
+ * through <code>ByteBuffer</code> views rather than element by
+ * element.
+ *
  *
  * @author David Beckingsale
  * @version 1
@@ -27,15 +37,34 @@ public class Message{
   private int source_;
   private int tag_;
   private int type_;
+  /** The context of the communicator the message was sent on. */
+  private int context_;
+  /** Length of the header: type, tag, source and context. */
+  public static final int HEADER_LENGTH = 16;
+  /** Length of the frame header: the frame length followed by the header. */
+  public static final int FRAME_HEADER_LENGTH = 4 + HEADER_LENGTH;
+
   private byte[] messageData_;
+  /** The number of bytes of <code>messageData_</code> that hold data. */
+  private int length_;
 
   /**
    * Creates a message from the Object array, the source and the
    * message tag.
    */
   public Message(byte[] message, int source, int tag, int type) {
+    this(message, message.length, source, tag, type);
+  }
+
+  /**
+   * Creates a message whose data is the first <code>length</code>
+   * bytes of <code>message</code>, which may be a longer, pooled,
+   * buffer.
+   */
+  public Message(byte[] message, int length, int source, int tag, int type) {
 
     messageData_ = message;
+    length_ = length;
     source_ = source;
     tag_ = tag;
     type_ = type;
@@ -48,14 +77,114 @@ public class Message{
    * @param messageArray The byte array containing the message.
    */
   public Message(byte[] messageArray) {
-    type_ = makeIntFromByte4(new byte[] {messageArray[0], messageArray[1], messageArray[2], messageArray[3]});
-    tag_ = makeIntFromByte4(new byte[] {messageArray[4], messageArray[5], messageArray[6], messageArray[7]});
-    source_ = makeIntFromByte4(new byte[] {messageArray[8], messageArray[9], messageArray[10], messageArray[11]});
+    this(messageArray, messageArray.length);
+  }
+
+  /**
+   * Reads a message from the first <code>length</code> bytes of
+   * <code>messageArray</code>. The data is copied into a buffer from
+   * the {@link BufferPool}, so <code>messageArray</code> can be reused
+   * straight away.
+   *
+   * @param messageArray The byte array containing the message.
+   * @param length The length of the message in bytes.
+   */
+  public Message(byte[] messageArray, int length) {
+    ByteBuffer header = ByteBuffer.wrap(messageArray, 0, HEADER_LENGTH);
+    type_ = header.getInt();
+    tag_ = header.getInt();
+    source_ = header.getInt();
+    context_ = header.getInt();
+
+    length_ = length - HEADER_LENGTH;
+    messageData_ = BufferPool.acquire(length_);
+
+    System.arraycopy(messageArray, HEADER_LENGTH, messageData_, 0, length_);
+  }
+
+  /**
+   * Creates a message holding <code>data</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(int[] data, int source, int tag) {
+    return create(data, 0, data.length, source, tag);
+  }
 
-    messageData_ = new byte[messageArray.length - 12];
+  /**
+   * Creates a message holding <code>length</code> elements of
+   * <code>data</code> from <code>offset</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(int[] data, int offset, int length, int source, int tag) {
+    byte[] buffer = BufferPool.acquire(4*length);
+    ByteBuffer.wrap(buffer).asIntBuffer().put(data, offset, length);
+    return new Message(buffer, 4*length, source, tag, TYPE_INT);
+  }
 
-    System.arraycopy(messageArray, 12, messageData_, 0, messageArray.length-12);
+  /**
+   * Creates a message holding <code>data</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(long[] data, int source, int tag) {
+    return create(data, 0, data.length, source, tag);
+  }
 
+  /**
+   * Creates a message holding <code>length</code> elements of
+   * <code>data</code> from <code>offset</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(long[] data, int offset, int length, int source, int tag) {
+    byte[] buffer = BufferPool.acquire(8*length);
+    ByteBuffer.wrap(buffer).asLongBuffer().put(data, offset, length);
+    return new Message(buffer, 8*length, source, tag, TYPE_LONG);
+  }
+
+  /**
+   * Creates a message holding <code>data</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(float[] data, int source, int tag) {
+    return create(data, 0, data.length, source, tag);
+  }
+
+  /**
+   * Creates a message holding <code>length</code> elements of
+   * <code>data</code> from <code>offset</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(float[] data, int offset, int length, int source, int tag) {
+    byte[] buffer = BufferPool.acquire(4*length);
+    ByteBuffer.wrap(buffer).asFloatBuffer().put(data, offset, length);
+    return new Message(buffer, 4*length, source, tag, TYPE_FLOAT);
+  }
+
+  /**
+   * Creates a message holding <code>data</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(double[] data, int source, int tag) {
+    return create(data, 0, data.length, source, tag);
+  }
+
+  /**
+   * Creates a message holding <code>length</code> elements of
+   * <code>data</code> from <code>offset</code>, converted into a
+   * buffer from the {@link BufferPool}.
+   */
+  public static Message create(double[] data, int offset, int length, int source, int tag) {
+    byte[] buffer = BufferPool.acquire(8*length);
+    ByteBuffer.wrap(buffer).asDoubleBuffer().put(data, offset, length);
+    return new Message(buffer, 8*length, source, tag, TYPE_DOUBLE);
+  }
+
+  /**
+   * Returns the data buffer to the {@link BufferPool}. The message
+   * must not be used afterwards.
+   */
+  public void release() {
+    BufferPool.release(messageData_);
+    messageData_ = null;
   }
 
   /**
@@ -101,18 +230,123 @@ public class Message{
     source_ = s;
   }
 
+  /**
+   * Returns the context of the communicator this
+   * <code>Message</code> was sent on. Messages only match receives on
+   * the same context.
+   *
+   * @return The <code>int</code> context of the message.
+   */
+  public int getContext() {
+    return context_;
+  }
+
+  /**
+   * Update the context of a <code>Message</code>.
+   *
+   * @param context The context of the communicator it is sent on.
+   */
+  public void setContext(int context) {
+    context_ = context;
+  }
+
+  /**
+   * Returns the size in bytes of one element of the given type.
+   *
+   * @param type One of the <code>TYPE_</code> constants.
+   *
+   * @return The number of bytes per element.
+   */
+  public static int sizeOf(int type) {
+    return (type == TYPE_LONG || type == TYPE_DOUBLE) ? 8 : 4;
+  }
+
+  /**
+   * Returns the length of the data carried by this message, not
+   * including the header.
+   *
+   * @return The length of the data in bytes.
+   */
+  public int getDataLength() {
+    return length_;
+  }
+
+  /**
+   * Returns the frame header for this message, the frame length
+   * followed by the header, ready to be written before
+   * {@link #dataBuffer}.
+   *
+   * @return A buffer of <code>FRAME_HEADER_LENGTH</code> bytes.
+   */
+  public ByteBuffer frameHeader() {
+    ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+    header.putInt(HEADER_LENGTH + length_).putInt(type_).putInt(tag_).putInt(source_).putInt(context_);
+    header.flip();
+    return header;
+  }
+
+  /**
+   * Returns a buffer wrapping the data of this message, without
+   * copying it.
+   *
+   * @return The data as a <code>ByteBuffer</code>.
+   */
+  public ByteBuffer dataBuffer() {
+    return ByteBuffer.wrap(messageData_, 0, length_);
+  }
+
+  /**
+   * Writes this message to <code>out</code> as a length-prefixed
+   * frame. The header and data are written separately, so the data is
+   * not copied.
+   *
+   * @param out The stream to write to.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(frameHeader().array());
+
+    if (length_ > 0) {
+      out.write(messageData_, 0, length_);
+    }
+  }
+
+  /**
+   * Reads a length-prefixed frame written by {@link #writeTo}. The
+   * data is read straight into a buffer from the {@link BufferPool}.
+   *
+   * @param in The stream to read from.
+   *
+   * @return The <code>Message</code> that was read.
+   */
+  public static Message readFrom(DataInputStream in) throws IOException {
+    int length = in.readInt() - HEADER_LENGTH;
+    int type = in.readInt();
+    int tag = in.readInt();
+    int source = in.readInt();
+    int context = in.readInt();
+
+    byte[] data = BufferPool.acquire(length);
+
+    if (length > 0) {
+      in.readFully(data, 0, length);
+    }
+
+    Message message = new Message(data, length, source, tag, type);
+    message.setContext(context);
+    return message;
+  }
+
   /**
    * Outputs the <code>Message</code> as a byte array
    *
    * @return The contents of this message as a formatted byte array.
    */
   public byte[] toByteArray() {
-    byte[] typeByte = makeByte4FromInt(type_);
-    byte[] tagByte = makeByte4FromInt(tag_);
-    byte[] sourceByte = makeByte4FromInt(source_);
+    byte[] result = new byte[HEADER_LENGTH + length_];
 
-    return concat(typeByte,tagByte,sourceByte,messageData_);
+    ByteBuffer.wrap(result).putInt(type_).putInt(tag_).putInt(source_).putInt(context_).put(messageData_, 0, length_);
 
+    return result;
   }
 
   /**
@@ -237,12 +471,10 @@ public class Message{
    *
    * @param data The array to convert.
    */
-  public static byte[] dataToByteArray(int[] data){
+  public static byte[] dataToByteArray(int[] data) {
     byte[] result = new byte[4*data.length];
 
-    for (int i = 0; i< data.length; i++) {
-      System.arraycopy(makeByte4FromInt(data[i]), 0, result, 4*i, 4);
-    }
+    ByteBuffer.wrap(result).asIntBuffer().put(data);
 
     return result;
   }
@@ -255,9 +487,7 @@ public class Message{
   public static byte[] dataToByteArray(long[] data) {
     byte[] result = new byte[8*data.length];
 
-    for (int i = 0; i< data.length; i++) {
-      System.arraycopy(makeByte8FromLong(data[i]), 0, result, 8*i, 8);
-    }
+    ByteBuffer.wrap(result).asLongBuffer().put(data);
 
     return result;
   }
@@ -270,9 +500,7 @@ public class Message{
   public static byte[] dataToByteArray(float[] data) {
     byte[] result = new byte[4*data.length];
 
-    for (int i = 0; i< data.length; i++) {
-      System.arraycopy(makeByte4FromFloat(data[i]), 0, result, 4*i, 4);
-    }
+    ByteBuffer.wrap(result).asFloatBuffer().put(data);
 
     return result;
   }
@@ -285,9 +513,7 @@ public class Message{
   public static byte[] dataToByteArray(double[] data) {
     byte[] result = new byte[8*data.length];
 
-    for (int i = 0; i< data.length; i++) {
-      System.arraycopy(makeByte8FromDouble(data[i]), 0, result, 8*i, 8);
-    }
+    ByteBuffer.wrap(result).asDoubleBuffer().put(data);
 
     return result;
   }
@@ -299,15 +525,24 @@ public class Message{
    * @return The data array as an <code>int</code> array.
    */
   public int[] dataToPrimitiveInt() {
-    int[] result = new int[messageData_.length/4];
+    int[] result = new int[length_/4];
 
-    for (int i = 0; i < messageData_.length; i=i+4){
-      result[i/4] = makeIntFromByte4(new byte[] {messageData_[i],messageData_[i+1], messageData_[i+2], messageData_[i+3]});
-    }
+    ByteBuffer.wrap(messageData_, 0, length_).asIntBuffer().get(result);
 
     return result;
   }
 
+  /**
+   * Converts the data held as a byte array in this Message straight
+   * into <code>result</code>, without an intermediate array.
+   *
+   * @param result The array to hold the data.
+   * @param offset The position in <code>result</code> of the first element.
+   */
+  public void dataToPrimitiveInt(int[] result, int offset) {
+    ByteBuffer.wrap(messageData_, 0, length_).asIntBuffer().get(result, offset, length_/4);
+  }
+
   /**
    * Converts the data held as a byte array in this Message back into
    * its original form.
@@ -315,16 +550,24 @@ public class Message{
    * @return The data array as an <code>long</code> array.
    */
   public long[] dataToPrimitiveLong() {
-    long[] result = new long[messageData_.length/8];
+    long[] result = new long[length_/8];
 
-    for (int i = 0; i < messageData_.length; i=i+8){
-      result[i/8] = makeLongFromByte8(new byte[] {messageData_[i],messageData_[i+1], messageData_[i+2], messageData_[i+3],
-                                                  messageData_[i+4], messageData_[i+5], messageData_[i+6],messageData_[i+7]});
-    }
+    ByteBuffer.wrap(messageData_, 0, length_).asLongBuffer().get(result);
 
     return result;
   }
 
+  /**
+   * Converts the data held as a byte array in this Message straight
+   * into <code>result</code>, without an intermediate array.
+   *
+   * @param result The array to hold the data.
+   * @param offset The position in <code>result</code> of the first element.
+   */
+  public void dataToPrimitiveLong(long[] result, int offset) {
+    ByteBuffer.wrap(messageData_, 0, length_).asLongBuffer().get(result, offset, length_/8);
+  }
+
   /**
    * Converts the data held as a byte array in this Message back into
    * its original form.
@@ -332,15 +575,24 @@ public class Message{
    * @return The data array as an <code>float</code> array.
    */
   public float[] dataToPrimitiveFloat() {
-    float[] result = new float[messageData_.length/4];
+    float[] result = new float[length_/4];
 
-    for (int i = 0; i < messageData_.length; i=i+4){
-      result[i/4] = makeFloatFromByte4(new byte[] {messageData_[i],messageData_[i+1], messageData_[i+2], messageData_[i+3]});
-    }
+    ByteBuffer.wrap(messageData_, 0, length_).asFloatBuffer().get(result);
 
     return result;
   }
 
+  /**
+   * Converts the data held as a byte array in this Message straight
+   * into <code>result</code>, without an intermediate array.
+   *
+   * @param result The array to hold the data.
+   * @param offset The position in <code>result</code> of the first element.
+   */
+  public void dataToPrimitiveFloat(float[] result, int offset) {
+    ByteBuffer.wrap(messageData_, 0, length_).asFloatBuffer().get(result, offset, length_/4);
+  }
+
   /**
    * Converts the data held as a byte array in this Message back into
    * its original form.
@@ -348,16 +600,24 @@ public class Message{
    * @return The data array as an <code>double</code> array.
    */
   public double[] dataToPrimitiveDouble() {
-    double[] result = new double[messageData_.length/8];
+    double[] result = new double[length_/8];
 
-    for (int i = 0; i < messageData_.length; i=i+8){
-      result[i/8] = makeDoubleFromByte8(new byte[] {messageData_[i],messageData_[i+1], messageData_[i+2], messageData_[i+3],
-                                                  messageData_[i+4], messageData_[i+5], messageData_[i+6],messageData_[i+7]});
-    }
+    ByteBuffer.wrap(messageData_, 0, length_).asDoubleBuffer().get(result);
 
     return result;
   }
 
+  /**
+   * Converts the data held as a byte array in this Message straight
+   * into <code>result</code>, without an intermediate array.
+   *
+   * @param result The array to hold the data.
+   * @param offset The position in <code>result</code> of the first element.
+   */
+  public void dataToPrimitiveDouble(double[] result, int offset) {
+    ByteBuffer.wrap(messageData_, 0, length_).asDoubleBuffer().get(result, offset, length_/8);
+  }
+
   /**
    * Return a human readble <code>String</code> representing this
    * <code>Message</code>.
@@ -370,6 +630,6 @@ public class Message{
    */
   @Override
   public String toString() {
-    return "Message: tag = " + tag_ + ", type = " + type_ + ", data: " + Arrays.toString(messageData_);
+    return "Message: tag = " + tag_ + ", type = " + type_ + ", data: " + Arrays.toString(Arrays.copyOf(messageData_, length_));
   }
 } // Message
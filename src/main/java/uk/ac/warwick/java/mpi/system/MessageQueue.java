@@ -1,11 +1,13 @@
 package uk.ac.warwick.java.mpi.system;
 
-import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import uk.ac.warwick.java.mpi.Mpi;
+import uk.ac.warwick.java.mpi.MpiException;
 
 import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
 
@@ -15,6 +17,31 @@ import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
  * <p> Only local messages are held, that is, ones sent to the local
  * {@link uk.ac.warwick.java.mpi.system.Processor}.
  *
+ * <p> Delivering a message only puts it on a lock-free inbox, so any
+ * number of I/O threads can deliver at once without waiting for each
+ * other or for a receiver. Receivers take the matching lock and first
+ * move everything in the inbox, in arrival order, into the lists they
+ * match against.
+ *
+ * <p> Messages on different communicators, told apart by their
+ * context, never match each other, so each context has lists of its
+ * own. Each message is linked into four lists at once: every message
+ * on its context in arrival order, and the messages with its (source, tag), with its
+ * source and with its tag. Each kind of receive takes the head of one
+ * list, so finding a match never means searching, and the oldest
+ * matching message is always the one returned. The lists are found
+ * through maps keyed on primitive <code>long</code>s, and a list is
+ * dropped as soon as it is empty, so the tags used up by collectives
+ * don't build up.
+ *
+ * <p> Receives can also be posted before their message arrives, as a
+ * {@link PostedReceive}. While any are posted, delivering threads take
+ * the lock and match each message to the oldest posted receive it
+ * matches, and only queue it if there is none. Whichever thread
+ * drained the inbox hands the messages to their receives after
+ * releasing the lock, so decoding a large message holds up neither
+ * other deliveries nor other receivers.
+ *
  * Created: 11/07/10
  *
  * @author David Beckingsale
@@ -23,157 +50,550 @@ import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
  */
 public class MessageQueue {
 
-  protected LinkedHashMap<MessageKeyTuple, LinkedList<Message>>  messageMap_;
+  /** Links of the list of every message in arrival order. */
+  private static final int ARRIVAL = 0;
+  /** Links of the list of messages with the same source and tag. */
+  private static final int BY_KEY = 1;
+  /** Links of the list of messages with the same source. */
+  private static final int BY_SOURCE = 2;
+  /** Links of the list of messages with the same tag. */
+  private static final int BY_TAG = 3;
+
+  /** Messages delivered but not yet moved into the lists. */
+  private ConcurrentLinkedQueue<Message> inbox_;
+
+  /** Guards everything below, and is waited on by blocked receivers. */
+  private ReentrantLock lock_;
+  private Condition arrived_;
+
+  /** The lists of each context that has had a message. */
+  private LongMap<Context> contexts_;
+
+  /** Receives waiting for a message, in the order they were posted. */
+  private LinkedList<PostedReceive> posted_;
+  /** The size of <code>posted_</code>, read by delivering threads without the lock. */
+  private volatile int postedCount_ = 0;
+  /** Receives matched by <code>drain</code> but not yet handed their messages. */
+  private PostedReceive matchedHead_ = null;
+  private PostedReceive matchedTail_ = null;
+
+  /** The number of receivers waiting in <code>take</code>. */
+  private volatile int waiters_ = 0;
+  /** How many times <code>take</code> spins before it waits. */
+  private int spinLimit_;
 
   /**
    * Create a new, empty <code>MessageQueue</code>.
    */
   public MessageQueue() {
+    this(0);
+  }
+
+  /**
+   * Create a new, empty <code>MessageQueue</code> whose receivers spin
+   * for a while before waiting.
+   *
+   * @param spinLimit The number of times <code>take</code> checks for
+   * new arrivals before waiting, 0 to wait straight away.
+   */
+  public MessageQueue(int spinLimit) {
     if (DEBUG_MODE) {
-      System.err.println("MessageQueue: \tCreating new LinkedHashMap");
+      System.err.println("MessageQueue: \tCreating new MessageQueue");
+    }
+    inbox_ = new ConcurrentLinkedQueue<Message>();
+    lock_ = new ReentrantLock();
+    arrived_ = lock_.newCondition();
+    posted_ = new LinkedList<PostedReceive>();
+    contexts_ = new LongMap<Context>();
+    spinLimit_ = spinLimit;
+  }
+
+  /**
+   * Packs a source and a tag into one key.
+   */
+  private static long key(int source, int tag) {
+    return ((long) source << 32) | (tag & 0xFFFFFFFFL);
+  }
+
+  /**
+   * A queued message, with its links in each of the lists it is on.
+   * The links are plain fields rather than arrays, so queueing a
+   * message allocates only the entry.
+   */
+  private static class Entry {
+    Message message_;
+
+    Entry prevArrival_;
+    Entry nextArrival_;
+    Entry prevKey_;
+    Entry nextKey_;
+    Entry prevSource_;
+    Entry nextSource_;
+    Entry prevTag_;
+    Entry nextTag_;
+
+    /** The lists this entry is on, other than its context's arrivals. */
+    Chain keyChain_;
+    Chain sourceChain_;
+    Chain tagChain_;
+
+    Entry(Message message) {
+      message_ = message;
+    }
+
+    Entry prev(int link) {
+      switch (link) {
+        case ARRIVAL: return prevArrival_;
+        case BY_KEY: return prevKey_;
+        case BY_SOURCE: return prevSource_;
+        default: return prevTag_;
+      }
+    }
+
+    Entry next(int link) {
+      switch (link) {
+        case ARRIVAL: return nextArrival_;
+        case BY_KEY: return nextKey_;
+        case BY_SOURCE: return nextSource_;
+        default: return nextTag_;
+      }
+    }
+
+    void setPrev(int link, Entry e) {
+      switch (link) {
+        case ARRIVAL: prevArrival_ = e; break;
+        case BY_KEY: prevKey_ = e; break;
+        case BY_SOURCE: prevSource_ = e; break;
+        default: prevTag_ = e; break;
+      }
+    }
+
+    void setNext(int link, Entry e) {
+      switch (link) {
+        case ARRIVAL: nextArrival_ = e; break;
+        case BY_KEY: nextKey_ = e; break;
+        case BY_SOURCE: nextSource_ = e; break;
+        default: nextTag_ = e; break;
+      }
+    }
+
+    void setChain(int link, Chain chain) {
+      switch (link) {
+        case ARRIVAL: break;
+        case BY_KEY: keyChain_ = chain; break;
+        case BY_SOURCE: sourceChain_ = chain; break;
+        default: tagChain_ = chain; break;
+      }
+    }
+  }
+
+  /**
+   * A list of entries in arrival order, using one set of their links.
+   */
+  private static class Chain {
+    final int link_;
+    Entry head_;
+    Entry tail_;
+
+    Chain(int link) {
+      link_ = link;
+    }
+
+    void append(Entry e) {
+      e.setChain(link_, this);
+      e.setPrev(link_, tail_);
+
+      if (tail_ == null) head_ = e;
+      else tail_.setNext(link_, e);
+
+      tail_ = e;
+    }
+
+    void unlink(Entry e) {
+      Entry prev = e.prev(link_);
+      Entry next = e.next(link_);
+
+      if (prev == null) head_ = next;
+      else prev.setNext(link_, next);
+
+      if (next == null) tail_ = prev;
+      else next.setPrev(link_, prev);
+
+      e.setPrev(link_, null);
+      e.setNext(link_, null);
+      e.setChain(link_, null);
+    }
+
+    boolean isEmpty() {
+      return head_ == null;
+    }
+  }
+
+  /**
+   * The lists of the messages on one context.
+   */
+  private static class Context {
+    Chain arrivals_ = new Chain(ARRIVAL);
+    LongMap<Chain> byKey_ = new LongMap<Chain>();
+    LongMap<Chain> bySource_ = new LongMap<Chain>();
+    LongMap<Chain> byTag_ = new LongMap<Chain>();
+
+    /**
+     * Takes the oldest match off the lists.
+     */
+    Message match(int source, int tag) {
+      Chain chain;
+
+      if (source != Mpi.ANY_SOURCE && tag != Mpi.ANY_TAG) {
+        chain = byKey_.get(key(source, tag));
+      }
+      else if (source == Mpi.ANY_SOURCE && tag != Mpi.ANY_TAG) {
+        chain = byTag_.get(tag);
+      }
+      else if (source != Mpi.ANY_SOURCE && tag == Mpi.ANY_TAG) {
+        chain = bySource_.get(source);
+      }
+      else {
+        chain = arrivals_;
+      }
+
+      if (chain == null || chain.isEmpty()) return null;
+
+      return remove(chain.head_);
+    }
+
+    /**
+     * Links a delivered message onto the end of each of its lists,
+     * creating any that don't exist.
+     */
+    void index(Message message) {
+      Entry e = new Entry(message);
+      long key = key(message.getSource(), message.getTag());
+
+      Chain byKey = byKey_.get(key);
+      if (byKey == null) {
+        byKey = new Chain(BY_KEY);
+        byKey_.put(key, byKey);
+      }
+
+      Chain bySource = bySource_.get(message.getSource());
+      if (bySource == null) {
+        bySource = new Chain(BY_SOURCE);
+        bySource_.put(message.getSource(), bySource);
+      }
+
+      Chain byTag = byTag_.get(message.getTag());
+      if (byTag == null) {
+        byTag = new Chain(BY_TAG);
+        byTag_.put(message.getTag(), byTag);
+      }
+
+      arrivals_.append(e);
+      byKey.append(e);
+      bySource.append(e);
+      byTag.append(e);
+    }
+
+    /**
+     * Takes an entry off every list it is on, dropping any list that
+     * is left empty.
+     */
+    private Message remove(Entry e) {
+      Message m = e.message_;
+
+      arrivals_.unlink(e);
+
+      Chain byKey = e.keyChain_;
+      byKey.unlink(e);
+      if (byKey.isEmpty()) byKey_.remove(key(m.getSource(), m.getTag()));
+
+      Chain bySource = e.sourceChain_;
+      bySource.unlink(e);
+      if (bySource.isEmpty()) bySource_.remove(m.getSource());
+
+      Chain byTag = e.tagChain_;
+      byTag.unlink(e);
+      if (byTag.isEmpty()) byTag_.remove(m.getTag());
+
+      return m;
     }
-    messageMap_ = new LinkedHashMap<MessageKeyTuple, LinkedList<Message>>();
   }
 
   /**
    * Add a {@link uk.ac.warwick.java.mpi.system.Message} to the queue.
    *
+   * <p> This only takes the lock when a receive has been posted, to
+   * match the message against it, or when a receiver is waiting and
+   * needs waking.
+   *
    * @param message The <code>Message</code> to be added.
    */
-  public synchronized void add(Message message) {
+  public void add(Message message) {
     if (DEBUG_MODE) {
       System.err.println("MessageQueue: \tAdding new message with tag:" + message.getTag() + "and source: " + message.getSource() );
     }
-    // If there is no queue already associated with this key then we need to create one
-    if (messageMap_.get(new MessageKeyTuple(message.getSource(), message.getTag())) == null) {
-      LinkedList<Message> l = new LinkedList<Message>();
-      l.add(message);
-      messageMap_.put(new MessageKeyTuple(message.getSource(), message.getTag()), l);
+
+    inbox_.offer(message);
+
+    // A receive is counted before the inbox is drained when it is
+    // posted, so either it sees this message or it is counted here
+    if (postedCount_ > 0) {
+      PostedReceive matched;
+
+      lock_.lock();
+      try {
+        drain();
+      } finally {
+        matched = takeMatched();
+        lock_.unlock();
+      }
+
+      deliver(matched);
     }
-    else {
-      messageMap_.get(new MessageKeyTuple(message.getSource(), message.getTag())).add(message);
+
+    // A receiver counts itself before it last checks the inbox, so
+    // either it sees this message or it is counted here
+    if (waiters_ > 0) {
+      lock_.lock();
+      try {
+        arrived_.signalAll();
+      } finally {
+        lock_.unlock();
+      }
     }
   }
 
   /**
-   * Return the <code>Message</code> with the specified source and tag.
+   * Posts a receive, which is filled straight away if a matching
+   * message has already arrived, and otherwise by the thread that
+   * delivers one.
+   *
+   * @param receive The receive to fill.
+   */
+  public void post(PostedReceive receive) {
+    Message m;
+    PostedReceive matched;
+
+    lock_.lock();
+    try {
+      postedCount_++;
+      m = match(receive.getContext(), receive.getSource(), receive.getTag());
+
+      if (m == null) {
+        posted_.add(receive);
+      }
+      else {
+        postedCount_--;
+      }
+    } finally {
+      matched = takeMatched();
+      lock_.unlock();
+    }
+
+    deliver(matched);
+
+    if (m != null) {
+      receive.deliver(m);
+    }
+  }
+
+  /**
+   * Return the <code>Message</code> with the specified context, source
+   * and tag, waiting until one arrives.
+   *
+   * <p> The receiver first spins, checking the inbox without taking
+   * the lock, for up to the spin limit given at construction. After
+   * that it waits, and is woken by <code>add</code>.
    *
    * @return <code>Message</code> with <code>source</code> and <code>tag</code>.
    */
-  public synchronized Message get(int source, int tag) {
+  public Message take(int context, int source, int tag) {
+    Message m = get(context, source, tag);
+
+    for (int spin = 0; m == null && spin < spinLimit_; spin++) {
+      if (!inbox_.isEmpty()) {
+        m = get(context, source, tag);
+      }
+    }
+
+    if (m != null) return m;
+
+    lock_.lock();
+    waiters_++;
+
+    try {
+      while (true) {
+        m = match(context, source, tag);
+        PostedReceive matched = takeMatched();
+
+        if (matched != null) {
+          lock_.unlock();
+          try {
+            deliver(matched);
+          } finally {
+            lock_.lock();
+          }
+        }
+
+        if (m != null) break;
+
+        // A message added while the lock was released would not have
+        // woken this thread, so look again before waiting
+        if (matched == null) {
+          arrived_.await();
+        }
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new MpiException("Interrupted while waiting for a message");
+    } finally {
+      waiters_--;
+      lock_.unlock();
+    }
+
+    return m;
+  }
+
+  /**
+   * Return the <code>Message</code> with the specified context, source
+   * and tag.
+   *
+   * <p> Of the messages that match, the one that arrived first is
+   * returned, whether or not either is a wildcard.
+   *
+   * @return <code>Message</code> with <code>source</code> and <code>tag</code>.
+   */
+  public Message get(int context, int source, int tag) {
     if (DEBUG_MODE) {
       System.err.println("MessageQueue: \tSearching for message with tag: " + tag + " and source: " + source);
     }
 
-    if (source != Mpi.ANY_SOURCE && tag != Mpi.ANY_TAG) {
-      if (messageMap_.get(new MessageKeyTuple(source,tag)) == null) return null;
-      else return messageMap_.get(new MessageKeyTuple(source, tag)).poll();
+    Message m;
+    PostedReceive matched;
+
+    lock_.lock();
+    try {
+      m = match(context, source, tag);
+    } finally {
+      matched = takeMatched();
+      lock_.unlock();
     }
-    else if (source == Mpi.ANY_SOURCE && tag != Mpi.ANY_TAG) {
-      if (messageMap_.isEmpty()) return null;
-      Collection<LinkedList<Message>> listCollection = messageMap_.values();
-      Iterator<LinkedList<Message>> listIterator = listCollection.iterator();
-      LinkedList<Message> messageList;
 
-      while(listIterator.hasNext()) {
-        messageList = listIterator.next();
-        if (messageList.peek() == null) continue;
+    deliver(matched);
+    return m;
+  }
+
+  /**
+   * Takes the oldest match off the lists, after moving the inbox
+   * into them. Must be called holding the lock.
+   */
+  private Message match(int context, int source, int tag) {
+    drain();
 
-        if (messageList.peek().getTag() == tag) {
-          return messageList.poll();
+    Context lists = contexts_.get(context);
+
+    return (lists == null) ? null : lists.match(source, tag);
+  }
+
+  /**
+   * Moves everything in the inbox, in the order it was delivered, to
+   * the posted receive it matches, or into the lists if none does.
+   * Matched receives are only unlinked here; the caller must hand them
+   * their messages, through <code>takeMatched</code> and
+   * <code>deliver</code>, once it has released the lock. Must be
+   * called holding the lock.
+   */
+  private void drain() {
+    Message delivered;
+
+    while ((delivered = inbox_.poll()) != null) {
+      PostedReceive receive = null;
+
+      if (postedCount_ > 0) {
+        for (Iterator<PostedReceive> i = posted_.iterator(); i.hasNext(); ) {
+          PostedReceive r = i.next();
+
+          if (r.matches(delivered)) {
+            i.remove();
+            postedCount_--;
+            receive = r;
+            break;
+          }
         }
       }
-      return null;
-    }
-    else if (source != Mpi.ANY_SOURCE && tag == Mpi.ANY_TAG) {
-      if (messageMap_.isEmpty()) return null;
-      Collection<LinkedList<Message>> listCollection = messageMap_.values();
-      Iterator<LinkedList<Message>> listIterator = listCollection.iterator();
-      LinkedList<Message> messageList;
 
-      while(listIterator.hasNext()) {
-        messageList = listIterator.next();
+      if (receive != null) {
+        receive.matched_ = delivered;
 
-        if (messageList.peek() == null) continue;
+        if (matchedTail_ == null) matchedHead_ = receive;
+        else matchedTail_.nextMatched_ = receive;
 
-        if (messageList.peek().getSource() == source) {
-          return messageList.poll();
-        }
+        matchedTail_ = receive;
       }
-      return null;
-    }
-    else if (source == Mpi.ANY_SOURCE && tag == Mpi.ANY_TAG) {
-      if (messageMap_.isEmpty()) return null;
-      Collection<LinkedList<Message>> listCollection = messageMap_.values();
-      Iterator<LinkedList<Message>> listIterator = listCollection.iterator();
-      LinkedList<Message> messageList;
+      else {
+        Context lists = contexts_.get(delivered.getContext());
+
+        if (lists == null) {
+          lists = new Context();
+          contexts_.put(delivered.getContext(), lists);
+        }
 
-      while(listIterator.hasNext()) {
-        messageList = listIterator.next();
-        if (messageList.peek() == null) continue;
-        if (messageList.peek() != null) return messageList.poll();
+        lists.index(delivered);
       }
-      return null;
     }
-    return null;
   }
 
   /**
-   * Class representing a (source,tag) tuple that is used as a key in
-   * the hashmap of <code>Message</code>s.
+   * Takes the receives matched by <code>drain</code> so far. Must be
+   * called holding the lock.
+   *
+   * @return The first of them, linked in the order they were matched,
+   * or null if there are none.
    */
-  class MessageKeyTuple {
-    private int source_;
-    private int tag_;
+  private PostedReceive takeMatched() {
+    PostedReceive matched = matchedHead_;
+    matchedHead_ = null;
+    matchedTail_ = null;
+    return matched;
+  }
 
-    public MessageKeyTuple(int source, int tag) {
-      source_ = source;
-      tag_ = tag;
-    }
+  /**
+   * Hands each matched receive its message. Must be called without
+   * holding the lock.
+   */
+  private static void deliver(PostedReceive matched) {
+    while (matched != null) {
+      PostedReceive next = matched.nextMatched_;
+      Message m = matched.matched_;
 
-    /**
-     * Get the source of this tuple.
-     *
-     * @return The <code>int</code> source of this tuple.
-     */
-    public int getSource() {
-      return source_;
-    }
+      matched.nextMatched_ = null;
+      matched.matched_ = null;
+      matched.deliver(m);
 
-    /**
-     * Get the tag of this tuple.
-     *
-     * @return The <code>int</code> tag of this tuple.
-     */
-    public int getTag() {
-      return tag_;
+      matched = next;
     }
+  }
 
-    /**
-     * Check whether two objects are equal.
-     *
-     * <p> Two <code>MessageKeyTuple</code>s are equal if they have the same
-     * source and the same tag.
-     *
-     * @param o The <code>Object</code> to check.
-     * @return True is the <code>Objects</code> are equal, false otherwise.
-     */
-    @Override
-    public boolean equals(Object o) {
-      if (!(o instanceof MessageKeyTuple)) {
-        return false;
-      }
-      MessageKeyTuple m = (MessageKeyTuple) o;
-      return m.getTag() == tag_ && m.getSource() == source_;
-    }
+  /**
+   * @return The number of (source, tag) pairs with messages waiting
+   * on <code>context</code>.
+   */
+  int keyCount(int context) {
+    PostedReceive matched;
+    int count;
 
+    lock_.lock();
+    try {
+      drain();
 
-    @Override
-    public int hashCode() {
-      int result = 17;
-      result = 31 * result + tag_;
-      result = 31 * result + source_;
-      return result;
+      Context lists = contexts_.get(context);
+      count = (lists == null) ? 0 : lists.byKey_.size();
+    } finally {
+      matched = takeMatched();
+      lock_.unlock();
     }
+
+    deliver(matched);
+    return count;
   }
 } // MessageQueue
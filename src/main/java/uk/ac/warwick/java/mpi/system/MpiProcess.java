@@ -14,6 +14,7 @@ import java.util.Scanner;
 import uk.ac.warwick.java.mpi.Comm;
 import uk.ac.warwick.java.mpi.Group;
 import uk.ac.warwick.java.mpi.Mpi;
+import uk.ac.warwick.java.mpi.MpiException;
 
 import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
 
@@ -28,6 +29,13 @@ import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
  * @since 15/10/2010
  */
 public class MpiProcess {
+  /** Name of the {@link SimpleNetDevice}, the default. */
+  public static final String SIMPLE_DEVICE = "simple";
+  /** Name of the {@link PersistentNetDevice}. */
+  public static final String PERSISTENT_DEVICE = "persistent";
+  /** Name of the {@link NioNetDevice}. */
+  public static final String NIO_DEVICE = "nio";
+
   /** Process rank. */
   protected int rank_;
   /** Class name of user program. */
@@ -41,6 +49,14 @@ public class MpiProcess {
   protected String[] args_;
   /** The total number of processes */
   protected int n_;
+  /** Name of the {@link NetDevice} to communicate with. */
+  protected String netDevice_;
+  /** Number of I/O threads for devices that use them. */
+  protected int ioThreads_;
+  /** Number of times a blocked receive spins before waiting. */
+  protected int spin_;
+  /** Identifier shared by all processes in the job, may be null. */
+  protected String jobId_;
 
 
   /**
@@ -53,12 +69,37 @@ public class MpiProcess {
    * @param args The array of arguments to be passed to the user program.
    */
   protected MpiProcess(int rank, int n,  String className, String hostName, String hostFile, String[] args) {
+    this(rank, n, className, hostName, hostFile, args, SIMPLE_DEVICE, NioNetDevice.DEFAULT_IO_THREADS, 0, null);
+  }
+
+  /**
+   * Constructor to initialise all the fields, including the
+   * <code>NetDevice</code> to use.
+   *
+   * @param rank The rank of the process.
+   * @param className The name of the user program to be run.
+   * @param hostName The hostname of the machine.
+   * @param hostFile The location of the file containing all hosts.
+   * @param args The array of arguments to be passed to the user program.
+   * @param netDevice The name of the net device, e.g. {@link #SIMPLE_DEVICE}.
+   * @param ioThreads The number of I/O threads for the net device.
+   * @param spin The number of times a blocked receive spins before
+   * waiting.
+   * @param jobId An identifier shared by all processes in the job,
+   * or null to not use shared memory between processes on one host.
+   */
+  protected MpiProcess(int rank, int n,  String className, String hostName, String hostFile, String[] args,
+                       String netDevice, int ioThreads, int spin, String jobId) {
     rank_ = rank;
     className_ = className;
     args_ = args;
     hostName_ = hostName;
     hostFile_ = hostFile;
     n_ = n;
+    netDevice_ = netDevice;
+    ioThreads_ = ioThreads;
+    spin_ = spin;
+    jobId_ = jobId;
   }
 
   /**
@@ -144,7 +185,10 @@ public class MpiProcess {
       System.err.println("MpiProcess: \tI am rank " + rank_ + " on port " + localProcessor.getPort());
     }
 
-    localProcessor.setNetDevice(new SimpleNetDevice(localProcessor.getPort()));
+    MessageQueue queue = new MessageQueue(spin_);
+
+    localProcessor.setNetDevice(createNetDevice(localProcessor.getPort(), queue));
+    localProcessor.setLocalNetDevice(createLocalNetDevice(processor_group, localProcessor, queue));
 
     Group tempCommWorldGroup = new Group(processor_group, localProcessor);
 
@@ -154,4 +198,67 @@ public class MpiProcess {
 
     Mpi.COMM_WORLD = new Comm(tempCommWorldGroup);
   }
+
+  /**
+   * Creates the {@link NetDevice} named by <code>netDevice_</code>,
+   * listening on <code>port</code>.
+   *
+   * @param port The port the device should listen on.
+   * @param queue The queue the device delivers messages to.
+   * @return The new <code>NetDevice</code>.
+   */
+  protected NetDevice createNetDevice(int port, MessageQueue queue) {
+    if (DEBUG_MODE) {
+      System.err.println("MpiProcess: \tCreating " + netDevice_ + " net device");
+    }
+
+    if (netDevice_.equals(SIMPLE_DEVICE)) {
+      return new SimpleNetDevice(port, queue);
+    }
+    else if (netDevice_.equals(PERSISTENT_DEVICE)) {
+      return new PersistentNetDevice(port, queue);
+    }
+    else if (netDevice_.equals(NIO_DEVICE)) {
+      return new NioNetDevice(port, ioThreads_, queue);
+    }
+    else {
+      throw new MpiException("Unknown net device: " + netDevice_);
+    }
+  }
+
+  /**
+   * Creates a {@link SharedMemoryNetDevice} for the other processes on
+   * the same host as <code>localProcessor</code>, if there are any and
+   * a job id has been given.
+   *
+   * @param processors All the processors in the job.
+   * @param localProcessor The processor for this process.
+   * @param queue The queue the device delivers messages to.
+   * @return The new <code>NetDevice</code>, or null.
+   */
+  protected NetDevice createLocalNetDevice(ArrayList<Processor> processors, Processor localProcessor, MessageQueue queue) {
+    if (jobId_ == null) return null;
+
+    ArrayList<Integer> peerPorts = new ArrayList<Integer>();
+
+    for (Processor p : processors) {
+      if (p != localProcessor && p.getHost().equals(localProcessor.getHost())) {
+        peerPorts.add(p.getPort());
+      }
+    }
+
+    if (peerPorts.isEmpty()) return null;
+
+    if (DEBUG_MODE) {
+      System.err.println("MpiProcess: \tCreating shared memory net device for ports " + peerPorts);
+    }
+
+    try {
+      return new SharedMemoryNetDevice(localProcessor.getPort(), peerPorts, jobId_, queue);
+    } catch (java.io.IOException ioException) {
+      System.err.println("MpiProcess: \tCouldn't create shared memory, using the network instead");
+      ioException.printStackTrace();
+      return null;
+    }
+  }
 }
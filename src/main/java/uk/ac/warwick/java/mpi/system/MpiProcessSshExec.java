@@ -36,8 +36,9 @@ public class MpiProcessSshExec extends MpiProcess
   private final String JAVA_OPTS = "-Xmx900M";
 
   public  MpiProcessSshExec(int rank, int n, String className, String hostName,
-                            String hostFile, String[] args, String sshid) {
-    super(rank, n, className, hostName, hostFile, args);
+                            String hostFile, String[] args, String sshid, String netDevice, int ioThreads,
+                            int spin, String jobId) {
+    super(rank, n, className, hostName, hostFile, args, netDevice, ioThreads, spin, jobId);
     this.sshid = sshid;
   }
 
@@ -87,7 +88,8 @@ public class MpiProcessSshExec extends MpiProcess
 
        String command = "java " + JAVA_OPTS + " -classpath " + dir + "/latteMPI-1.0-SNAPSHOT.jar:" + dir + ":. " +
         "uk.ac.warwick.java.mpi.system.MpiRemoteProcess -hostfile " + hostFile_ + " -hostname "
-        + hostName_ + " -rank " + rank_ + " -n " + n_ + " -className " + className_ + " -- " + arrayToList(args_);
+        + hostName_ + " -rank " + rank_ + " -n " + n_ + " -netdevice " + netDevice_ + " -iothreads " + ioThreads_
+        + " -spin " + spin_ + " -jobid " + jobId_ + " -className " + className_ + " -- " + arrayToList(args_);
 
 
       channel = session.openChannel("exec");
@@ -21,8 +21,9 @@ import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
  */
 public class MpiRemoteProcess extends MpiProcess {
 
-  public  MpiRemoteProcess(int rank, int n,  String className, String hostName, String hostFile, String[] args) {
-    super(rank, n, className, hostName, hostFile, args);
+  public  MpiRemoteProcess(int rank, int n,  String className, String hostName, String hostFile, String[] args,
+                           String netDevice, int ioThreads, int spin, String jobId) {
+    super(rank, n, className, hostName, hostFile, args, netDevice, ioThreads, spin, jobId);
   }
 
   /**
@@ -43,7 +44,11 @@ public class MpiRemoteProcess extends MpiProcess {
                                                         argumentsParser.getClassname(),
                                                         argumentsParser.getHostname(),
                                                         argumentsParser.getHostfile().getPath(),
-                                                        argumentsParser.getArgs());
+                                                        argumentsParser.getArgs(),
+                                                        argumentsParser.getNetDevice(),
+                                                        argumentsParser.getIoThreads(),
+                                                        argumentsParser.getSpin(),
+                                                        argumentsParser.getJobId());
 
 
     // Create the Group and Comm that will be assigned to COMM_WORLD
@@ -10,6 +10,7 @@ import java.io.FileInputStream;
 
 import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.UUID;
 
 import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
 
@@ -129,12 +130,17 @@ public class MpiStarter {
 
     remoteThreads_ = new ArrayList<MpiProcessSshExec>();
 
+    // Names the shared memory used by processes on the same host
+    String jobId = UUID.randomUUID().toString();
+
     // Hosts are now in hostList_
     // If n_ is greater than the number of hosts then allocate
     // processes in a round robin fashion, otherwise the first n_ hosts will be used
     for (int i = 0; i < n_; i++) {
       String host = hostList_.get(i % hostList_.size());
-      remoteThreads_.add(new MpiProcessSshExec(i, n_, class_, host, machinefile_, args_, argumentsParser.getSshId()));
+      remoteThreads_.add(new MpiProcessSshExec(i, n_, class_, host, machinefile_, args_, argumentsParser.getSshId(),
+                                                argumentsParser.getNetDevice(), argumentsParser.getIoThreads(),
+                                                argumentsParser.getSpin(), jobId));
       (new Thread (remoteThreads_.get(i))).start();
     }
 
@@ -0,0 +1,138 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.ac.warwick.java.mpi.Comm;
+import uk.ac.warwick.java.mpi.Group;
+import uk.ac.warwick.java.mpi.Mpi;
+import uk.ac.warwick.java.mpi.ThreadBoundComm;
+import uk.ac.warwick.java.mpi.system.util.Arguments;
+
+import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
+
+
+
+/**
+ * Runs every rank of a job as a thread in this JVM, rather than as a
+ * separate process started over ssh as {@link MpiStarter} does.
+ *
+ * <p> Ranks talk to each other through {@link InProcessNetDevice}s.
+ * <code>Mpi.COMM_WORLD</code> is a {@link ThreadBoundComm}, so each
+ * rank's thread sees its own communicator through it.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class MpiThreadStarter {
+
+  private MpiThreadStarter() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Creates a communicator for each of <code>n</code> ranks in this
+   * JVM, all connected to each other.
+   *
+   * @param n The number of ranks.
+   * @param spin The number of times a blocked receive spins before waiting.
+   * @return The communicator for each rank, indexed by rank.
+   */
+  public static Comm[] createComms(int n, int spin) {
+    ConcurrentHashMap<Integer, MessageQueue> queues = new ConcurrentHashMap<Integer, MessageQueue>();
+    ArrayList<Processor> processors = new ArrayList<Processor>(n);
+
+    // The rank stands in for the port
+    for (int i = 0; i < n; i++) {
+      processors.add(new Processor("localhost", i, new InProcessNetDevice(i, queues, new MessageQueue(spin))));
+    }
+
+    Comm[] comms = new Comm[n];
+
+    for (int i = 0; i < n; i++) {
+      comms[i] = new Comm(new Group(processors, processors.get(i)));
+    }
+
+    return comms;
+  }
+
+  /**
+   * Runs <code>main</code> once for each of <code>n</code> ranks, each
+   * in its own thread, and waits for them all to finish.
+   *
+   * @param main The main method of the user program.
+   * @param args The arguments for the user program.
+   * @param n The number of ranks.
+   * @param spin The number of times a blocked receive spins before waiting.
+   */
+  public static void run(final Method main, final String[] args, int n, int spin) throws InterruptedException {
+    final Comm[] comms = createComms(n, spin);
+    final ThreadBoundComm world = new ThreadBoundComm();
+
+    Mpi.COMM_WORLD = world;
+
+    Thread[] threads = new Thread[n];
+
+    for (int i = 0; i < n; i++) {
+      final int rank = i;
+
+      threads[i] = new Thread("rank-" + i) {
+          public void run() {
+            world.bind(comms[rank]);
+
+            try {
+              main.invoke(null, (Object) args.clone());
+            } catch (InvocationTargetException invocationTargetException) {
+              System.err.format("MpiThreadStarter: \tinvocation of main failed on rank %d: %s%n",
+                                rank, invocationTargetException.getCause());
+              invocationTargetException.printStackTrace();
+            } catch (IllegalAccessException illegalAccessException) {
+              System.err.println("MpiThreadStarter: \tCannot access main");
+            } finally {
+              world.unbind();
+            }
+          }
+        };
+
+      threads[i].start();
+    }
+
+    for (Thread t : threads) {
+      t.join();
+    }
+  }
+
+  /**
+   * Runs the class given by <code>-className</code> with
+   * <code>-n</code> ranks as threads.
+   *
+   * @param args The array of arguments passed from the command line.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    Arguments argumentsParser = new Arguments(args);
+
+    if (DEBUG_MODE) {
+      System.err.println("MpiThreadStarter: \tRunning " + argumentsParser.getClassname()
+                         + " with " + argumentsParser.getN() + " threads");
+    }
+
+    try {
+      Class<?> mpiClass = Class.forName(argumentsParser.getClassname());
+      Method main = mpiClass.getDeclaredMethod("main", new Class[] { String[].class });
+
+      run(main, argumentsParser.getArgs(), argumentsParser.getN(), argumentsParser.getSpin());
+    } catch (ClassNotFoundException classNotFoundException) {
+      System.err.println("MpiThreadStarter: \tCannot find class: " + argumentsParser.getClassname());
+    } catch (NoSuchMethodException noSuchMethodException) {
+      System.err.println("MpiThreadStarter: \tNo such method: main");
+    }
+
+    System.exit(0);
+  }
+}
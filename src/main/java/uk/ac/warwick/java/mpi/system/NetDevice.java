@@ -20,16 +20,6 @@ public interface NetDevice {
    */
   public abstract void Send(Message message, String host, int portNumber);
 
-  // /**
-  //  * Execute a non-blocking send. Semantics are identical to the
-  //  * blocking Send.
-  //  *
-  //  * @param messageArray The message to be sent
-  //  * @param host The hostname of the machine to be sent the message
-  //  * @param portNumber The port that the host is listening on
-  //  */
-  // public void AsynchronousSend(byte[] messageArray, String host, int portNumber);
-
   /**
    * Recieve a message from the <code>host</code> on port
    * <code>portNumber<code>.
@@ -37,12 +27,32 @@ public interface NetDevice {
    * <p> A {@link uk.ac.warwick.java.mpi.system.Message} will then be
    * created and put in the message buffer.
    *
+   * @param context The context of the receiving communicator.
    * @param source The id of the source process.
    * @param tag The message tag.
    *
    * @return The matching <code>Message</code>.
    */
-  public Message Receive(int source, int tag);
+  public Message Receive(int context, int source, int tag);
 
-  //public void AsynchronousReceive(byte[] messageArray, String host, int portNumber);
+  /**
+   * Non-blocking version of <code>Receive</code>, which returns a
+   * matching message only if one has already arrived.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The id of the source process.
+   * @param tag The message tag.
+   *
+   * @return The matching <code>Message</code>, or null if there isn't one yet.
+   */
+  public Message AsynchronousReceive(int context, int source, int tag);
+
+  /**
+   * Registers a receive to be filled by the matching message. If one
+   * has already arrived the receive is filled straight away, otherwise
+   * it is filled by the thread that delivers the message.
+   *
+   * @param receive The receive to fill.
+   */
+  public void Post(PostedReceive receive);
 }
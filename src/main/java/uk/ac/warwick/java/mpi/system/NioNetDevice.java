@@ -0,0 +1,388 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
+
+
+
+/**
+ * Implementation of {@link NetDevice} built on
+ * <code>java.nio</code> selectors.
+ *
+ * <p> Inbound connections are non-blocking and shared between a small,
+ * fixed number of I/O threads, each with its own
+ * <code>Selector</code>, rather than having one thread per
+ * connection. Frames are decoded incrementally as data arrives and
+ * turned into {@link Message}s for the {@link MessageQueue}.
+ *
+ * <p> Outbound connections are kept open, one per peer, and use the
+ * same length-prefixed framing as the other devices.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class NioNetDevice
+  implements NetDevice
+{
+
+  /** The number of I/O threads used if none is given. */
+  public static final int DEFAULT_IO_THREADS = 2;
+
+  private MessageQueue messagequeue_;
+  private ServerSocketChannel serverChannel_;
+  private IoThread[] ioThreads_;
+  /** The I/O thread the next accepted connection will be given to. */
+  private int nextIoThread_ = 0;
+
+  /** The open outbound connections, keyed on "host:port". */
+  private HashMap<String, SocketChannel> connections_;
+
+  public NioNetDevice(int port) {
+    this(port, DEFAULT_IO_THREADS);
+  }
+
+  /**
+   * Creates a device listening on <code>port</code> and serviced by
+   * <code>ioThreads</code> I/O threads.
+   *
+   * @param port The port to listen on.
+   * @param ioThreads The number of I/O threads.
+   */
+  public NioNetDevice(int port, int ioThreads) {
+    this(port, ioThreads, new MessageQueue());
+  }
+
+  /**
+   * Creates a device listening on <code>port</code> and serviced by
+   * <code>ioThreads</code> I/O threads, which delivers incoming
+   * messages to the given queue.
+   *
+   * @param port The port to listen on.
+   * @param ioThreads The number of I/O threads.
+   * @param queue The queue incoming messages are added to.
+   */
+  public NioNetDevice(int port, int ioThreads, MessageQueue queue) {
+    messagequeue_ = queue;
+    connections_ = new HashMap<String, SocketChannel>();
+
+    try {
+      serverChannel_ = ServerSocketChannel.open();
+      serverChannel_.socket().setReuseAddress(true);
+      serverChannel_.socket().bind(new InetSocketAddress(port));
+      serverChannel_.configureBlocking(false);
+
+      ioThreads_ = new IoThread[Math.max(1, ioThreads)];
+
+      for (int i = 0; i < ioThreads_.length; i++) {
+        ioThreads_[i] = new IoThread(i);
+      }
+
+      // The first I/O thread also accepts new connections
+      serverChannel_.register(ioThreads_[0].selector_, SelectionKey.OP_ACCEPT);
+    } catch (IOException ioException) {
+      System.err.println("NioNetDevice: \tCouldn't listen on port " + port);
+      ioException.printStackTrace();
+      return;
+    }
+
+    for (IoThread t : ioThreads_) {
+      t.start();
+    }
+  }
+
+
+
+  /**
+   * The state of a partially read frame on one inbound connection.
+   */
+  static class FrameDecoder {
+    private ByteBuffer header_ = ByteBuffer.allocate(Message.FRAME_HEADER_LENGTH);
+    private ByteBuffer data_ = null;
+    private int type_;
+    private int tag_;
+    private int source_;
+    private int context_;
+
+    /**
+     * Reads whatever is available from the channel, adding every
+     * completed frame to the queue. The header is read first, then the
+     * data is read straight into a pooled buffer.
+     *
+     * @return False if the peer has closed the connection.
+     */
+    boolean read(SocketChannel channel, MessageQueue queue) throws IOException {
+      while (true) {
+        ByteBuffer target = (data_ == null) ? header_ : data_;
+
+        if (target.hasRemaining()) {
+          int n = channel.read(target);
+
+          if (n < 0) return false;
+          if (target.hasRemaining()) return true;
+        }
+
+        if (data_ == null) {
+          header_.flip();
+          int length = header_.getInt() - Message.HEADER_LENGTH;
+          type_ = header_.getInt();
+          tag_ = header_.getInt();
+          source_ = header_.getInt();
+          context_ = header_.getInt();
+          header_.clear();
+
+          data_ = ByteBuffer.wrap(BufferPool.acquire(length), 0, length);
+        }
+        else {
+          Message message = new Message(data_.array(), data_.limit(), source_, tag_, type_);
+          message.setContext(context_);
+          queue.add(message);
+          data_ = null;
+        }
+      }
+    }
+  }
+
+
+
+  class IoThread extends Thread {
+    private Selector selector_;
+    /** Channels accepted by another thread waiting to be registered. */
+    private ConcurrentLinkedQueue<SocketChannel> pending_;
+
+    public IoThread(int id) throws IOException {
+      super("NioNetDevice-io-" + id);
+      selector_ = Selector.open();
+      pending_ = new ConcurrentLinkedQueue<SocketChannel>();
+      setDaemon(true);
+    }
+
+    /**
+     * Hands an accepted connection to this thread.
+     */
+    void register(SocketChannel channel) {
+      pending_.add(channel);
+      selector_.wakeup();
+    }
+
+    public void run() {
+      while (true) {
+        try {
+          selector_.select();
+
+          SocketChannel accepted;
+          while ((accepted = pending_.poll()) != null) {
+            accepted.register(selector_, SelectionKey.OP_READ, new FrameDecoder());
+          }
+
+          Iterator<SelectionKey> keys = selector_.selectedKeys().iterator();
+
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid()) continue;
+
+            if (key.isAcceptable()) {
+              accept();
+            }
+            else if (key.isReadable()) {
+              read(key);
+            }
+          }
+        } catch (IOException ioexception) {
+          System.err.println("NioNetDevice:IoThread: \tIO Exception");
+          ioexception.printStackTrace();
+        }
+      }
+    }
+
+    private void accept() throws IOException {
+      SocketChannel channel;
+
+      while ((channel = serverChannel_.accept()) != null) {
+        if (DEBUG_MODE) {
+          System.err.println("NioNetDevice: \tAccepted connection from " + channel.socket().getRemoteSocketAddress());
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        ioThreads_[nextIoThread_].register(channel);
+        nextIoThread_ = (nextIoThread_ + 1) % ioThreads_.length;
+      }
+    }
+
+    private void read(SelectionKey key) {
+      SocketChannel channel = (SocketChannel) key.channel();
+
+      try {
+        if (!((FrameDecoder) key.attachment()).read(channel, messagequeue_)) {
+          key.cancel();
+          channel.close();
+        }
+      } catch (IOException ioexception) {
+        System.err.println("NioNetDevice:IoThread: \tIO Exception reading from " + channel.socket().getRemoteSocketAddress());
+        ioexception.printStackTrace();
+        key.cancel();
+
+        try {
+          channel.close();
+        } catch (IOException closeException) {
+          // Already broken, nothing more to do
+        }
+      }
+    }
+  } //IoThread
+
+  /**
+   * Returns the connection to the given host, opening a new one if
+   * none exists. Retries until the remote host is listening.
+   */
+  private SocketChannel getConnection(String host, int portNumber) {
+    String key = host + ":" + portNumber;
+
+    synchronized (connections_) {
+      SocketChannel channel = connections_.get(key);
+      if (channel != null) return channel;
+    }
+
+    SocketChannel channel = null;
+
+    while (channel == null) {
+      try {
+        channel = SocketChannel.open(new InetSocketAddress(host, portNumber));
+        channel.socket().setTcpNoDelay(true);
+      }
+      catch (IOException ioexception) {
+        if (DEBUG_MODE) {
+          System.err.println("NioNetDevice: \tIOException with host " + host + " and port " + portNumber + " RETRYING");
+        }
+      }
+    }
+
+    synchronized (connections_) {
+      SocketChannel existing = connections_.get(key);
+
+      // Another thread connected first, use its connection instead
+      if (existing != null) {
+        try {
+          channel.close();
+        } catch (IOException ioexception) {
+          // Unused connection, nothing more to do
+        }
+        return existing;
+      }
+
+      connections_.put(key, channel);
+      return channel;
+    }
+  }
+
+  /**
+   * Forget a broken connection so that the next send will reconnect.
+   */
+  private void dropConnection(String host, int portNumber, SocketChannel channel) {
+    synchronized (connections_) {
+      if (connections_.get(host + ":" + portNumber) == channel) {
+        connections_.remove(host + ":" + portNumber);
+      }
+    }
+
+    try {
+      channel.close();
+    } catch (IOException ioexception) {
+      // Already broken, nothing more to do
+    }
+  }
+
+  /**
+   * Writes the message as a single frame on the connection to the
+   * target <code>Processor</code>, using a gathering write of the
+   * header and the data so the data is not copied. Outbound channels are left in
+   * blocking mode, so this returns once the whole frame is written.
+   *
+   * @param message The <code>Message</code> to send.
+   * @param host The hostname of the target <code>Processor</code>.
+   * @param portNumber The portnumber the host is listening on.
+   */
+  public void Send(Message message, String host, int portNumber) {
+    if (DEBUG_MODE) {
+      System.out.println("NioNetDevice: \tSend called with host: " + host + " and port " + portNumber);
+    }
+    boolean sent = false;
+
+    while (!sent) {
+      SocketChannel channel = getConnection(host, portNumber);
+
+      ByteBuffer[] frame = { message.frameHeader(), message.dataBuffer() };
+
+      try {
+        // Frames from different threads must not interleave
+        synchronized (channel) {
+          while (frame[0].hasRemaining() || frame[1].hasRemaining()) {
+            channel.write(frame);
+          }
+        }
+        sent = true;
+      }
+      catch (IOException ioexception) {
+        if (DEBUG_MODE) {
+          System.err.println("NioNetDevice: \tIOException with host " + host + " and port " + portNumber + " RECONNECTING");
+        }
+        dropConnection(host, portNumber, channel);
+      }
+    }
+  }
+
+
+  /**
+   * Blocks until a matching message has been delivered. The calling
+   * thread waits on the {@link MessageQueue} rather than polling it.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>.
+   */
+  public Message Receive(int context, int source, int tag) {
+    return messagequeue_.take(context, source, tag);
+  }
+
+  /**
+   * Returns a matching message if one has already been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>, or null.
+   */
+  public Message AsynchronousReceive(int context, int source, int tag) {
+    return messagequeue_.get(context, source, tag);
+  }
+
+  /**
+   * Fills the receive with a matching message once one is delivered.
+   *
+   * @param receive The receive to fill.
+   */
+  public void Post(PostedReceive receive) {
+    messagequeue_.post(receive);
+  }
+}
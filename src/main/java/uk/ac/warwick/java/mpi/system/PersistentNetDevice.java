@@ -0,0 +1,289 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import java.util.HashMap;
+
+import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
+
+
+
+/**
+ * Implementation of {@link NetDevice} that keeps one long-lived
+ * connection open to each peer, rather than opening a new
+ * <code>Socket</code> for every message as {@link SimpleNetDevice}
+ * does.
+ *
+ * <p> Messages are streamed over the connection as length-prefixed
+ * frames, using the same framing as <code>SimpleNetDevice</code>. Each
+ * inbound connection has a dedicated reader thread that feeds the
+ * {@link MessageQueue}.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class PersistentNetDevice
+  implements NetDevice
+{
+
+  private PersistentServer server_;
+  private int port_;
+  private MessageQueue messagequeue_;
+
+  /** The open outbound connections, keyed on "host:port". */
+  private HashMap<String, DataOutputStream> connections_;
+
+  public PersistentNetDevice(int port) {
+    this(port, new MessageQueue());
+  }
+
+  /**
+   * Creates a device that delivers incoming messages to the given
+   * queue.
+   *
+   * @param port The port to listen on.
+   * @param queue The queue incoming messages are added to.
+   */
+  public PersistentNetDevice(int port, MessageQueue queue) {
+    port_ = port;
+    messagequeue_ = queue;
+    connections_ = new HashMap<String, DataOutputStream>();
+    server_ = new PersistentServer();
+    server_.start();
+  }
+
+
+
+  class PersistentServer extends Thread {
+    private ServerSocket socket_ = null;
+    private boolean listening_ = true;
+
+    public PersistentServer() {
+      setDaemon(true);
+    }
+
+    public void run() {
+
+      try {
+        socket_ = new ServerSocket(port_);
+      } catch (IOException ioException) {
+        System.err.println("PersistentNetDevice:PersistentServer: \tCouldn't listen on port " + port_);
+        ioException.printStackTrace();
+        return;
+      }
+
+      while (listening_) {
+        try {
+          Socket socket = socket_.accept();
+          socket.setTcpNoDelay(true);
+          new PersistentReaderThread(socket).start();
+        } catch (IOException ioexception) {
+          System.err.println("PersistentNetDevice:PersistentServer: \tCouldn't accept connection");
+          ioexception.printStackTrace();
+        }
+      }
+    }
+
+    public void stopListening() {
+      listening_ = false;
+    }
+
+  } //PersistentServer
+
+
+
+  /**
+   * Reads frames from a single inbound connection until the peer
+   * closes it.
+   */
+  class PersistentReaderThread extends Thread {
+    private Socket socket_;
+
+    public PersistentReaderThread(Socket socket) {
+      socket_ = socket;
+      setDaemon(true);
+    }
+
+    public void run() {
+      try {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(socket_.getInputStream()));
+
+        while (true) {
+          Message m;
+
+          try {
+            m = Message.readFrom(dis);
+          } catch (EOFException eofException) {
+            // The peer has closed the connection
+            break;
+          }
+
+          if (DEBUG_MODE) {
+            System.err.println("PersistentReaderThread: \tReceived message of length " + m.getDataLength());
+          }
+
+          messagequeue_.add(m);
+        }
+
+        dis.close();
+      }
+      catch (IOException ioexception) {
+        System.err.println("PersistentReaderThread: \tIO Exception");
+        ioexception.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Returns the connection to the given host, opening a new one if
+   * none exists. Retries until the remote host is listening.
+   */
+  private DataOutputStream getConnection(String host, int portNumber) {
+    String key = host + ":" + portNumber;
+
+    synchronized (connections_) {
+      DataOutputStream dos = connections_.get(key);
+      if (dos != null) return dos;
+    }
+
+    // Connect without holding the lock, so sends to other hosts are
+    // not held up while this host starts listening
+    DataOutputStream dos = null;
+
+    while (dos == null) {
+      try {
+        Socket socket = new Socket(host, portNumber);
+        socket.setTcpNoDelay(true);
+        dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      }
+      catch (UnknownHostException unknownhostexception) {
+        if (DEBUG_MODE) {
+          System.err.println("PersistentNetDevice: \tUnkown host exception: " + host + " RETRYING");
+        }
+      }
+      catch (IOException ioexception) {
+        if (DEBUG_MODE) {
+          System.err.println("PersistentNetDevice: \tIOException with host " + host + " and port " + portNumber + " RETRYING");
+        }
+      }
+    }
+
+    synchronized (connections_) {
+      DataOutputStream existing = connections_.get(key);
+
+      // Another thread connected first, use its connection instead
+      if (existing != null) {
+        try {
+          dos.close();
+        } catch (IOException ioexception) {
+          // Unused connection, nothing more to do
+        }
+        return existing;
+      }
+
+      connections_.put(key, dos);
+      return dos;
+    }
+  }
+
+  /**
+   * Forget a broken connection so that the next send will reconnect.
+   */
+  private void dropConnection(String host, int portNumber, DataOutputStream dos) {
+    synchronized (connections_) {
+      if (connections_.get(host + ":" + portNumber) == dos) {
+        connections_.remove(host + ":" + portNumber);
+      }
+    }
+
+    try {
+      dos.close();
+    } catch (IOException ioexception) {
+      // Already broken, nothing more to do
+    }
+  }
+
+  /**
+   * Writes the message as a single frame on the persistent connection
+   * to the target <code>Processor</code>, establishing the connection
+   * first if this is the first message to that host.
+   *
+   * @param message The <code>Message</code> to send.
+   * @param host The hostname of the target <code>Processor</code>.
+   * @param portNumber The portnumber the host is listening on.
+   */
+  public void Send(Message message, String host, int portNumber) {
+    if (DEBUG_MODE) {
+      System.out.println("PersistentNetDevice: \tSend called with host: " + host + " and port " + portNumber);
+    }
+    boolean sent = false;
+
+    while (!sent) {
+      DataOutputStream dos = getConnection(host, portNumber);
+
+      try {
+        // Frames from different threads must not interleave
+        synchronized (dos) {
+          message.writeTo(dos);
+          dos.flush();
+        }
+        sent = true;
+      }
+      catch (IOException ioexception) {
+        if (DEBUG_MODE) {
+          System.err.println("PersistentNetDevice: \tIOException with host " + host + " and port " + portNumber + " RECONNECTING");
+        }
+        dropConnection(host, portNumber, dos);
+      }
+    }
+  }
+
+
+  /**
+   * Blocks until a matching message has been delivered. The calling
+   * thread waits on the {@link MessageQueue} rather than polling it.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>.
+   */
+  public Message Receive(int context, int source, int tag) {
+    return messagequeue_.take(context, source, tag);
+  }
+
+  /**
+   * Returns a matching message if one has already been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>, or null.
+   */
+  public Message AsynchronousReceive(int context, int source, int tag) {
+    return messagequeue_.get(context, source, tag);
+  }
+
+  /**
+   * Fills the receive with a matching message once one is delivered.
+   *
+   * @param receive The receive to fill.
+   */
+  public void Post(PostedReceive receive) {
+    messagequeue_.post(receive);
+  }
+}
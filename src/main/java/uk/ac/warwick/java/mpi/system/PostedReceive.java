@@ -0,0 +1,83 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import uk.ac.warwick.java.mpi.Mpi;
+
+
+
+/**
+ * A receive posted to a {@link MessageQueue} before its message has
+ * arrived.
+ *
+ * <p> When a matching message is delivered, the delivering thread
+ * hands it straight to <code>deliver</code> instead of queueing it, so
+ * the data can be decoded into the receiver's array as soon as it
+ * arrives.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public abstract class PostedReceive {
+
+  private int context_;
+  private int source_;
+  private int tag_;
+
+  /** The message matched to this receive, until it is delivered. */
+  Message matched_;
+  /** The next matched receive waiting to be delivered. */
+  PostedReceive nextMatched_;
+
+  /**
+   * @param context The context of the communicator receiving.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   */
+  protected PostedReceive(int context, int source, int tag) {
+    context_ = context;
+    source_ = source;
+    tag_ = tag;
+  }
+
+  /**
+   * @return The context of the communicator receiving.
+   */
+  public int getContext() {
+    return context_;
+  }
+
+  /**
+   * @return The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   */
+  public int getSource() {
+    return source_;
+  }
+
+  /**
+   * @return The message tag, or <code>Mpi.ANY_TAG</code>.
+   */
+  public int getTag() {
+    return tag_;
+  }
+
+  /**
+   * @return True if <code>message</code> satisfies this receive.
+   */
+  boolean matches(Message message) {
+    return context_ == message.getContext()
+      && (source_ == Mpi.ANY_SOURCE || source_ == message.getSource())
+      && (tag_ == Mpi.ANY_TAG || tag_ == message.getTag());
+  }
+
+  /**
+   * Called once, with the matching message, by the thread that
+   * delivers it. This may be an I/O thread, so it should not block,
+   * and it must not throw: any error should be kept to report to the
+   * receiver. The message is the receive's own from then on.
+   *
+   * @param message The matching <code>Message</code>.
+   */
+  protected abstract void deliver(Message message);
+} // PostedReceive
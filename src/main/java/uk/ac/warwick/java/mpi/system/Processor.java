@@ -2,6 +2,12 @@ package uk.ac.warwick.java.mpi.system;
 
 
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+
 /**
  * Represents the concept of a <code>Processor</code> in the MPI environment.
  *
@@ -13,7 +19,13 @@ package uk.ac.warwick.java.mpi.system;
 public class Processor {
   private String hostname_;
   private NetDevice net_;
+  /** Device for <code>Processor</code>s on the same host, may be null. */
+  private NetDevice localNet_;
   private int port_;
+  /** The lowest communicator context this process hasn't used, 0 is <code>COMM_WORLD</code>'s. */
+  private int nextContext_ = 1;
+  /** Thread that carries out non-blocking sends, created on first use. */
+  private ExecutorService sendExecutor_ = null;
 
   /**
    * Create a new <code>Processor</code> that represents a remote
@@ -54,6 +66,14 @@ public class Processor {
     net_ = net;
   }
 
+  /**
+   * Assign the <code>NetDevice</code> used to reach other
+   * <code>Processor</code>s on the same host.
+   */
+  public void setLocalNetDevice(NetDevice net) {
+    localNet_ = net;
+  }
+
   /**
    * Get the hostname of this <code>Processor</code>.
    *
@@ -72,6 +92,16 @@ public class Processor {
     return net_;
   }
 
+  /**
+   * Get the <code>NetDevice</code> used to reach other
+   * <code>Processor</code>s on the same host.
+   *
+   * @return The <code>NetDevice</code>, or null if there isn't one.
+   */
+  public NetDevice getLocalNetDevice(){
+    return localNet_;
+  }
+
   /**
    * Get the port that this <code>Processor</code> is listening on.
    *
@@ -80,4 +110,45 @@ public class Processor {
   public int getPort() {
     return port_;
   }
+
+  /**
+   * Get the lowest communicator context this <code>Processor</code>
+   * has not used.
+   *
+   * @return The next free context.
+   */
+  public int getNextContext() {
+    return nextContext_;
+  }
+
+  /**
+   * Record that every context below <code>context</code> has been used.
+   *
+   * @param context The next free context.
+   */
+  public void setNextContext(int context) {
+    nextContext_ = context;
+  }
+
+  /**
+   * Get the thread that carries out non-blocking sends for this
+   * <code>Processor</code>. Every communicator of the process shares
+   * it, so sends are carried out one at a time in the order they were
+   * started.
+   *
+   * @return The executor for non-blocking sends.
+   */
+  public synchronized ExecutorService getSendExecutor() {
+    if (sendExecutor_ == null) {
+      sendExecutor_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Processor-isend-" + port_);
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    }
+
+    return sendExecutor_;
+  }
 } // Processor
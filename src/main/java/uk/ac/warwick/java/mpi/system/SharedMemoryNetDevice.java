@@ -0,0 +1,372 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import uk.ac.warwick.java.mpi.MpiException;
+
+import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
+
+
+
+/**
+ * Implementation of {@link NetDevice} for processes on the same host,
+ * which passes messages through memory-mapped files rather than the
+ * network stack.
+ *
+ * <p> There is one {@link SharedMemoryRing} for each ordered pair of
+ * processes, named after the ports of the receiver and the sender, in
+ * a directory for the job under <code>/dev/shm</code>, or the
+ * temporary directory where that doesn't exist. Each process creates
+ * the rings it receives on when it starts, and a single poller thread
+ * reads all of them, adding incoming messages to the
+ * {@link MessageQueue}. When every ring is empty the poller backs off
+ * to sleeps of up to 2 ms. Messages are written to the ring with the
+ * same framing as the other devices.
+ *
+ * <p> With P processes on a host there are P(P-1) rings. Each process
+ * gives its inbound rings {@link #INBOUND_BYTES} between them, so the
+ * rings take at most P * <code>INBOUND_BYTES</code> of memory on the
+ * host. A ring's file is removed once its sender has mapped it; files
+ * for rings that are never sent on are removed when the process exits
+ * normally, but are left behind under
+ * <code>latteMPI-&lt;jobId&gt;</code> if it crashes.
+ *
+ * <p> This device is used alongside a network device, sharing its
+ * <code>MessageQueue</code>, and only for peers on the local host.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class SharedMemoryNetDevice
+  implements NetDevice
+{
+
+  /** The size of a ring when there are only a few peers, in bytes. */
+  public static final int MAX_RING_SIZE = 1 << 20;
+  /** The smallest ring used, however many peers there are, in bytes. */
+  public static final int MIN_RING_SIZE = 1 << 16;
+  /** The bytes shared between the rings one process receives on. */
+  public static final int INBOUND_BYTES = 1 << 23;
+
+  private int port_;
+  private MessageQueue messagequeue_;
+  private File directory_;
+
+  /** The rings this process sends on, keyed on the receiver's port. */
+  private HashMap<Integer, SharedMemoryRing> outbound_;
+  /** Held while opening the ring to a port, keyed on the port. */
+  private HashMap<Integer, Object> opening_;
+
+  /**
+   * Creates the rings for messages from each of the other processes on
+   * this host, sized by the number of peers, and starts reading from
+   * them.
+   *
+   * @param port The port of this process, which identifies it on the host.
+   * @param peerPorts The ports of the other processes on this host.
+   * @param jobId An identifier shared by all processes in the job.
+   * @param queue The queue incoming messages are added to.
+   */
+  public SharedMemoryNetDevice(int port, List<Integer> peerPorts, String jobId, MessageQueue queue)
+    throws IOException {
+    this(port, peerPorts, jobId, queue, ringSize(peerPorts.size()));
+  }
+
+  /**
+   * Creates the rings for messages from each of the other processes on
+   * this host, and starts reading from them.
+   *
+   * @param port The port of this process, which identifies it on the host.
+   * @param peerPorts The ports of the other processes on this host.
+   * @param jobId An identifier shared by all processes in the job.
+   * @param queue The queue incoming messages are added to.
+   * @param ringSize The size of each inbound ring in bytes, a power of two.
+   */
+  public SharedMemoryNetDevice(int port, List<Integer> peerPorts, String jobId, MessageQueue queue,
+                               int ringSize) throws IOException {
+    if (ringSize <= 0 || (ringSize & (ringSize - 1)) != 0) {
+      throw new IllegalArgumentException("Ring size must be a power of two: " + ringSize);
+    }
+
+    port_ = port;
+    messagequeue_ = queue;
+    outbound_ = new HashMap<Integer, SharedMemoryRing>();
+    opening_ = new HashMap<Integer, Object>();
+    directory_ = directory(jobId);
+
+    ArrayList<RingReader> readers = new ArrayList<RingReader>();
+
+    for (int peer : peerPorts) {
+      if (peer == port) continue;
+
+      readers.add(new RingReader(SharedMemoryRing.create(ringFile(port, peer), ringSize)));
+    }
+
+    if (!readers.isEmpty()) {
+      new SharedMemoryPollerThread(readers).start();
+    }
+  }
+
+  /**
+   * Returns the size of each inbound ring for a process with
+   * <code>peers</code> peers on its host: an equal share of
+   * {@link #INBOUND_BYTES}, rounded down to a power of two, between
+   * {@link #MIN_RING_SIZE} and {@link #MAX_RING_SIZE}.
+   */
+  static int ringSize(int peers) {
+    int share = INBOUND_BYTES / Math.max(1, peers);
+    return Math.max(MIN_RING_SIZE, Math.min(MAX_RING_SIZE, Integer.highestOneBit(share)));
+  }
+
+  /**
+   * Returns the directory for the rings of the given job, creating it
+   * if needed.
+   */
+  private static File directory(String jobId) throws IOException {
+    File root = new File("/dev/shm");
+
+    if (!root.isDirectory() || !root.canWrite()) {
+      root = new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    File directory = new File(root, "latteMPI-" + jobId);
+
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Couldn't create " + directory);
+    }
+
+    directory.deleteOnExit();
+    return directory;
+  }
+
+  private File ringFile(int receiver, int sender) {
+    return new File(directory_, receiver + "-" + sender);
+  }
+
+
+
+  /**
+   * The state of a partially read frame from one inbound ring.
+   */
+  static class RingReader {
+    private SharedMemoryRing ring_;
+    private byte[] header_ = new byte[Message.FRAME_HEADER_LENGTH];
+    private int headerRead_ = 0;
+    private byte[] data_ = null;
+    private int length_;
+    private int dataRead_;
+    private int type_;
+    private int tag_;
+    private int source_;
+    private int context_;
+
+    RingReader(SharedMemoryRing ring) {
+      ring_ = ring;
+    }
+
+    /**
+     * Reads whatever is in the ring, adding every completed frame to
+     * the queue. The header is read first, then the data is read
+     * straight into a pooled buffer.
+     *
+     * @return True if any bytes were read.
+     */
+    boolean poll(MessageQueue queue) {
+      boolean progress = false;
+
+      while (true) {
+        if (data_ == null) {
+          int n = ring_.poll(header_, headerRead_, header_.length - headerRead_);
+
+          if (n == 0) return progress;
+
+          progress = true;
+          headerRead_ += n;
+
+          if (headerRead_ < header_.length) continue;
+
+          ByteBuffer header = ByteBuffer.wrap(header_);
+          length_ = header.getInt() - Message.HEADER_LENGTH;
+          type_ = header.getInt();
+          tag_ = header.getInt();
+          source_ = header.getInt();
+          context_ = header.getInt();
+
+          headerRead_ = 0;
+          dataRead_ = 0;
+          data_ = BufferPool.acquire(length_);
+        }
+
+        if (dataRead_ < length_) {
+          int n = ring_.poll(data_, dataRead_, length_ - dataRead_);
+
+          if (n == 0) return progress;
+
+          progress = true;
+          dataRead_ += n;
+          continue;
+        }
+
+        Message message = new Message(data_, length_, source_, tag_, type_);
+        message.setContext(context_);
+
+        if (DEBUG_MODE) {
+          System.err.println("SharedMemoryPollerThread: \tReceived message of length " + length_);
+        }
+
+        queue.add(message);
+        data_ = null;
+      }
+    }
+  }
+
+  /**
+   * Reads messages from all the inbound rings.
+   */
+  class SharedMemoryPollerThread extends Thread {
+    private RingReader[] readers_;
+
+    public SharedMemoryPollerThread(List<RingReader> readers) {
+      super("SharedMemoryNetDevice-" + port_);
+      readers_ = readers.toArray(new RingReader[readers.size()]);
+      setDaemon(true);
+    }
+
+    public void run() {
+      int idle = 0;
+
+      while (true) {
+        boolean progress = false;
+
+        for (RingReader reader : readers_) {
+          progress |= reader.poll(messagequeue_);
+        }
+
+        if (progress) {
+          idle = 0;
+        }
+        else {
+          SharedMemoryRing.backoff(idle++);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the ring for sending to the process on
+   * <code>portNumber</code>, waiting for that process to create it if
+   * this is the first message to it.
+   */
+  private SharedMemoryRing getRing(int portNumber) {
+    Object lock;
+
+    synchronized (outbound_) {
+      SharedMemoryRing ring = outbound_.get(portNumber);
+      if (ring != null) return ring;
+
+      lock = opening_.get(portNumber);
+
+      if (lock == null) {
+        lock = new Object();
+        opening_.put(portNumber, lock);
+      }
+    }
+
+    // Wait without holding the map's lock, so sends to other processes
+    // are not held up while this one starts. The ring may only be
+    // opened once, so other threads sending to the same process wait.
+    synchronized (lock) {
+      synchronized (outbound_) {
+        SharedMemoryRing ring = outbound_.get(portNumber);
+        if (ring != null) return ring;
+      }
+
+      SharedMemoryRing ring;
+
+      try {
+        ring = SharedMemoryRing.open(ringFile(portNumber, port_));
+      } catch (IOException ioexception) {
+        throw new MpiException("Couldn't open shared memory ring to port " + portNumber + ": " + ioexception);
+      }
+
+      synchronized (outbound_) {
+        outbound_.put(portNumber, ring);
+        opening_.remove(portNumber);
+      }
+
+      return ring;
+    }
+  }
+
+  /**
+   * Writes the message to the ring for the target
+   * <code>Processor</code>, which must be on this host.
+   *
+   * @param message The <code>Message</code> to send.
+   * @param host The hostname of the target <code>Processor</code>.
+   * @param portNumber The portnumber the host is listening on.
+   */
+  public void Send(Message message, String host, int portNumber) {
+    if (DEBUG_MODE) {
+      System.out.println("SharedMemoryNetDevice: \tSend called with port " + portNumber);
+    }
+
+    SharedMemoryRing ring = getRing(portNumber);
+
+    // Frames from different threads must not interleave
+    synchronized (ring) {
+      try {
+        message.writeTo(ring.outputStream());
+      } catch (IOException ioexception) {
+        // The ring's stream doesn't throw
+        throw new MpiException("Couldn't write to shared memory ring: " + ioexception);
+      }
+    }
+  }
+
+
+  /**
+   * Blocks until a matching message has been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>.
+   */
+  public Message Receive(int context, int source, int tag) {
+    return messagequeue_.take(context, source, tag);
+  }
+
+  /**
+   * Returns a matching message if one has already been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>, or null.
+   */
+  public Message AsynchronousReceive(int context, int source, int tag) {
+    return messagequeue_.get(context, source, tag);
+  }
+
+  /**
+   * Fills the receive with a matching message once one is delivered.
+   *
+   * @param receive The receive to fill.
+   */
+  public void Post(PostedReceive receive) {
+    messagequeue_.post(receive);
+  }
+}
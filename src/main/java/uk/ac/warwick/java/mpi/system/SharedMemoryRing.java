@@ -0,0 +1,222 @@
+package uk.ac.warwick.java.mpi.system;
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.lang.reflect.Field;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.concurrent.locks.LockSupport;
+
+import sun.misc.Unsafe;
+
+
+
+/**
+ * A single-producer, single-consumer byte ring held in a
+ * memory-mapped file, so that two processes on the same host can pass
+ * bytes to each other without going through the network stack.
+ *
+ * <p> The file starts with the write position (head) and the read
+ * position (tail), each on its own cache line, followed by the data.
+ * Positions only ever increase; the offset into the data is the
+ * position modulo the capacity. The producer publishes the head with an
+ * ordered store after copying the data in, and the consumer reads it
+ * with a volatile load before copying the data out, and the same the
+ * other way round for the tail.
+ *
+ * <p> The ring is a byte stream, so a message larger than the ring is
+ * passed through in pieces. A side that can't make progress spins
+ * briefly, then backs off to ever longer sleeps, up to 2 ms, since
+ * there is no way to wake a thread in another process.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+class SharedMemoryRing {
+
+  private static final int HEAD = 0;
+  private static final int TAIL = 64;
+  private static final int DATA = 128;
+
+  /** The first park of a side that can't make progress. */
+  private static final long MIN_PARK_NANOS = 50000;
+  /** The longest park, which bounds how often an idle side wakes. */
+  private static final long MAX_PARK_NANOS = 2000000;
+
+  private static final Unsafe UNSAFE;
+  private static final long ADDRESS_OFFSET;
+
+  static {
+    try {
+      Field field = Unsafe.class.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      UNSAFE = (Unsafe) field.get(null);
+      ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+    } catch (Exception exception) {
+      throw new ExceptionInInitializerError(exception);
+    }
+  }
+
+  private MappedByteBuffer buffer_;
+  private long address_;
+  private int capacity_;
+  private int mask_;
+
+  private SharedMemoryRing(MappedByteBuffer buffer, int capacity) {
+    buffer_ = buffer;
+    address_ = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+    capacity_ = capacity;
+    mask_ = capacity - 1;
+  }
+
+  /**
+   * Creates a new, empty ring in <code>file</code>. The ring is built
+   * under a temporary name and then renamed, so that a process
+   * waiting in {@link #open} never sees it half made.
+   *
+   * @param file The file to create.
+   * @param capacity The size of the ring in bytes, a power of two.
+   */
+  static SharedMemoryRing create(File file, int capacity) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    SharedMemoryRing ring = new SharedMemoryRing(map(temp, DATA + capacity), capacity);
+
+    if (!temp.renameTo(file)) {
+      throw new IOException("Couldn't rename " + temp + " to " + file);
+    }
+
+    file.deleteOnExit();
+    return ring;
+  }
+
+  /**
+   * Opens the ring in <code>file</code>, waiting until it has been
+   * created, and then removes the file. The mapping stays valid
+   * without it, and nothing else opens the ring, so nothing is left
+   * behind if either process dies. Must only be called once for each
+   * ring.
+   *
+   * @param file The file holding the ring.
+   */
+  static SharedMemoryRing open(File file) throws IOException {
+    for (int attempt = 0; !file.exists(); attempt++) {
+      backoff(attempt);
+    }
+
+    MappedByteBuffer buffer = map(file, (int) file.length());
+    file.delete();
+    return new SharedMemoryRing(buffer, buffer.capacity() - DATA);
+  }
+
+  private static MappedByteBuffer map(File file, int length) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try {
+      raf.setLength(length);
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    } finally {
+      // The mapping stays valid once the file is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Waits a little longer each time a side can't make progress:
+   * spinning, then yielding, then parking for a time that doubles
+   * every few attempts up to {@link #MAX_PARK_NANOS}.
+   */
+  static void backoff(int attempt) {
+    if (attempt < 100) {
+      return;
+    }
+    else if (attempt < 200) {
+      Thread.yield();
+    }
+    else {
+      int doublings = Math.min(16, (attempt - 200) / 8);
+      LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << doublings));
+    }
+  }
+
+  /**
+   * Copies <code>length</code> bytes into the ring, waiting for space
+   * as needed. Only one thread may write at a time.
+   */
+  void write(byte[] b, int offset, int length) {
+    long head = UNSAFE.getLong(address_ + HEAD);
+    int attempt = 0;
+
+    while (length > 0) {
+      long tail = UNSAFE.getLongVolatile(null, address_ + TAIL);
+      int free = capacity_ - (int) (head - tail);
+
+      if (free == 0) {
+        backoff(attempt++);
+        continue;
+      }
+
+      int index = (int) head & mask_;
+      int n = Math.min(length, Math.min(free, capacity_ - index));
+
+      ByteBuffer data = buffer_.duplicate();
+      data.position(DATA + index);
+      data.put(b, offset, n);
+
+      head += n;
+      offset += n;
+      length -= n;
+      attempt = 0;
+
+      UNSAFE.putOrderedLong(null, address_ + HEAD, head);
+    }
+  }
+
+  /**
+   * Copies up to <code>length</code> bytes out of the ring, without
+   * waiting. Only one thread may read at a time.
+   *
+   * @return The number of bytes read, 0 if the ring is empty.
+   */
+  int poll(byte[] b, int offset, int length) {
+    long tail = UNSAFE.getLong(address_ + TAIL);
+    long head = UNSAFE.getLongVolatile(null, address_ + HEAD);
+
+    if (length == 0 || head == tail) return 0;
+
+    int index = (int) tail & mask_;
+    int n = Math.min(length, Math.min((int) (head - tail), capacity_ - index));
+
+    ByteBuffer data = buffer_.duplicate();
+    data.position(DATA + index);
+    data.get(b, offset, n);
+
+    UNSAFE.putOrderedLong(null, address_ + TAIL, tail + n);
+
+    return n;
+  }
+
+  /**
+   * @return A stream that writes into this ring.
+   */
+  OutputStream outputStream() {
+    return new OutputStream() {
+      public void write(int b) {
+        SharedMemoryRing.this.write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      public void write(byte[] b, int offset, int length) {
+        SharedMemoryRing.this.write(b, offset, length);
+      }
+    };
+  }
+} // SharedMemoryRing
@@ -2,11 +2,11 @@ package uk.ac.warwick.java.mpi.system;
 
 
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.DataOutputStream;
 
 import java.net.Socket;
 import java.net.ServerSocket;
@@ -35,8 +35,19 @@ public class SimpleNetDevice
   private MessageQueue messagequeue_;
 
   public SimpleNetDevice(int port){
+    this(port, new MessageQueue());
+  }
+
+  /**
+   * Creates a device that delivers incoming messages to the given
+   * queue.
+   *
+   * @param port The port to listen on.
+   * @param queue The queue incoming messages are added to.
+   */
+  public SimpleNetDevice(int port, MessageQueue queue){
     port_ = port;
-    messagequeue_ = new MessageQueue();
+    messagequeue_ = queue;
     server_ = new SimpleServer(port, this);
     server_.start();
   }
@@ -94,29 +105,17 @@ public class SimpleNetDevice
           System.out.println("SimpleServerThread: \tReceiving data!");
         }
         InputStream in = socket_.getInputStream();
-        DataInputStream dis = new DataInputStream(in);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
 
-        int len = dis.readInt();
-        byte[] data = new byte[len];
+        Message m = Message.readFrom(dis);
 
-        if (len > 0) {
-          dis.readFully(data);
-        }
         if (DEBUG_MODE) {
-          for (int i = 0; i < data.length; i++){
-            if (DEBUG_MODE) {
-              System.err.println("SimpleServerThread: \tRecieved: " + data[i]);
-            }
-          }
-          if (DEBUG_MODE) {
-            System.err.println("SimpleServerThread: \tEND OF DATA");
-          }
+          System.err.println("SimpleServerThread: \tRecieved: " + m);
+          System.err.println("SimpleServerThread: \tEND OF DATA");
         }
 
-        //dis.flush();
         dis.close();
-        Message m = new Message(data);
-        if (data != null) messagequeue_.add(m);
+        messagequeue_.add(m);
       }
       catch (IOException ioexception) {
         System.err.println("SimpleServerThread: \tIO Exception");
@@ -126,9 +125,9 @@ public class SimpleNetDevice
   }
 
   /**
-   * Uses blocking network I/O and a Java
-   * <code>DataOutputStream</code> to send the <code>byte[]</code>
-   * across the network.
+   * Uses blocking network I/O to send the message across the
+   * network, writing the header and data separately so the data is
+   * not copied.
    *
    * @param message The <code>Message</code> to send.
    * @param host The hostname of the target <code>Processor</code>.
@@ -138,26 +137,17 @@ public class SimpleNetDevice
     if (DEBUG_MODE) {
       System.out.println("SimpleNetDevice: \tSend called with host: " + host + " and port " + portNumber);
     }
-    byte[] messageArray = message.toByteArray();
-
     boolean gotSocket = false;
 
     while (!gotSocket) {
       try {
         Socket socket = new Socket(host, portNumber);
         OutputStream out = socket.getOutputStream();
-        DataOutputStream dos = new DataOutputStream(out);
         if (socket != null) {
           gotSocket = true;
         }
 
-
-        dos.writeInt(messageArray.length);
-
-        if (messageArray.length > 0) {
-          dos.write(messageArray, 0, messageArray.length);
-        }
-
+        message.writeTo(out);
       }
       catch (UnknownHostException unknownhostexception) {
         if (DEBUG_MODE) {
@@ -175,13 +165,39 @@ public class SimpleNetDevice
   }
 
 
-  public Message Receive(int source, int tag) {
-    Message m = null;
+  /**
+   * Blocks until a matching message has been delivered. The calling
+   * thread waits on the {@link MessageQueue} rather than polling it.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>.
+   */
+  public Message Receive(int context, int source, int tag) {
+    return messagequeue_.take(context, source, tag);
+  }
 
-    while (m == null) {
-      m = messagequeue_.get(source,tag);
-    }
+  /**
+   * Returns a matching message if one has already been delivered.
+   *
+   * @param context The context of the receiving communicator.
+   * @param source The rank of the source, or <code>Mpi.ANY_SOURCE</code>.
+   * @param tag The message tag, or <code>Mpi.ANY_TAG</code>.
+   *
+   * @return The matching <code>Message</code>, or null.
+   */
+  public Message AsynchronousReceive(int context, int source, int tag) {
+    return messagequeue_.get(context, source, tag);
+  }
 
-    return m;
+  /**
+   * Fills the receive with a matching message once one is delivered.
+   *
+   * @param receive The receive to fill.
+   */
+  public void Post(PostedReceive receive) {
+    messagequeue_.post(receive);
   }
 }
@@ -24,6 +24,10 @@ public class Arguments {
   private static OptionSpec<String> hostnameArg_;
   private static OptionSpec<String> argsArg_;
   private static OptionSpec<String> sshArg_;
+  private static OptionSpec<String> netDeviceArg_;
+  private static OptionSpec<Integer> ioThreadsArg_;
+  private static OptionSpec<Integer> spinArg_;
+  private static OptionSpec<String> jobIdArg_;
 
   private File hostfile_;
   private int n_;
@@ -32,6 +36,10 @@ public class Arguments {
   private String hostname_;
   private String[] args_;
   private String ssh_id_ = null;
+  private String netDevice_;
+  private int ioThreads_;
+  private int spin_;
+  private String jobId_ = null;
 
   /**
    * Generate the parser statically
@@ -51,6 +59,14 @@ public class Arguments {
       parser.accepts("hostname").withRequiredArg().ofType(String.class);
     sshArg_ =
       parser.accepts("ssh").withRequiredArg().ofType(String.class);
+    netDeviceArg_ =
+      parser.accepts("netdevice").withRequiredArg().ofType(String.class).defaultsTo("simple");
+    ioThreadsArg_ =
+      parser.accepts("iothreads").withRequiredArg().ofType(Integer.class).defaultsTo(2);
+    spinArg_ =
+      parser.accepts("spin").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+    jobIdArg_ =
+      parser.accepts("jobid").withRequiredArg().ofType(String.class);
   }
 
   /**
@@ -71,6 +87,10 @@ public class Arguments {
     if (options.has(hostnameArg_)) hostname_ = options.valueOf(hostnameArg_);
     args_  = options.nonOptionArguments().toArray(new String[0]);
     if (options.has(sshArg_)) ssh_id_ = options.valueOf(sshArg_);
+    netDevice_ = options.valueOf(netDeviceArg_);
+    ioThreads_ = options.valueOf(ioThreadsArg_);
+    spin_ = options.valueOf(spinArg_);
+    if (options.has(jobIdArg_)) jobId_ = options.valueOf(jobIdArg_);
   }
 
   /**
@@ -137,4 +157,44 @@ public class Arguments {
   public String getSshId() {
     return ssh_id_;
   }
+
+  /**
+   * Get the name of the {@link uk.ac.warwick.java.mpi.system.NetDevice}
+   * the processes should use, "simple" unless otherwise specified.
+   *
+   * @return The name of the net device.
+   */
+  public String getNetDevice() {
+    return netDevice_;
+  }
+
+  /**
+   * Get the number of I/O threads a selector based net device should
+   * use, 2 unless otherwise specified.
+   *
+   * @return The number of I/O threads.
+   */
+  public int getIoThreads() {
+    return ioThreads_;
+  }
+
+  /**
+   * Get the number of times a blocked receive should spin before it
+   * waits, 0 unless otherwise specified.
+   *
+   * @return The spin limit.
+   */
+  public int getSpin() {
+    return spin_;
+  }
+
+  /**
+   * Get the identifier shared by all processes in the job, used to
+   * name shared memory. Null if none was given.
+   *
+   * @return The job identifier.
+   */
+  public String getJobId() {
+    return jobId_;
+  }
 } // Arguments
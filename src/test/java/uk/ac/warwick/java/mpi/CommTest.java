@@ -1,12 +1,20 @@
 package uk.ac.warwick.java.mpi;
 
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestSuite;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Test;
 import uk.ac.warwick.java.mpi.Mpi;
 import uk.ac.warwick.java.mpi.system.Message;
+import uk.ac.warwick.java.mpi.system.MessageQueue;
+import uk.ac.warwick.java.mpi.system.MpiThreadStarter;
+import uk.ac.warwick.java.mpi.system.PostedReceive;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
@@ -80,7 +88,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_INT);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
 
     replay(mockGroup);
     Comm c = new Comm(mockGroup);
@@ -109,7 +117,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_INT);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -157,7 +165,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_LONG);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -187,7 +195,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_LONG);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -236,7 +244,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_FLOAT);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -266,7 +274,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_FLOAT);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -314,7 +322,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_DOUBLE);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -343,7 +351,7 @@ public class CommTest {
     Message testMessage = new Message(Message.dataToByteArray(data), 0,0, Message.TYPE_DOUBLE);
 
 
-    expect(mockGroup.Recv(0,0)).andReturn(testMessage);
+    expect(mockGroup.Recv(0,0,0)).andReturn(testMessage);
     replay(mockGroup);
 
     Comm c = new Comm(mockGroup);
@@ -384,7 +392,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_INT);
 
     //mockGroup.Send(anyObject(Message.class),eq(0));
-    expect(mockGroup.Recv(0,Comm.BROADCAST_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,0,Comm.COLLECTIVE_TAG)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -404,7 +412,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_INT);
 
     mockGroup.Send(anyObject(Message.class),eq(1));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(0);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -427,7 +435,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_INT);
 
     mockGroup.Send(anyObject(Message.class),eq(0));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -442,6 +450,37 @@ public class CommTest {
 
 
 
+  /**
+   * Check that a broadcast's message can't be taken by a receive for
+   * any tag on the communicator.
+   */
+  @Test public void testBcastNotReceivedAnyTag() {
+    Group mockGroup = createMock(Group.class);
+    final MessageQueue queue = new MessageQueue();
+
+    int[] data = { 1,2,3,4,5,6,7,8,9 };
+
+    mockGroup.Send(anyObject(Message.class),eq(1));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+        public Object answer() {
+          queue.add((Message) getCurrentArguments()[0]);
+          return null;
+        }
+      });
+    expect(mockGroup.Rank()).andReturn(0).anyTimes();
+    expect(mockGroup.Size()).andReturn(2).anyTimes();
+
+    replay(mockGroup);
+
+    Comm c = new Comm(mockGroup);
+    c.Bcast(data,0);
+
+    assertNull(queue.get(Comm.WORLD_CONTEXT, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+    assertNotNull(queue.get(Comm.WORLD_COLLECTIVE_CONTEXT, 0, Comm.COLLECTIVE_TAG));
+
+    verify(mockGroup);
+  }
+
   @Test public void testRankConversion() {
     int root = 7;
     int rank = 1;
@@ -480,7 +519,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_LONG);
 
     //mockGroup.Send(anyObject(Message.class),eq(0));
-    expect(mockGroup.Recv(0,Comm.BROADCAST_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,0,Comm.COLLECTIVE_TAG)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -500,7 +539,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_LONG);
 
     mockGroup.Send(anyObject(Message.class),eq(1));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(0);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -523,7 +562,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_LONG);
 
     mockGroup.Send(anyObject(Message.class),eq(0));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -563,7 +602,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_FLOAT);
 
     //mockGroup.Send(anyObject(Message.class),eq(0));
-    expect(mockGroup.Recv(0,Comm.BROADCAST_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,0,Comm.COLLECTIVE_TAG)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -583,7 +622,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_FLOAT);
 
     mockGroup.Send(anyObject(Message.class),eq(1));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(0);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -606,7 +645,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_FLOAT);
 
     mockGroup.Send(anyObject(Message.class),eq(0));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -646,7 +685,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_DOUBLE);
 
     //mockGroup.Send(anyObject(Message.class),eq(0));
-    expect(mockGroup.Recv(0,Comm.BROADCAST_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,0,Comm.COLLECTIVE_TAG)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -666,7 +705,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_DOUBLE);
 
     mockGroup.Send(anyObject(Message.class),eq(1));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(0);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -689,7 +728,7 @@ public class CommTest {
     Message test = new Message(Message.dataToByteArray(data),0,3,Message.TYPE_DOUBLE);
 
     mockGroup.Send(anyObject(Message.class),eq(0));
-    //expect(mockGroup.Recv(0,3)).andReturn(test);
+    //expect(mockGroup.Recv(0,0,3)).andReturn(test);
     expect(mockGroup.Rank()).andReturn(1);
     expect(mockGroup.Size()).andReturn(2);
 
@@ -710,11 +749,11 @@ public class CommTest {
 
     int[] dataRoot = { 1232, 3123};
     int[] dataNotRoot = { 123, 432 };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_INT);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_INT);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,1, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -733,7 +772,7 @@ public class CommTest {
 
     int[] dataRoot = { 1232, 3123};
     int[] dataNotRoot = { 123, 432 };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_INT);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_INT);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
@@ -758,11 +797,11 @@ public class CommTest {
 
     long[] dataRoot = { 1232L, 3123L};
     long[] dataNotRoot = { 123L, 432L };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_LONG);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_LONG);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,1, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -781,7 +820,7 @@ public class CommTest {
 
     long[] dataRoot = { 1232L, 3123L};
     long[] dataNotRoot = { 123L, 432L };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_LONG);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_LONG);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
@@ -805,11 +844,11 @@ public class CommTest {
 
     float[] dataRoot = { 1.1f, 2.2f};
     float[] dataNotRoot = { 12.3f, 43.2f };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_FLOAT);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_FLOAT);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,1, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -828,7 +867,7 @@ public class CommTest {
 
     float[] dataRoot = { 12.32f, 312.3f};
     float[] dataNotRoot = { 123.0f, 432.1f };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_FLOAT);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_FLOAT);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
@@ -850,11 +889,11 @@ public class CommTest {
 
     double[] dataRoot = { 12.32, 312.3};
     double[] dataNotRoot = { 12.3, 43.2 };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_DOUBLE);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_DOUBLE);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT,1, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -873,7 +912,7 @@ public class CommTest {
 
     double[] dataRoot = { 1232, 3123};
     double[] dataNotRoot = { 123, 432 };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_DOUBLE);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_DOUBLE);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
@@ -897,11 +936,11 @@ public class CommTest {
 
     int[] dataRoot = { 1232, 3123};
     int[] dataNotRoot = { 123, 432 };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_INT);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_INT);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 1, Comm.COLLECTIVE_TAG)).andReturn(test);
     mockGroup.Send(anyObject(Message.class), eq(1));
 
     replay(mockGroup);
@@ -922,13 +961,12 @@ public class CommTest {
 
     int[] dataRoot = { 1232, 3123};
     int[] dataNotRoot = { 123, 432 };
-    Message test = new Message(Message.dataToByteArray(dataRoot), 1, Comm.REDUCE_TAG, Message.TYPE_INT);
+    Message test = new Message(Message.dataToByteArray(dataRoot), 0, Comm.COLLECTIVE_TAG, Message.TYPE_INT);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
     mockGroup.Send(anyObject(Message.class), eq(0));
-    expect(mockGroup.Recv(0, Comm.BROADCAST_TAG))
-      .andReturn(new Message(Message.dataToByteArray(new int[] {1355, 3555}), 0, Comm.BROADCAST_TAG, Message.TYPE_INT));
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 0, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -949,11 +987,11 @@ public class CommTest {
 
     long[] dataRoot = { 1232L, 3123L};
     long[] dataNotRoot = { 123L, 432L };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_LONG);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_LONG);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 1, Comm.COLLECTIVE_TAG)).andReturn(test);
     mockGroup.Send(anyObject(Message.class), eq(1));
 
     replay(mockGroup);
@@ -974,13 +1012,12 @@ public class CommTest {
 
     long[] dataRoot = { 1232L, 3123L};
     long[] dataNotRoot = { 123L, 432L };
-    Message test = new Message(Message.dataToByteArray(dataRoot), 1, Comm.REDUCE_TAG, Message.TYPE_LONG);
+    Message test = new Message(Message.dataToByteArray(dataRoot), 0, Comm.COLLECTIVE_TAG, Message.TYPE_LONG);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
     mockGroup.Send(anyObject(Message.class), eq(0));
-    expect(mockGroup.Recv(0, Comm.BROADCAST_TAG))
-      .andReturn(new Message(Message.dataToByteArray(new long[] {1355, 3555}), 0, Comm.BROADCAST_TAG, Message.TYPE_LONG));
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 0, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -1000,11 +1037,11 @@ public class CommTest {
 
     float[] dataRoot = { 1.232f, 31.23f};
     float[] dataNotRoot = { 1.23f, 4.32f };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_FLOAT);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_FLOAT);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 1, Comm.COLLECTIVE_TAG)).andReturn(test);
     mockGroup.Send(anyObject(Message.class), eq(1));
 
     replay(mockGroup);
@@ -1025,13 +1062,12 @@ public class CommTest {
 
     float[] dataRoot = { 1.232f, 31.23f};
     float[] dataNotRoot = { 1.23f, 4.32f};
-    Message test = new Message(Message.dataToByteArray(dataRoot), 1, Comm.REDUCE_TAG, Message.TYPE_FLOAT);
+    Message test = new Message(Message.dataToByteArray(dataRoot), 0, Comm.COLLECTIVE_TAG, Message.TYPE_FLOAT);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
     mockGroup.Send(anyObject(Message.class), eq(0));
-    expect(mockGroup.Recv(0, Comm.BROADCAST_TAG))
-      .andReturn(new Message(Message.dataToByteArray(new float[] {2.462f, 35.55f}), 0, Comm.BROADCAST_TAG, Message.TYPE_FLOAT));
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 0, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -1052,11 +1088,11 @@ public class CommTest {
 
     double[] dataRoot = { 12.32, 312.3};
     double[] dataNotRoot = { 1.23, 43.2 };
-    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.REDUCE_TAG, Message.TYPE_DOUBLE);
+    Message test = new Message(Message.dataToByteArray(dataNotRoot), 1, Comm.COLLECTIVE_TAG, Message.TYPE_DOUBLE);
 
     expect(mockGroup.Rank()).andReturn(0).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
-    expect(mockGroup.Recv(1, Comm.REDUCE_TAG)).andReturn(test);
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 1, Comm.COLLECTIVE_TAG)).andReturn(test);
     mockGroup.Send(anyObject(Message.class), eq(1));
 
     replay(mockGroup);
@@ -1077,13 +1113,12 @@ public class CommTest {
 
     double[] dataRoot = { 12.32, 31.23};
     double[] dataNotRoot = { 1.23, 4.32 };
-    Message test = new Message(Message.dataToByteArray(dataRoot), 1, Comm.REDUCE_TAG, Message.TYPE_DOUBLE);
+    Message test = new Message(Message.dataToByteArray(dataRoot), 0, Comm.COLLECTIVE_TAG, Message.TYPE_DOUBLE);
 
     expect(mockGroup.Rank()).andReturn(1).anyTimes();
     expect(mockGroup.Size()).andReturn(2).anyTimes();
     mockGroup.Send(anyObject(Message.class), eq(0));
-    expect(mockGroup.Recv(0, Comm.BROADCAST_TAG))
-      .andReturn(new Message(Message.dataToByteArray(new double[] {13.55, 35.55}), 0, Comm.BROADCAST_TAG, Message.TYPE_DOUBLE));
+    expect(mockGroup.Recv(Comm.WORLD_COLLECTIVE_CONTEXT, 0, Comm.COLLECTIVE_TAG)).andReturn(test);
 
     replay(mockGroup);
 
@@ -1098,4 +1133,788 @@ public class CommTest {
     assertArrayEquals(out, new double[] {13.55, 35.55}, 0.01);
   }
 
+  /**
+   * Checks that Isend hands the message to the group and that the
+   * request completes with the send.
+   */
+  @Test public void testIsendInt() {
+    Group mockGroup = createMock(Group.class);
+
+    FutureTask<Object> sent = new FutureTask<Object>(new Runnable() { public void run() { } }, null);
+
+    expect(mockGroup.Rank()).andReturn(0).anyTimes();
+    expect((Future) mockGroup.Isend(anyObject(Message.class), eq(1), anyObject(Runnable.class))).andReturn(sent);
+    replay(mockGroup);
+
+    Comm c = new Comm(mockGroup);
+    Request r = c.Isend(new int[] {1,2,3}, 1, 7);
+
+    assertNull(r.Test());
+
+    sent.run();
+
+    Status s = r.Wait();
+    assertEquals(7, s.getTag());
+    assertEquals(Mpi.SUCCESS, s.getError());
+
+    verify(mockGroup);
+  }
+
+  /**
+   * Checks that Irecv only completes once a matching message has
+   * arrived, and copies the data into the user array.
+   */
+  @Test public void testIrecvDouble() {
+    Group mockGroup = createMock(Group.class);
+    final MessageQueue queue = new MessageQueue();
+
+    double[] data = {1.5, 2.5, 3.5};
+    Message testMessage = new Message(Message.dataToByteArray(data), 2, 4, Message.TYPE_DOUBLE);
+
+    mockGroup.Post(isA(PostedReceive.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+        public Object answer() {
+          queue.post((PostedReceive) getCurrentArguments()[0]);
+          return null;
+        }
+      });
+    replay(mockGroup);
+
+    Comm c = new Comm(mockGroup);
+    double[] recvData = new double[3];
+    Request r = c.Irecv(recvData, 2, 4);
+
+    assertNull(r.Test());
+
+    // Delivering the message fills the posted receive
+    queue.add(testMessage);
+
+    Status s = r.Test();
+    assertNotNull(s);
+    assertEquals(2, s.getSource());
+    assertEquals(4, s.getTag());
+    assertArrayEquals(data, recvData, 0.0);
+
+    // Once complete the same status is returned without receiving again
+    assertSame(s, r.Wait());
+    assertNull(queue.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+
+    verify(mockGroup);
+  }
+
+  /**
+   * Check that an MpiException is thrown when the Irecv array is the
+   * wrong length.
+   */
+  @Test(expected=MpiException.class) public void testIrecvException() {
+    Group mockGroup = createMock(Group.class);
+    final MessageQueue queue = new MessageQueue();
+
+    queue.add(new Message(Message.dataToByteArray(new long[] {1,2,3}), 0, 0, Message.TYPE_LONG));
+
+    mockGroup.Post(isA(PostedReceive.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+        public Object answer() {
+          queue.post((PostedReceive) getCurrentArguments()[0]);
+          return null;
+        }
+      });
+    replay(mockGroup);
+
+    Comm c = new Comm(mockGroup);
+    c.Irecv(new long[2], 0, 0).Wait();
+  }
+
+
+  /**
+   * Code run by each rank in {@link #runRanks}.
+   */
+  interface RankBody {
+    void run(Comm comm) throws Exception;
+  }
+
+  /**
+   * Runs <code>body</code> on each of the communicators in its own
+   * thread, as ranks connected in this JVM, and rethrows the first
+   * failure.
+   */
+  static void runRanks(Comm[] comms, final RankBody body) throws Throwable {
+    final Throwable[] failure = new Throwable[1];
+    Thread[] threads = new Thread[comms.length];
+
+    for (int i = 0; i < comms.length; i++) {
+      final Comm comm = comms[i];
+
+      threads[i] = new Thread("rank-" + i) {
+          public void run() {
+            try {
+              body.run(comm);
+            } catch (Throwable t) {
+              synchronized (failure) {
+                if (failure[0] == null) failure[0] = t;
+              }
+            }
+          }
+        };
+      threads[i].start();
+    }
+
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+
+  /**
+   * Checks that a message sent on a duplicate doesn't match a receive
+   * on the original, and that collectives work on the duplicate.
+   */
+  @Test(timeout=10000) public void testDup() throws Throwable {
+    runRanks(MpiThreadStarter.createComms(4, 0), new RankBody() {
+        public void run(Comm world) {
+          Comm dup = world.Dup();
+
+          assertEquals(world.Size(), dup.Size());
+          assertEquals(world.Rank(), dup.Rank());
+
+          if (world.Rank() == 0) {
+            world.Send(new int[] {10}, 1, 1);
+            dup.Send(new int[] {20}, 1, 1);
+          }
+          else if (world.Rank() == 1) {
+            int[] data = new int[1];
+            dup.Recv(data, 0, 1, new Status());
+            assertEquals(20, data[0]);
+            world.Recv(data, 0, 1, new Status());
+            assertEquals(10, data[0]);
+          }
+
+          int[] sum = new int[1];
+          dup.AllReduce(new int[] {1}, sum, Mpi.SUM);
+          assertEquals(4, sum[0]);
+        }
+      });
+  }
+
+  /**
+   * Checks that Split groups processes by colour, ranks them by key,
+   * and leaves out those with an undefined colour.
+   */
+  @Test(timeout=10000) public void testSplit() throws Throwable {
+    runRanks(MpiThreadStarter.createComms(5, 0), new RankBody() {
+        public void run(Comm world) {
+          int rank = world.Rank();
+          Comm half = world.Split(rank == 4 ? Mpi.UNDEFINED : rank % 2, -rank);
+
+          if (rank == 4) {
+            assertSame(Mpi.COMM_NULL, half);
+            return;
+          }
+
+          assertEquals(2, half.Size());
+          // Higher world ranks have lower keys
+          assertEquals(rank < 2 ? 1 : 0, half.Rank());
+
+          int[] sum = new int[1];
+          half.AllReduce(new int[] {rank}, sum, Mpi.SUM);
+          assertEquals(rank % 2 == 0 ? 2 : 4, sum[0]);
+
+          // Both halves share a context, but never exchange messages
+          double[] value = {rank};
+          half.Bcast(value, 0);
+          assertEquals(rank % 2 == 0 ? 2.0 : 3.0, value[0], 0.0);
+        }
+      });
+  }
+
+  /**
+   * Checks that Create makes a communicator for the members of the
+   * group, and gives the others COMM_NULL.
+   */
+  @Test(timeout=10000) public void testCreate() throws Throwable {
+    runRanks(MpiThreadStarter.createComms(4, 0), new RankBody() {
+        public void run(Comm world) {
+          Group group = world.Group().Incl(new int[] {3, 1});
+          Comm comm = world.Create(group);
+
+          if (world.Rank() % 2 == 0) {
+            assertSame(Mpi.COMM_NULL, comm);
+            return;
+          }
+
+          assertEquals(2, comm.Size());
+          assertEquals(world.Rank() == 3 ? 0 : 1, comm.Rank());
+
+          int[] value = {world.Rank()};
+          comm.Bcast(value, 0);
+          assertEquals(3, value[0]);
+        }
+      });
+  }
+
+  /**
+   * Checks AllReduce on every size up to seven processes, for vectors
+   * on both sides of the ring threshold.
+   */
+  @Test(timeout=30000) public void testAllReduceSizes() throws Throwable {
+    final int large = 3*Comm.RING_ALLREDUCE_BYTES/8 + 5;
+
+    for (int n = 1; n <= 7; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            int[] small = new int[3];
+            comm.AllReduce(new int[] {rank, 1, -rank}, small, Mpi.SUM);
+            assertArrayEquals(new int[] {size*(size-1)/2, size, -size*(size-1)/2}, small);
+
+            double[] in = new double[large];
+            double[] out = new double[large];
+
+            for (int i = 0; i < large; i++) {
+              in[i] = rank + i;
+            }
+
+            comm.AllReduce(in, out, Mpi.SUM);
+
+            for (int i = 0; i < large; i++) {
+              assertEquals(size*(size-1)/2 + (double) size*i, out[i], 0.0);
+            }
+
+            float[] max = new float[large/2];
+            float[] fin = new float[large/2];
+            Arrays.fill(fin, rank);
+            comm.AllReduce(fin, max, Mpi.MAX);
+
+            for (float value : max) {
+              assertEquals(size - 1, value, 0.0f);
+            }
+
+            long[] product = new long[1];
+            comm.AllReduce(new long[] {rank + 1}, product, Mpi.PROD);
+            long factorial = 1;
+            for (int i = 2; i <= size; i++) factorial *= i;
+            assertEquals(factorial, product[0]);
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks that AllReduce combines operands in rank order, with an
+   * operation that appends the digits of its second operand to its
+   * first, on a vector large enough for the ring.
+   */
+  @Test(timeout=30000) public void testAllReduceOrder() throws Throwable {
+    final int large = Comm.RING_ALLREDUCE_BYTES/4;
+
+    for (int n = 1; n <= 7; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int[] in = new int[large];
+            int[] out = new int[large];
+            Arrays.fill(in, comm.Rank() + 1);
+
+            comm.AllReduce(in, out, new Append());
+
+            int expected = 0;
+            for (int i = 1; i <= size; i++) expected = expected*10 + i;
+
+            for (int value : out) {
+              assertEquals(expected, value);
+            }
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks that MaxLoc and MinLoc record the rank each result came
+   * from, at the root of a Reduce and at process 0 of an AllReduce.
+   */
+  @Test(timeout=30000) public void testReduceLocations() throws Throwable {
+    runRanks(MpiThreadStarter.createComms(5, 0), new RankBody() {
+        public void run(Comm comm) {
+          int rank = comm.Rank();
+          int[] in = {rank, -rank, (rank == 3) ? 100 : 0};
+
+          int[] max = new int[3];
+          comm.Reduce(in, max, Mpi.MAXLOC, 2);
+
+          if (rank == 2) {
+            assertArrayEquals(new int[] {4, 0, 100}, max);
+            assertArrayEquals(new int[] {4, 0, 3}, Mpi.MAXLOC.getLocArray());
+          }
+
+          double[] min = new double[2];
+          comm.AllReduce(new double[] {rank, (rank == 1) ? -1.0 : 1.0}, min, Mpi.MINLOC);
+
+          assertArrayEquals(new double[] {0.0, -1.0}, min, 0.0);
+
+          if (rank == 0) {
+            assertArrayEquals(new int[] {0, 1}, Mpi.MINLOC.getLocArray());
+          }
+        }
+      });
+  }
+
+  /**
+   * Checks the pipelined and scatter-allgather broadcasts on every
+   * size up to seven processes, from a root other than 0.
+   */
+  @Test(timeout=60000) public void testLargeBcast() throws Throwable {
+    final int pipelined = Comm.PIPELINE_BCAST_BYTES/4 + 3;
+    final int scattered = Comm.SCATTER_BCAST_BYTES/8 + 7;
+
+    for (int n = 1; n <= 7; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            // An odd segment size, so segments don't line up with elements
+            comm.SetSegmentSize(1001);
+
+            int[] ints = new int[pipelined];
+            if (rank == size - 1) {
+              for (int i = 0; i < pipelined; i++) ints[i] = i;
+            }
+
+            comm.Bcast(ints, size - 1);
+
+            for (int i = 0; i < pipelined; i++) {
+              assertEquals(i, ints[i]);
+            }
+
+            double[] doubles = new double[scattered];
+            if (rank == size / 2) {
+              for (int i = 0; i < scattered; i++) doubles[i] = -i;
+            }
+
+            comm.Bcast(doubles, size / 2);
+
+            for (int i = 0; i < scattered; i++) {
+              assertEquals(-i, doubles[i], 0.0);
+            }
+          }
+        });
+    }
+  }
+
+  @Test(expected=MpiException.class) public void testSetSegmentSize() {
+    new Comm(createMock(Group.class)).SetSegmentSize(0);
+  }
+
+  /**
+   * Checks that no process leaves a barrier before every process has
+   * entered it, on every size up to nine processes.
+   */
+  @Test(timeout=30000) public void testBarrier() throws Throwable {
+    for (int n = 1; n <= 9; n++) {
+      final int size = n;
+      final AtomicInteger entered = new AtomicInteger();
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            for (int i = 1; i <= 20; i++) {
+              entered.incrementAndGet();
+              comm.Barrier();
+              assertTrue(entered.get() >= i*size);
+            }
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks Scatter and Gather on every size up to seven processes,
+   * from each root.
+   */
+  @Test(timeout=30000) public void testScatterGather() throws Throwable {
+    for (int n = 1; n <= 7; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            for (int root = 0; root < size; root++) {
+              int[] all = new int[3*size];
+              if (rank == root) {
+                for (int i = 0; i < all.length; i++) all[i] = 100*root + i;
+              }
+
+              int[] mine = new int[3];
+              comm.Scatter(all, mine, root);
+              assertArrayEquals(new int[] {100*root + 3*rank, 100*root + 3*rank + 1, 100*root + 3*rank + 2}, mine);
+
+              double[] gathered = new double[2*size];
+              comm.Gather(new double[] {rank, -rank}, gathered, root);
+
+              if (rank == root) {
+                for (int i = 0; i < size; i++) {
+                  assertEquals(i, gathered[2*i], 0.0);
+                  assertEquals(-i, gathered[2*i + 1], 0.0);
+                }
+              }
+            }
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks Scatterv and Gatherv with a different count for each
+   * process and blocks laid out in reverse rank order with gaps.
+   */
+  @Test(timeout=30000) public void testScattervGatherv() throws Throwable {
+    for (int n = 1; n <= 7; n++) {
+      final int size = n;
+      final int[] counts = new int[size];
+      final int[] displs = new int[size];
+
+      for (int i = size - 1, offset = 0; i >= 0; offset += counts[i--] + 1) {
+        counts[i] = i;
+        displs[i] = offset;
+      }
+
+      final int length = displs[0] + 1;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+            int root = size / 2;
+
+            long[] all = null;
+            if (rank == root) {
+              all = new long[length];
+              for (int i = 0; i < length; i++) all[i] = i;
+            }
+
+            long[] mine = new long[rank];
+            comm.Scatterv(all, counts, displs, mine, root);
+
+            for (int i = 0; i < rank; i++) {
+              assertEquals(displs[rank] + i, mine[i]);
+            }
+
+            float[] gathered = (rank == root) ? new float[length] : null;
+            float[] send = new float[rank];
+            Arrays.fill(send, rank);
+            comm.Gatherv(send, gathered, counts, displs, root);
+
+            if (rank == root) {
+              for (int i = 0; i < size; i++) {
+                for (int j = 0; j < counts[i]; j++) {
+                  assertEquals(i, gathered[displs[i] + j], 0.0f);
+                }
+              }
+            }
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks Allgather and Allgatherv on every size up to eight
+   * processes, for results on both sides of the ring threshold.
+   */
+  @Test(timeout=30000) public void testAllgather() throws Throwable {
+    final int large = Comm.RING_ALLGATHER_BYTES/4;
+
+    for (int n = 1; n <= 8; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            int[] small = new int[2*size];
+            comm.Allgather(new int[] {rank, rank*rank}, small);
+
+            for (int i = 0; i < size; i++) {
+              assertEquals(i, small[2*i]);
+              assertEquals(i*i, small[2*i + 1]);
+            }
+
+            float[] send = new float[large];
+            Arrays.fill(send, rank);
+            float[] big = new float[large*size];
+            comm.Allgather(send, big);
+
+            for (int i = 0; i < big.length; i++) {
+              assertEquals(i / large, big[i], 0.0f);
+            }
+
+            // Blocks in reverse rank order, each as long as its rank
+            int[] counts = new int[size];
+            int[] displs = new int[size];
+
+            for (int i = size - 1, offset = 0; i >= 0; offset += counts[i--]) {
+              counts[i] = i;
+              displs[i] = offset;
+            }
+
+            double[] mine = new double[rank];
+            Arrays.fill(mine, rank);
+            double[] all = new double[size*(size - 1)/2];
+            comm.Allgatherv(mine, all, counts, displs);
+
+            for (int i = 0; i < size; i++) {
+              for (int j = 0; j < counts[i]; j++) {
+                assertEquals(i, all[displs[i] + j], 0.0);
+              }
+            }
+          }
+        });
+    }
+  }
+
+  @Test(expected=MpiException.class) public void testGathervBlockOutOfRange() {
+    Group mockGroup = createMock(Group.class);
+
+    expect(mockGroup.Rank()).andReturn(0).anyTimes();
+    expect(mockGroup.Size()).andReturn(1).anyTimes();
+
+    replay(mockGroup);
+
+    new Comm(mockGroup).Gatherv(new int[2], new int[3], new int[] {2}, new int[] {2}, 0);
+  }
+
+  /**
+   * Checks Alltoall on every size up to nine processes, with blocks
+   * small enough for Bruck's algorithm and large enough for the
+   * pairwise exchange.
+   */
+  @Test(timeout=30000) public void testAlltoall() throws Throwable {
+    final int large = Comm.BRUCK_ALLTOALL_BYTES/8 + 1;
+
+    for (int n = 1; n <= 9; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            // Element j of the block for process i is 1000*rank + 10*i + j
+            int[] send = new int[2*size];
+            int[] recv = new int[2*size];
+
+            for (int i = 0; i < send.length; i++) {
+              send[i] = 1000*rank + 10*(i / 2) + i % 2;
+            }
+
+            comm.Alltoall(send, recv);
+
+            for (int i = 0; i < recv.length; i++) {
+              assertEquals(1000*(i / 2) + 10*rank + i % 2, recv[i]);
+            }
+
+            double[] bigSend = new double[large*size];
+            double[] bigRecv = new double[large*size];
+
+            for (int i = 0; i < bigSend.length; i++) {
+              bigSend[i] = 1000*rank + i / large;
+            }
+
+            comm.Alltoall(bigSend, bigRecv);
+
+            for (int i = 0; i < bigRecv.length; i++) {
+              assertEquals(1000*(i / large) + rank, bigRecv[i], 0.0);
+            }
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks Alltoallv where process i sends i + j elements to process
+   * j, with the received blocks in reverse rank order.
+   */
+  @Test(timeout=30000) public void testAlltoallv() throws Throwable {
+    for (int n = 1; n <= 7; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+            int[] sendCounts = new int[size];
+            int[] recvCounts = new int[size];
+            int[] recvDispls = new int[size];
+
+            for (int i = 0; i < size; i++) {
+              sendCounts[i] = rank + i;
+              recvCounts[i] = rank + i;
+            }
+
+            for (int i = size - 1, offset = 0; i >= 0; offset += recvCounts[i--]) {
+              recvDispls[i] = offset;
+            }
+
+            int[] sendDispls = new int[size];
+
+            for (int i = 1; i < size; i++) {
+              sendDispls[i] = sendDispls[i - 1] + sendCounts[i - 1];
+            }
+
+            long[] send = new long[sendDispls[size - 1] + sendCounts[size - 1]];
+            long[] recv = new long[send.length];
+
+            for (int i = 0; i < size; i++) {
+              Arrays.fill(send, sendDispls[i], sendDispls[i] + sendCounts[i], 100*rank + i);
+            }
+
+            comm.Alltoallv(send, sendCounts, sendDispls, recv, recvCounts, recvDispls);
+
+            for (int i = 0; i < size; i++) {
+              for (int j = 0; j < recvCounts[i]; j++) {
+                assertEquals(100*i + rank, recv[recvDispls[i] + j]);
+              }
+            }
+          }
+        });
+    }
+  }
+
+  @Test(expected=MpiException.class) public void testAlltoallLengths() {
+    Group mockGroup = createMock(Group.class);
+
+    expect(mockGroup.Rank()).andReturn(0).anyTimes();
+    expect(mockGroup.Size()).andReturn(2).anyTimes();
+
+    replay(mockGroup);
+
+    new Comm(mockGroup).Alltoall(new int[3], new int[3]);
+  }
+
+  /**
+   * Checks Reduce_scatter and Reduce_scatter_block on every size up to
+   * nine processes, with a commutative and a non-commutative
+   * operation.
+   */
+  @Test(timeout=30000) public void testReduceScatter() throws Throwable {
+    for (int n = 1; n <= 9; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            // Process i's block has i % 3 elements, so some are empty
+            int[] counts = new int[size];
+            int total = 0;
+
+            for (int i = 0; i < size; i++) {
+              counts[i] = i % 3;
+              total += counts[i];
+            }
+
+            double[] send = new double[total];
+            for (int i = 0; i < total; i++) send[i] = rank + i;
+
+            double[] recv = new double[counts[rank]];
+            comm.Reduce_scatter(send, recv, counts, Mpi.SUM);
+
+            int offset = 0;
+            for (int i = 0; i < rank; i++) offset += counts[i];
+
+            for (int i = 0; i < recv.length; i++) {
+              assertEquals(size*(size-1)/2 + (double) size*(offset + i), recv[i], 0.0);
+            }
+
+            long[] block = new long[2];
+            long[] blocks = new long[2*size];
+            Arrays.fill(blocks, rank + 1);
+            comm.Reduce_scatter_block(blocks, block, Mpi.MAX);
+            assertArrayEquals(new long[] {size, size}, block);
+
+            int[] digits = new int[2*size];
+            Arrays.fill(digits, rank + 1);
+            int[] appended = new int[2];
+            comm.Reduce_scatter_block(digits, appended, new Append());
+
+            int expected = 0;
+            for (int i = 1; i <= size; i++) expected = expected*10 + i;
+
+            assertArrayEquals(new int[] {expected, expected}, appended);
+          }
+        });
+    }
+  }
+
+  /**
+   * Checks Scan and Exscan on every size up to nine processes, with a
+   * commutative and a non-commutative operation.
+   */
+  @Test(timeout=30000) public void testScan() throws Throwable {
+    for (int n = 1; n <= 9; n++) {
+      final int size = n;
+
+      runRanks(MpiThreadStarter.createComms(size, 0), new RankBody() {
+          public void run(Comm comm) {
+            int rank = comm.Rank();
+
+            long[] sums = new long[2];
+            comm.Scan(new long[] {rank, 1}, sums, Mpi.SUM);
+            assertArrayEquals(new long[] {rank*(rank+1)/2, rank + 1}, sums);
+
+            float[] before = {-1.0f};
+            comm.Exscan(new float[] {rank + 1}, before, Mpi.MAX);
+            assertEquals(rank == 0 ? -1.0f : rank, before[0], 0.0f);
+
+            int[] digits = new int[1];
+            comm.Scan(new int[] {rank + 1}, digits, new Append());
+
+            int expected = 0;
+            for (int i = 1; i <= rank + 1; i++) expected = expected*10 + i;
+            assertEquals(expected, digits[0]);
+
+            comm.Exscan(new int[] {rank + 1}, digits, new Append());
+            assertEquals(rank == 0 ? expected : expected / 10, digits[0]);
+          }
+        });
+    }
+  }
+
+  /**
+   * An associative operation that isn't commutative.
+   */
+  static class Append implements MpiOp {
+    public int[] run(ArrayList<int[]> arrays) {
+      int[] result = arrays.get(0).clone();
+
+      for (int j = 1; j < arrays.size(); j++) {
+        int[] array = arrays.get(j);
+
+        for (int i = 0; i < result.length; i++) {
+          for (int k = array[i]; k > 0; k /= 10) {
+            result[i] *= 10;
+          }
+          result[i] += array[i];
+        }
+      }
+
+      return result;
+    }
+
+    public long[] run(ArrayList<long[]> arrays) {
+      throw new UnsupportedOperationException();
+    }
+
+    public float[] run(ArrayList<float[]> arrays) {
+      throw new UnsupportedOperationException();
+    }
+
+    public double[] run(ArrayList<double[]> arrays) {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import static org.easymock.EasyMock.*;
 
 import uk.ac.warwick.java.mpi.system.Processor;
+import uk.ac.warwick.java.mpi.system.SharedMemoryNetDevice;
 import uk.ac.warwick.java.mpi.system.SimpleNetDevice;
 import uk.ac.warwick.java.mpi.system.Message;
 
@@ -100,13 +101,44 @@ public class GroupTest{
     verify(mockDevice);
   }
 
+  /**
+   * Test that messages to processes on the same host go through the
+   * local device, and all others through the network device.
+   */
+  @Test public void testSendLocal() {
+    SimpleNetDevice mockDevice = createMock(SimpleNetDevice.class);
+    SharedMemoryNetDevice mockLocalDevice = createMock(SharedMemoryNetDevice.class);
+    Message testMessage = new Message(Message.dataToByteArray(new int[] {1}), 0,0, Message.TYPE_INT);
+
+    mockDevice.Send(testMessage, "otherhost", 4444);
+    mockDevice.Send(testMessage, "thishost", 4444);
+    mockLocalDevice.Send(testMessage, "thishost", 4445);
+    replay(mockDevice, mockLocalDevice);
+
+    ArrayList<Processor> processors = new ArrayList<Processor>(3);
+    Processor p = new Processor("thishost", 4444, mockDevice);
+    p.setLocalNetDevice(mockLocalDevice);
+
+    processors.add(p);
+    processors.add(new Processor("thishost", 4445));
+    processors.add(new Processor("otherhost", 4444));
+
+    Group g = new Group(processors, p);
+
+    g.Send(testMessage, 2);
+    g.Send(testMessage, 0);
+    g.Send(testMessage, 1);
+
+    verify(mockDevice, mockLocalDevice);
+  }
+
   /**
    * Test that the group correctly receives a message.
    */
   @Test public void testRecv() {
     SimpleNetDevice mockDevice = createMock(SimpleNetDevice.class);
     Message testMessage = new Message(Message.dataToByteArray(new double[] {0.1,0.2,0.3}), 0,0, Message.TYPE_DOUBLE);
-    expect(mockDevice.Receive(0,0)).andReturn(testMessage);
+    expect(mockDevice.Receive(0,0,0)).andReturn(testMessage);
     replay(mockDevice);
 
     // Create a new arraylist with capacity 10
@@ -124,10 +156,99 @@ public class GroupTest{
     //Create the group
     Group g = new Group(processors, p);
 
-    Message m = g.Recv(0, 0);
+    Message m = g.Recv(0, 0, 0);
 
     assertEquals(m, testMessage);
 
     verify(mockDevice);
   }
+
+  /**
+   * Creates a group of six processors, of which the local one is
+   * rank 2.
+   */
+  private Group worldOfSix() {
+    ArrayList<Processor> processors = new ArrayList<Processor>(6);
+
+    for (int i = 0; i < 6; i++) {
+      processors.add(new Processor("host" + i, 1));
+    }
+
+    return new Group(processors, processors.get(2));
+  }
+
+  /**
+   * Check that Incl and Excl pick out the right members, in the right
+   * order, and that the local rank follows them.
+   */
+  @Test public void testInclExcl() {
+    Group world = worldOfSix();
+
+    Group incl = world.Incl(new int[] {4, 2, 0});
+    assertEquals(3, incl.Size());
+    assertEquals(1, incl.Rank());
+    assertSame(world.getProcessorAt(4), incl.getProcessorAt(0));
+
+    Group excl = world.Excl(new int[] {0, 1, 1});
+    assertEquals(4, excl.Size());
+    assertEquals(0, excl.Rank());
+    assertSame(world.getProcessorAt(5), excl.getProcessorAt(3));
+
+    // Groups of groups still refer to the world's processors
+    Group nested = incl.Excl(new int[] {1});
+    assertEquals(Mpi.UNDEFINED, nested.Rank());
+    assertSame(world.getProcessorAt(0), nested.getProcessorAt(1));
+  }
+
+  /**
+   * Check the set operations keep the order MPI gives them.
+   */
+  @Test public void testSetOperations() {
+    Group world = worldOfSix();
+    Group a = world.Incl(new int[] {3, 1, 5});
+    Group b = world.Incl(new int[] {5, 0, 3});
+
+    Group union = Group.Union(a, b);
+    assertArrayEquals(new int[] {3, 1, 5, 0},
+                      Group.Translate_ranks(union, new int[] {0, 1, 2, 3}, world));
+
+    Group intersection = Group.Intersection(a, b);
+    assertArrayEquals(new int[] {3, 5},
+                      Group.Translate_ranks(intersection, new int[] {0, 1}, world));
+
+    Group difference = Group.Difference(a, b);
+    assertArrayEquals(new int[] {1},
+                      Group.Translate_ranks(difference, new int[] {0}, world));
+  }
+
+  /**
+   * Check ranks are translated between groups, and that processes
+   * missing from the second group are undefined.
+   */
+  @Test public void testTranslateRanks() {
+    Group world = worldOfSix();
+    Group a = world.Incl(new int[] {3, 1, 5});
+
+    assertArrayEquals(new int[] {2, Mpi.UNDEFINED, 0},
+                      Group.Translate_ranks(world, new int[] {5, 4, 3}, a));
+  }
+
+  /**
+   * Check that Compare tells identical, similar and unequal groups apart.
+   */
+  @Test public void testCompare() {
+    Group world = worldOfSix();
+
+    assertEquals(Mpi.IDENT, Group.Compare(world.Incl(new int[] {1, 2}), world.Incl(new int[] {1, 2})));
+    assertEquals(Mpi.SIMILAR, Group.Compare(world.Incl(new int[] {1, 2}), world.Incl(new int[] {2, 1})));
+    assertEquals(Mpi.UNEQUAL, Group.Compare(world.Incl(new int[] {1, 2}), world.Incl(new int[] {1, 3})));
+    assertEquals(Mpi.UNEQUAL, Group.Compare(world.Incl(new int[] {1, 2}), world.Incl(new int[] {1})));
+  }
+
+  /**
+   * Check that a rank outside the group is rejected.
+   */
+  @Test(expected=MpiException.class) public void testInclOutOfRange() {
+    worldOfSix().Incl(new int[] {6});
+  }
 }
@@ -0,0 +1,117 @@
+package uk.ac.warwick.java.mpi;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Request class
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class RequestTest {
+
+  /**
+   * A request that completes once <code>ready_</code> is set.
+   */
+  class TestRequest extends Request {
+    volatile boolean ready_ = false;
+    int tag_;
+
+    TestRequest(int tag) {
+      tag_ = tag;
+    }
+
+    protected Status complete() {
+      ready_ = true;
+      return new Status(0, tag_, Mpi.SUCCESS);
+    }
+
+    protected Status tryComplete() {
+      return ready_ ? complete() : null;
+    }
+
+    void finish() {
+      ready_ = true;
+      signalComplete();
+    }
+  }
+
+  /**
+   * Tests that Waitall returns the statuses in order.
+   */
+  @Test public void testWaitall() {
+    Request[] requests = { new TestRequest(0), null, new TestRequest(2) };
+
+    Status[] statuses = Request.Waitall(requests);
+
+    assertEquals(0, statuses[0].getTag());
+    assertNull(statuses[1]);
+    assertEquals(2, statuses[2].getTag());
+  }
+
+  /**
+   * Tests that Waitany returns a completed request with its index,
+   * and removes it from the array.
+   */
+  @Test public void testWaitany() {
+    TestRequest ready = new TestRequest(1);
+    ready.ready_ = true;
+    Request[] requests = { new TestRequest(0), ready };
+
+    Status s = Request.Waitany(requests);
+
+    assertEquals(1, s.getIndex());
+    assertEquals(1, s.getTag());
+    assertNull(requests[1]);
+    assertNotNull(requests[0]);
+
+    assertNull(Request.Waitany(new Request[] { null }));
+  }
+
+  /**
+   * Tests that Waitany sleeps until a request is completed by
+   * another thread.
+   */
+  @Test public void testWaitanyBlocks() throws InterruptedException {
+    final TestRequest later = new TestRequest(1);
+    Request[] requests = { new TestRequest(0), later };
+
+    Thread finisher = new Thread() {
+        public void run() {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException interruptedException) {
+            return;
+          }
+          later.finish();
+        }
+      };
+    finisher.start();
+
+    Status s = Request.Waitany(requests);
+    finisher.join();
+
+    assertEquals(1, s.getIndex());
+    assertNull(requests[1]);
+    assertNotNull(requests[0]);
+  }
+
+  /**
+   * Tests that Testsome returns only the completed requests.
+   */
+  @Test public void testTestsome() {
+    TestRequest ready = new TestRequest(2);
+    ready.ready_ = true;
+    Request[] requests = { new TestRequest(0), new TestRequest(1), ready };
+
+    Status[] statuses = Request.Testsome(requests);
+
+    assertEquals(1, statuses.length);
+    assertEquals(2, statuses[0].getIndex());
+    assertNull(requests[2]);
+
+    assertEquals(0, Request.Testsome(requests).length);
+  }
+}
@@ -0,0 +1,58 @@
+package uk.ac.warwick.java.mpi;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+
+/**
+ * Tests the ThreadBoundComm class.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class ThreadBoundCommTest {
+  /**
+   * Checks that every public method of Comm is overridden, so none
+   * of them run against the unbound communicator itself.
+   */
+  @Test public void testOverridesAll() {
+    for (Method method : Comm.class.getDeclaredMethods()) {
+      if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())) continue;
+
+      try {
+        ThreadBoundComm.class.getDeclaredMethod(method.getName(), method.getParameterTypes());
+      } catch (NoSuchMethodException noSuchMethodException) {
+        fail("ThreadBoundComm doesn't override " + method);
+      }
+    }
+  }
+
+  /**
+   * Checks that using the communicator from a thread it isn't bound on
+   * fails.
+   */
+  @Test(expected=MpiException.class) public void testUnbound() {
+    new ThreadBoundComm().Rank();
+  }
+
+  /**
+   * Checks that calls go to the communicator bound on this thread.
+   */
+  @Test public void testBind() {
+    ThreadBoundComm comm = new ThreadBoundComm();
+    Comm bound = new Comm((Group) null) {
+        public int Rank() {
+          return 3;
+        }
+      };
+
+    comm.bind(bound);
+    assertEquals(3, comm.Rank());
+
+    comm.unbind();
+  }
+}
@@ -5,7 +5,9 @@ package uk.ac.warwick.java.mpi.op;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
 import uk.ac.warwick.java.mpi.MpiOp;
 
 /**
@@ -82,4 +84,67 @@ public class MaxTest  {
     assertArrayEquals("Checking double arrays", new double[] {54.67, -0.4545, 1.1}, result, 0.1);
   }
 
+  /**
+   * Tests accumulating <code>int</code>s in place, from an offset.
+   */
+  @Test public void testAccumulateInt() {
+    AccumulatingOp op = new Max();
+    int[] inout = {5, 1, 2, 7};
+
+    op.accumulate(inout, new int[] {3, -4}, 1, 2);
+
+    assertArrayEquals(new int[] {5, 3, 2, 7}, inout);
+  }
+
+  /**
+   * Tests accumulating <code>double</code>s read from a buffer.
+   */
+  @Test public void testAccumulateBuffer() {
+    AccumulatingOp op = new Max();
+    double[] inout = {1.5, 2.0, 3.0};
+    ByteBuffer in = ByteBuffer.allocate(24);
+    in.putDouble(99.0);
+    in.asDoubleBuffer().put(new double[] {0.5, 4.0});
+    in.position(8);
+
+    op.accumulate(inout, in, 1, 2);
+
+    assertArrayEquals(new double[] {1.5, 2.0, 4.0}, inout, 0.0);
+    assertEquals(8, in.position());
+  }
+
+  /**
+   * Tests the maximum of three arrays of negative <code>int</code>s.
+   */
+  @Test public void testNegative() {
+    MpiOp max = new Max();
+
+    ArrayList<int[]> list = new ArrayList<int[]>();
+    list.add(new int[] {-5, -9, Integer.MIN_VALUE});
+    list.add(new int[] {-7, -2, Integer.MIN_VALUE});
+    list.add(new int[] {-6, -3, Integer.MIN_VALUE});
+
+    assertArrayEquals(new int[] {-5, -2, Integer.MIN_VALUE}, max.run(list));
+  }
+
+  /**
+   * Tests that a NaN in any operand gives NaN in the maximum, whatever
+   * the order of the operands.
+   */
+  @Test public void testNaN() {
+    MpiOp max = new Max();
+
+    ArrayList<double[]> list = new ArrayList<double[]>();
+    list.add(new double[] {Double.NaN, 1.0});
+    list.add(new double[] {2.0, Double.NaN});
+
+    double[] result = max.run(list);
+    assertTrue(Double.isNaN(result[0]));
+    assertTrue(Double.isNaN(result[1]));
+
+    float[] inout = {1.0f, Float.NaN};
+    ((AccumulatingOp) max).accumulate(inout, new float[] {Float.NaN, 2.0f}, 0, 2);
+    assertTrue(Float.isNaN(inout[0]));
+    assertTrue(Float.isNaN(inout[1]));
+  }
 }
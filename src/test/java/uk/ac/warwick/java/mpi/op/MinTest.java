@@ -5,7 +5,9 @@ package uk.ac.warwick.java.mpi.op;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
 import uk.ac.warwick.java.mpi.MpiOp;
 
 /**
@@ -81,4 +83,53 @@ public class MinTest  {
     assertArrayEquals(new double[] {3.14, -0.4545, 1.1}, result, 0.1);
   }
 
+  /**
+   * Tests accumulating <code>int</code>s in place, from an offset.
+   */
+  @Test public void testAccumulateInt() {
+    AccumulatingOp op = new Min();
+    int[] inout = {5, 1, 2, 7};
+
+    op.accumulate(inout, new int[] {3, -4}, 1, 2);
+
+    assertArrayEquals(new int[] {5, 1, -4, 7}, inout);
+  }
+
+  /**
+   * Tests accumulating <code>double</code>s read from a buffer.
+   */
+  @Test public void testAccumulateBuffer() {
+    AccumulatingOp op = new Min();
+    double[] inout = {1.5, 2.0, 3.0};
+    ByteBuffer in = ByteBuffer.allocate(24);
+    in.putDouble(99.0);
+    in.asDoubleBuffer().put(new double[] {0.5, 4.0});
+    in.position(8);
+
+    op.accumulate(inout, in, 1, 2);
+
+    assertArrayEquals(new double[] {1.5, 0.5, 3.0}, inout, 0.0);
+    assertEquals(8, in.position());
+  }
+
+  /**
+   * Tests that a NaN in any operand gives NaN in the minimum, whatever
+   * the order of the operands.
+   */
+  @Test public void testNaN() {
+    MpiOp min = new Min();
+
+    ArrayList<double[]> list = new ArrayList<double[]>();
+    list.add(new double[] {Double.NaN, 1.0});
+    list.add(new double[] {2.0, Double.NaN});
+
+    double[] result = min.run(list);
+    assertTrue(Double.isNaN(result[0]));
+    assertTrue(Double.isNaN(result[1]));
+
+    float[] inout = {1.0f, Float.NaN};
+    ((AccumulatingOp) min).accumulate(inout, new float[] {Float.NaN, 2.0f}, 0, 2);
+    assertTrue(Float.isNaN(inout[0]));
+    assertTrue(Float.isNaN(inout[1]));
+  }
 }
@@ -5,7 +5,9 @@ package uk.ac.warwick.java.mpi.op;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
 import uk.ac.warwick.java.mpi.MpiOp;
 
 /**
@@ -75,4 +77,32 @@ public class ProdTest  {
     assertArrayEquals(new double[] {3.8622, -0.49995, 3.52, 0.000294}, result, 0.1);
   }
 
+  /**
+   * Tests accumulating <code>int</code>s in place, from an offset.
+   */
+  @Test public void testAccumulateInt() {
+    AccumulatingOp op = new Prod();
+    int[] inout = {5, 1, 2, 7};
+
+    op.accumulate(inout, new int[] {3, -4}, 1, 2);
+
+    assertArrayEquals(new int[] {5, 3, -8, 7}, inout);
+  }
+
+  /**
+   * Tests accumulating <code>double</code>s read from a buffer.
+   */
+  @Test public void testAccumulateBuffer() {
+    AccumulatingOp op = new Prod();
+    double[] inout = {1.5, 2.0, 3.0};
+    ByteBuffer in = ByteBuffer.allocate(24);
+    in.putDouble(99.0);
+    in.asDoubleBuffer().put(new double[] {0.5, 2.0});
+    in.position(8);
+
+    op.accumulate(inout, in, 1, 2);
+
+    assertArrayEquals(new double[] {1.5, 1.0, 6.0}, inout, 0.0);
+    assertEquals(8, in.position());
+  }
 }
@@ -5,7 +5,9 @@ package uk.ac.warwick.java.mpi.op;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import uk.ac.warwick.java.mpi.AccumulatingOp;
 import uk.ac.warwick.java.mpi.MpiOp;
 
 /**
@@ -86,4 +88,49 @@ public class SumTest  {
 
     assertArrayEquals(new int[] {-1,-1,-1,-1}, result);
   }
+
+  /**
+   * Tests accumulating <code>int</code>s in place, from an offset.
+   */
+  @Test public void testAccumulateInt() {
+    AccumulatingOp op = new Sum();
+    int[] inout = {5, 1, 2, 7};
+
+    op.accumulate(inout, new int[] {3, -4}, 1, 2);
+
+    assertArrayEquals(new int[] {5, 4, -2, 7}, inout);
+  }
+
+  /**
+   * Tests accumulating <code>double</code>s read from a buffer.
+   */
+  @Test public void testAccumulateBuffer() {
+    AccumulatingOp op = new Sum();
+    double[] inout = {1.5, 2.0, 3.0};
+    ByteBuffer in = ByteBuffer.allocate(24);
+    in.putDouble(99.0);
+    in.asDoubleBuffer().put(new double[] {0.5, 1.0});
+    in.position(8);
+
+    op.accumulate(inout, in, 1, 2);
+
+    assertArrayEquals(new double[] {1.5, 2.5, 4.0}, inout, 0.0);
+    assertEquals(8, in.position());
+  }
+
+  /**
+   * Tests that a single operand gives a copy of itself.
+   */
+  @Test public void testSingle() {
+    MpiOp sum = new Sum();
+    long[] operand = {3L, -4L};
+
+    ArrayList<long[]> list = new ArrayList<long[]>();
+    list.add(operand);
+
+    long[] result = sum.run(list);
+
+    assertArrayEquals(operand, result);
+    assertNotSame(operand, result);
+  }
 }
@@ -0,0 +1,107 @@
+package uk.ac.warwick.java.mpi.system;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for BufferPool class
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class BufferPoolTest {
+
+  /**
+   * Tests that buffers are rounded up to a power-of-two size class.
+   */
+  @Test public void testSizeClasses() {
+    assertEquals(BufferPool.MIN_SIZE, BufferPool.acquire(0).length);
+    assertEquals(BufferPool.MIN_SIZE, BufferPool.acquire(BufferPool.MIN_SIZE).length);
+    assertEquals(2*BufferPool.MIN_SIZE, BufferPool.acquire(BufferPool.MIN_SIZE + 1).length);
+    assertEquals(8192, BufferPool.acquire(5000).length);
+  }
+
+  /**
+   * Tests that a released buffer is handed out again.
+   */
+  @Test public void testReuse() {
+    byte[] buffer = BufferPool.acquire(3000);
+    BufferPool.release(buffer);
+
+    assertSame(buffer, BufferPool.acquire(4096));
+  }
+
+  /**
+   * Tests that arrays which are not a size class long are not pooled.
+   */
+  @Test public void testForeignArray() {
+    byte[] odd = new byte[3000];
+    BufferPool.release(odd);
+
+    assertNotSame(odd, BufferPool.acquire(3000));
+  }
+
+  /**
+   * Tests that arrays larger than the largest size class are not
+   * pooled, even if their length is a power of two.
+   */
+  @Test public void testOversizedArray() {
+    byte[] large = new byte[2*BufferPool.MAX_SIZE];
+    BufferPool.release(large);
+
+    assertNotSame(large, BufferPool.acquire(large.length));
+  }
+
+  /**
+   * Tests that a buffer released on one thread can be reused on
+   * another once the releasing thread's own cache is full.
+   */
+  @Test public void testSharedPool() throws InterruptedException {
+    final byte[][] released = new byte[8][];
+
+    Thread releaser = new Thread() {
+        public void run() {
+          for (int i = 0; i < released.length; i++) {
+            released[i] = new byte[1 << 20];
+            BufferPool.release(released[i]);
+          }
+        }
+      };
+    releaser.start();
+    releaser.join();
+
+    byte[] buffer = BufferPool.acquire(1 << 20);
+    boolean found = false;
+
+    for (byte[] b : released) {
+      if (b == buffer) found = true;
+    }
+
+    assertTrue(found);
+  }
+
+  /**
+   * Tests that a pooled message only exposes its own data, and that
+   * the data round trips through the frame format.
+   */
+  @Test public void testPooledMessage() {
+    double[] data = {1.5, 2.5, 3.5};
+    Message m = Message.create(data, 2, 3);
+
+    assertEquals(24, m.getDataLength());
+    assertArrayEquals(data, m.dataToPrimitiveDouble(), 0.0);
+
+    byte[] frame = m.toByteArray();
+    assertEquals(Message.HEADER_LENGTH + 24, frame.length);
+
+    Message back = new Message(frame);
+    assertEquals(2, back.getSource());
+    assertEquals(3, back.getTag());
+    assertEquals(Message.TYPE_DOUBLE, back.getType());
+    assertArrayEquals(data, back.dataToPrimitiveDouble(), 0.0);
+
+    m.release();
+    back.release();
+  }
+}
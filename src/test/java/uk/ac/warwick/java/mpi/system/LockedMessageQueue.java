@@ -0,0 +1,333 @@
+package uk.ac.warwick.java.mpi.system;
+
+import java.util.HashMap;
+
+import uk.ac.warwick.java.mpi.Mpi;
+import uk.ac.warwick.java.mpi.MpiException;
+
+import static uk.ac.warwick.java.mpi.Mpi.DEBUG_MODE;
+
+/**
+ * The {@link MessageQueue} as it was before deliveries stopped taking
+ * its lock, kept as the baseline for {@link MessageQueueBenchmark}.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+class LockedMessageQueue {
+
+  /** Links of the list of every message in arrival order. */
+  private static final int ARRIVAL = 0;
+  /** Links of the list of messages with the same source and tag. */
+  private static final int BY_KEY = 1;
+  /** Links of the list of messages with the same source. */
+  private static final int BY_SOURCE = 2;
+  /** Links of the list of messages with the same tag. */
+  private static final int BY_TAG = 3;
+
+  private static final int LISTS = 4;
+
+  private Chain arrivals_ = new Chain(ARRIVAL);
+  protected HashMap<MessageKeyTuple, Chain> messageMap_;
+  private HashMap<Integer, Chain> bySource_;
+  private HashMap<Integer, Chain> byTag_;
+
+  /** Incremented on every add, so receivers can spin without taking the lock. */
+  private volatile int arrivalCount_ = 0;
+  /** The number of receivers waiting in <code>take</code>. */
+  private int waiters_ = 0;
+  /** How many times <code>take</code> spins before it waits. */
+  private int spinLimit_;
+
+  /**
+   * Create a new, empty <code>MessageQueue</code>.
+   */
+  public LockedMessageQueue() {
+    this(0);
+  }
+
+  /**
+   * Create a new, empty <code>MessageQueue</code> whose receivers spin
+   * for a while before waiting.
+   *
+   * @param spinLimit The number of times <code>take</code> checks for
+   * new arrivals before waiting, 0 to wait straight away.
+   */
+  public LockedMessageQueue(int spinLimit) {
+    if (DEBUG_MODE) {
+      System.err.println("MessageQueue: \tCreating new HashMap");
+    }
+    messageMap_ = new HashMap<MessageKeyTuple, Chain>();
+    bySource_ = new HashMap<Integer, Chain>();
+    byTag_ = new HashMap<Integer, Chain>();
+    spinLimit_ = spinLimit;
+  }
+
+  /**
+   * A queued message, with its links in each of the lists it is on.
+   */
+  private static class Entry {
+    Message message_;
+    Entry[] prev_ = new Entry[LISTS];
+    Entry[] next_ = new Entry[LISTS];
+    Chain[] chains_ = new Chain[LISTS];
+
+    Entry(Message message) {
+      message_ = message;
+    }
+  }
+
+  /**
+   * A list of entries in arrival order, using one set of their links.
+   */
+  private static class Chain {
+    final int link_;
+    Entry head_;
+    Entry tail_;
+
+    Chain(int link) {
+      link_ = link;
+    }
+
+    void append(Entry e) {
+      e.chains_[link_] = this;
+      e.prev_[link_] = tail_;
+
+      if (tail_ == null) head_ = e;
+      else tail_.next_[link_] = e;
+
+      tail_ = e;
+    }
+
+    void unlink(Entry e) {
+      Entry prev = e.prev_[link_];
+      Entry next = e.next_[link_];
+
+      if (prev == null) head_ = next;
+      else prev.next_[link_] = next;
+
+      if (next == null) tail_ = prev;
+      else next.prev_[link_] = prev;
+
+      e.prev_[link_] = null;
+      e.next_[link_] = null;
+      e.chains_[link_] = null;
+    }
+
+    boolean isEmpty() {
+      return head_ == null;
+    }
+  }
+
+  /**
+   * Add a {@link uk.ac.warwick.java.mpi.system.Message} to the queue.
+   *
+   * @param message The <code>Message</code> to be added.
+   */
+  public synchronized void add(Message message) {
+    if (DEBUG_MODE) {
+      System.err.println("MessageQueue: \tAdding new message with tag:" + message.getTag() + "and source: " + message.getSource() );
+    }
+
+    Entry e = new Entry(message);
+    MessageKeyTuple key = new MessageKeyTuple(message.getSource(), message.getTag());
+
+    // If there is no list already associated with a key then we need to create one
+    Chain byKey = messageMap_.get(key);
+    if (byKey == null) {
+      byKey = new Chain(BY_KEY);
+      messageMap_.put(key, byKey);
+    }
+
+    Chain bySource = bySource_.get(message.getSource());
+    if (bySource == null) {
+      bySource = new Chain(BY_SOURCE);
+      bySource_.put(message.getSource(), bySource);
+    }
+
+    Chain byTag = byTag_.get(message.getTag());
+    if (byTag == null) {
+      byTag = new Chain(BY_TAG);
+      byTag_.put(message.getTag(), byTag);
+    }
+
+    arrivals_.append(e);
+    byKey.append(e);
+    bySource.append(e);
+    byTag.append(e);
+
+    arrivalCount_++;
+
+    if (waiters_ > 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Return the <code>Message</code> with the specified source and tag,
+   * waiting until one arrives.
+   *
+   * <p> The receiver first spins on the arrival count, without taking
+   * the lock, for up to the spin limit given at construction. After
+   * that it waits, and is woken by <code>add</code>.
+   *
+   * @return <code>Message</code> with <code>source</code> and <code>tag</code>.
+   */
+  public Message take(int source, int tag) {
+    int seen = arrivalCount_;
+    Message m = get(source, tag);
+
+    for (int spin = 0; m == null && spin < spinLimit_; spin++) {
+      if (arrivalCount_ != seen) {
+        seen = arrivalCount_;
+        m = get(source, tag);
+      }
+    }
+
+    if (m != null) return m;
+
+    synchronized (this) {
+      waiters_++;
+
+      try {
+        m = get(source, tag);
+
+        while (m == null) {
+          wait();
+          m = get(source, tag);
+        }
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new MpiException("Interrupted while waiting for a message");
+      } finally {
+        waiters_--;
+      }
+    }
+
+    return m;
+  }
+
+  /**
+   * Return the <code>Message</code> with the specified source and tag.
+   *
+   * <p> Of the messages that match, the one that arrived first is
+   * returned, whether or not either is a wildcard.
+   *
+   * @return <code>Message</code> with <code>source</code> and <code>tag</code>.
+   */
+  public synchronized Message get(int source, int tag) {
+    if (DEBUG_MODE) {
+      System.err.println("MessageQueue: \tSearching for message with tag: " + tag + " and source: " + source);
+    }
+
+    Chain chain;
+
+    if (source != Mpi.ANY_SOURCE && tag != Mpi.ANY_TAG) {
+      chain = messageMap_.get(new MessageKeyTuple(source, tag));
+    }
+    else if (source == Mpi.ANY_SOURCE && tag != Mpi.ANY_TAG) {
+      chain = byTag_.get(tag);
+    }
+    else if (source != Mpi.ANY_SOURCE && tag == Mpi.ANY_TAG) {
+      chain = bySource_.get(source);
+    }
+    else {
+      chain = arrivals_;
+    }
+
+    if (chain == null || chain.isEmpty()) return null;
+
+    return remove(chain.head_);
+  }
+
+  /**
+   * Takes an entry off every list it is on, dropping any list that is
+   * left empty.
+   */
+  private Message remove(Entry e) {
+    Message m = e.message_;
+
+    arrivals_.unlink(e);
+
+    Chain byKey = e.chains_[BY_KEY];
+    byKey.unlink(e);
+    if (byKey.isEmpty()) messageMap_.remove(new MessageKeyTuple(m.getSource(), m.getTag()));
+
+    Chain bySource = e.chains_[BY_SOURCE];
+    bySource.unlink(e);
+    if (bySource.isEmpty()) bySource_.remove(m.getSource());
+
+    Chain byTag = e.chains_[BY_TAG];
+    byTag.unlink(e);
+    if (byTag.isEmpty()) byTag_.remove(m.getTag());
+
+    return m;
+  }
+
+  /**
+   * @return The number of (source, tag) pairs with messages waiting.
+   */
+  synchronized int keyCount() {
+    return messageMap_.size();
+  }
+
+  /**
+   * Class representing a (source,tag) tuple that is used as a key in
+   * the hashmap of <code>Message</code>s.
+   */
+  class MessageKeyTuple {
+    private int source_;
+    private int tag_;
+
+    public MessageKeyTuple(int source, int tag) {
+      source_ = source;
+      tag_ = tag;
+    }
+
+    /**
+     * Get the source of this tuple.
+     *
+     * @return The <code>int</code> source of this tuple.
+     */
+    public int getSource() {
+      return source_;
+    }
+
+    /**
+     * Get the tag of this tuple.
+     *
+     * @return The <code>int</code> tag of this tuple.
+     */
+    public int getTag() {
+      return tag_;
+    }
+
+    /**
+     * Check whether two objects are equal.
+     *
+     * <p> Two <code>MessageKeyTuple</code>s are equal if they have the same
+     * source and the same tag.
+     *
+     * @param o The <code>Object</code> to check.
+     * @return True is the <code>Objects</code> are equal, false otherwise.
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof MessageKeyTuple)) {
+        return false;
+      }
+      MessageKeyTuple m = (MessageKeyTuple) o;
+      return m.getTag() == tag_ && m.getSource() == source_;
+    }
+
+
+    @Override
+    public int hashCode() {
+      int result = 17;
+      result = 31 * result + tag_;
+      result = 31 * result + source_;
+      return result;
+    }
+  }
+} // LockedMessageQueue
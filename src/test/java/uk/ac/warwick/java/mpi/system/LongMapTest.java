@@ -0,0 +1,53 @@
+package uk.ac.warwick.java.mpi.system;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit tests for the LongMap class.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class LongMapTest {
+  /**
+   * Tests that values can be put, found and replaced.
+   */
+  @Test public void testPutGet() {
+    LongMap<String> map = new LongMap<String>();
+
+    map.put(1L << 32, "a");
+    map.put(-5L, "b");
+    map.put(-5L, "c");
+
+    assertEquals("a", map.get(1L << 32));
+    assertEquals("c", map.get(-5L));
+    assertEquals(null, map.get(0L));
+    assertEquals(2, map.size());
+  }
+
+  /**
+   * Tests that removing keys, while others come and go, never loses
+   * the keys that remain.
+   */
+  @Test public void testRemove() {
+    LongMap<Long> map = new LongMap<Long>();
+
+    for (long i = 0; i < 10000; i++) {
+      map.put(i, i);
+
+      if (i >= 10) {
+        map.remove(i - 10);
+      }
+
+      for (long j = Math.max(0, i - 9); j <= i; j++) {
+        assertEquals(Long.valueOf(j), map.get(j));
+      }
+    }
+
+    assertEquals(10, map.size());
+    assertEquals(null, map.get(0L));
+  }
+}
@@ -0,0 +1,148 @@
+package uk.ac.warwick.java.mpi.system;
+
+import uk.ac.warwick.java.mpi.Mpi;
+
+
+/**
+ * Compares the throughput of {@link MessageQueue} with that of
+ * {@link LockedMessageQueue}, with 1, 4 and 16 threads delivering
+ * messages while one thread receives them.
+ *
+ * <p> Not run as part of the tests. Run it with:
+ *
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *       uk.ac.warwick.java.mpi.system.MessageQueueBenchmark
+ * </pre>
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class MessageQueueBenchmark {
+
+  static final int MESSAGES = 1 << 20;
+  static final int WARMUP = 5;
+  static final int ROUNDS = 10;
+
+  /**
+   * The operations the benchmark needs, so both queues can be driven
+   * by the same code.
+   */
+  interface Queue {
+    void add(Message message);
+    Message take(int source, int tag);
+  }
+
+  static Queue current() {
+    final MessageQueue q = new MessageQueue();
+
+    return new Queue() {
+      public void add(Message message) {
+        q.add(message);
+      }
+
+      public Message take(int source, int tag) {
+        return q.take(0, source, tag);
+      }
+    };
+  }
+
+  static Queue locked() {
+    final LockedMessageQueue q = new LockedMessageQueue();
+
+    return new Queue() {
+      public void add(Message message) {
+        q.add(message);
+      }
+
+      public Message take(int source, int tag) {
+        return q.take(source, tag);
+      }
+    };
+  }
+
+  /**
+   * Passes <code>MESSAGES</code> messages through the queue from
+   * <code>producers</code> threads, alternately receiving with
+   * wildcards and with an exact source and tag.
+   *
+   * @return The time taken in nanoseconds.
+   */
+  static long run(final Queue q, final int producers) throws InterruptedException {
+    final int each = MESSAGES / producers;
+    final Message[][] messages = new Message[producers][each];
+
+    for (int p = 0; p < producers; p++) {
+      for (int i = 0; i < each; i++) {
+        messages[p][i] = new Message(new byte[8], p, i % 8, Message.TYPE_INT);
+      }
+    }
+
+    Thread[] threads = new Thread[producers];
+
+    for (int p = 0; p < producers; p++) {
+      final int source = p;
+
+      threads[p] = new Thread() {
+          public void run() {
+            for (Message m : messages[source]) {
+              q.add(m);
+            }
+          }
+        };
+    }
+
+    long start = System.nanoTime();
+
+    for (Thread t : threads) {
+      t.start();
+    }
+
+    int[] taken = new int[producers];
+
+    for (int i = 0; i < each * producers; i++) {
+      if ((i & 1) == 0) {
+        Message m = q.take(Mpi.ANY_SOURCE, Mpi.ANY_TAG);
+        taken[m.getSource()]++;
+      }
+      else {
+        // The next message from the source with most left
+        int source = 0;
+
+        for (int p = 1; p < producers; p++) {
+          if (taken[p] < taken[source]) source = p;
+        }
+
+        q.take(source, taken[source]++ % 8);
+      }
+    }
+
+    long time = System.nanoTime() - start;
+
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    return time;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    for (int producers : new int[] {1, 4, 16}) {
+      for (String name : new String[] {"locked", "current"}) {
+        long best = Long.MAX_VALUE;
+
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+          Queue q = name.equals("current") ? current() : locked();
+          long time = run(q, producers);
+
+          if (round >= WARMUP) best = Math.min(best, time);
+        }
+
+        System.out.format("%-8s %2d producers: %6.1f ns/message%n",
+                          name, producers, (double) best / MESSAGES);
+      }
+    }
+  }
+}
@@ -3,6 +3,7 @@ package uk.ac.warwick.java.mpi.system;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.concurrent.CountDownLatch;
 
 import uk.ac.warwick.java.mpi.Mpi;
 
@@ -24,7 +25,7 @@ public class MessageQueueTest{
 
     queue.add(m);
 
-    assertEquals(queue.get(0,0), m);
+    assertEquals(queue.get(0, 0,0), m);
   }
 
   /**
@@ -37,7 +38,7 @@ public class MessageQueueTest{
 
     q.add(m);
 
-    assertEquals(q.get(Mpi.ANY_SOURCE,0), m);
+    assertEquals(q.get(0, Mpi.ANY_SOURCE,0), m);
 
   }
 
@@ -50,7 +51,7 @@ public class MessageQueueTest{
     Message m = new Message(Message.dataToByteArray(new int[] {1,2,3,4,5,6,7,8}), 0, 0, Message.TYPE_INT);
 
     q.add(m);
-    assertEquals(q.get(Mpi.ANY_SOURCE, Mpi.ANY_TAG), m);
+    assertEquals(q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG), m);
   }
 
   /**
@@ -62,7 +63,7 @@ public class MessageQueueTest{
     Message m = new Message(Message.dataToByteArray(new int[] {1,2,3,4,5,6,7,8}), 0, 0, Message.TYPE_INT);
 
     q.add(m);
-    assertEquals(q.get(0,Mpi.ANY_TAG), m);
+    assertEquals(q.get(0, 0,Mpi.ANY_TAG), m);
   }
 
   /**
@@ -74,25 +75,247 @@ public class MessageQueueTest{
     Message m = new Message(Message.dataToByteArray(new int[] {1,2,3,4,5,6,7,8}), 0, 0, Message.TYPE_INT);
 
     q.add(m);
-    assertEquals(q.get(1,Mpi.ANY_TAG), null);
-    assertEquals(q.get(Mpi.ANY_SOURCE,1), null);
+    assertEquals(q.get(0, 1,Mpi.ANY_TAG), null);
+    assertEquals(q.get(0, Mpi.ANY_SOURCE,1), null);
   }
 
   /**
-   * Tests the <code>equals</code> method of the <code>MessageKeyTuple</code> object.
-   *
-   *<p> The equals method matches the source and the tag if the object
-   *is a <code>MessageKeyTuple</code>, otherwise it returns false.
+   * Tests that <code>take</code> returns a message that is already
+   * queued without waiting.
    */
-  @Test public void testTupleEquals() {
+  @Test public void testTakeQueued() {
     MessageQueue q = new MessageQueue();
 
-    MessageQueue.MessageKeyTuple tuple = q.new MessageKeyTuple(0,1);
-    assertFalse(tuple.equals(new int[] {5,4,3}));
-    assertFalse(tuple.equals(q.new MessageKeyTuple(1,1)));
-    assertFalse(tuple.equals(q.new MessageKeyTuple(0,0)));
-    assertFalse(tuple.equals(q.new MessageKeyTuple(1,0)));
+    Message m = new Message(Message.dataToByteArray(new int[] {1,2,3,4,5,6,7,8}), 0, 0, Message.TYPE_INT);
+
+    q.add(m);
+    assertEquals(q.take(0, Mpi.ANY_SOURCE, 0), m);
+  }
+
+  /**
+   * Tests that a receiver blocked in <code>take</code> is woken by a
+   * matching <code>add</code>, and not by one that doesn't match.
+   */
+  @Test(timeout=5000) public void testTakeWaits() throws InterruptedException {
+    for (int spin : new int[] {0, 1000}) {
+      final MessageQueue q = new MessageQueue(spin);
+      final Message[] taken = new Message[1];
+
+      Thread receiver = new Thread() {
+          public void run() {
+            taken[0] = q.take(0, 1, 2);
+          }
+        };
+      receiver.start();
+
+      Message other = new Message(Message.dataToByteArray(new int[] {1}), 1, 3, Message.TYPE_INT);
+      Message m = new Message(Message.dataToByteArray(new int[] {2}), 1, 2, Message.TYPE_INT);
+
+      q.add(other);
+      Thread.sleep(50);
+      assertTrue(receiver.isAlive());
+
+      q.add(m);
+      receiver.join();
+
+      assertEquals(m, taken[0]);
+      assertEquals(other, q.get(0, 1, 3));
+    }
+  }
+
+  /**
+   * Tests that wildcard gets return the oldest matching message, and
+   * that taking a message off through one wildcard takes it off the
+   * others.
+   */
+  @Test public void testWildcardOrder() {
+    MessageQueue q = new MessageQueue();
+
+    Message a = new Message(Message.dataToByteArray(new int[] {1}), 1, 5, Message.TYPE_INT);
+    Message b = new Message(Message.dataToByteArray(new int[] {2}), 0, 5, Message.TYPE_INT);
+    Message c = new Message(Message.dataToByteArray(new int[] {3}), 1, 6, Message.TYPE_INT);
+    Message d = new Message(Message.dataToByteArray(new int[] {4}), 0, 6, Message.TYPE_INT);
+
+    q.add(a);
+    q.add(b);
+    q.add(c);
+    q.add(d);
+
+    assertEquals(a, q.get(0, Mpi.ANY_SOURCE, 5));
+    assertEquals(c, q.get(0, 1, Mpi.ANY_TAG));
+    assertEquals(b, q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+    assertEquals(null, q.get(0, Mpi.ANY_SOURCE, 5));
+    assertEquals(d, q.get(0, 0, Mpi.ANY_TAG));
+    assertEquals(null, q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+  }
+
+  /**
+   * Tests that a (source, tag) pair is forgotten once its messages
+   * have all been taken.
+   */
+  @Test public void testDrainedKeysRemoved() {
+    MessageQueue q = new MessageQueue();
+
+    for (int tag = 0; tag < 100; tag++) {
+      q.add(new Message(Message.dataToByteArray(new int[] {tag}), 0, -tag, Message.TYPE_INT));
+      q.get(0, 0, -tag);
+    }
+
+    q.add(new Message(Message.dataToByteArray(new int[] {1}), 2, 3, Message.TYPE_INT));
+
+    assertEquals(1, q.keyCount(0));
+  }
+
+  /**
+   * Tests that messages added by several threads at once all arrive,
+   * and those from each source arrive in the order they were added.
+   */
+  @Test(timeout=10000) public void testConcurrentAdd() throws InterruptedException {
+    final MessageQueue q = new MessageQueue();
+    final int count = 10000;
+    Thread[] producers = new Thread[4];
+
+    for (int p = 0; p < producers.length; p++) {
+      final int source = p;
+
+      producers[p] = new Thread() {
+          public void run() {
+            for (int i = 0; i < count; i++) {
+              q.add(new Message(Message.dataToByteArray(new int[] {i}), source, 0, Message.TYPE_INT));
+            }
+          }
+        };
+      producers[p].start();
+    }
+
+    int[] next = new int[producers.length];
+
+    for (int i = 0; i < producers.length * count; i++) {
+      Message m = q.take(0, Mpi.ANY_SOURCE, 0);
+      assertEquals(next[m.getSource()]++, m.dataToPrimitiveInt()[0]);
+    }
+
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    assertEquals(null, q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+  }
+
+  /**
+   * A posted receive that keeps the message it is given.
+   */
+  static class Holder extends PostedReceive {
+    Message message_;
+
+    Holder(int source, int tag) {
+      super(0, source, tag);
+    }
+
+    protected void deliver(Message message) {
+      message_ = message;
+    }
+  }
+
+  /**
+   * Tests that a posted receive is filled by a matching add, in the
+   * order the receives were posted, and that other messages are
+   * queued as usual.
+   */
+  @Test public void testPostBeforeAdd() {
+    MessageQueue q = new MessageQueue();
+
+    Holder first = new Holder(Mpi.ANY_SOURCE, 4);
+    Holder second = new Holder(1, 4);
+    q.post(first);
+    q.post(second);
+
+    Message other = new Message(Message.dataToByteArray(new int[] {1}), 1, 5, Message.TYPE_INT);
+    Message a = new Message(Message.dataToByteArray(new int[] {2}), 1, 4, Message.TYPE_INT);
+    Message b = new Message(Message.dataToByteArray(new int[] {3}), 1, 4, Message.TYPE_INT);
+
+    q.add(other);
+    q.add(a);
+    assertEquals(a, first.message_);
+    assertEquals(null, second.message_);
+
+    q.add(b);
+    assertEquals(b, second.message_);
+
+    assertEquals(other, q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+    assertEquals(null, q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+  }
+
+  /**
+   * Tests that a posted receive is filled without the queue's lock
+   * held, so a slow delivery doesn't hold up other adds or receives.
+   */
+  @Test(timeout=5000) public void testDeliverOutsideLock() throws InterruptedException {
+    final MessageQueue q = new MessageQueue();
+    final CountDownLatch delivering = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    q.post(new PostedReceive(0, 1, 4) {
+        protected void deliver(Message message) {
+          delivering.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+
+    Thread adder = new Thread() {
+        public void run() {
+          q.add(new Message(Message.dataToByteArray(new int[] {1}), 1, 4, Message.TYPE_INT));
+        }
+      };
+    adder.start();
+    delivering.await();
+
+    Message m = new Message(Message.dataToByteArray(new int[] {2}), 2, 5, Message.TYPE_INT);
+    q.add(m);
+    assertEquals(m, q.take(0, 2, 5));
+
+    release.countDown();
+    adder.join();
+  }
+
+  /**
+   * Tests that posting a receive for a message that has already
+   * arrived fills it straight away.
+   */
+  @Test public void testPostAfterAdd() {
+    MessageQueue q = new MessageQueue();
+
+    Message m = new Message(Message.dataToByteArray(new int[] {1}), 2, 3, Message.TYPE_INT);
+    q.add(m);
+
+    Holder h = new Holder(2, Mpi.ANY_TAG);
+    q.post(h);
+
+    assertEquals(m, h.message_);
+    assertEquals(null, q.get(0, 2, 3));
+  }
+
+  /**
+   * Tests that messages on one context never match receives on
+   * another, even with wildcards.
+   */
+  @Test public void testContexts() {
+    MessageQueue q = new MessageQueue();
+
+    Message m = new Message(Message.dataToByteArray(new int[] {1}), 0, 0, Message.TYPE_INT);
+    m.setContext(3);
+    q.add(m);
+
+    assertEquals(null, q.get(0, Mpi.ANY_SOURCE, Mpi.ANY_TAG));
+
+    Holder h = new Holder(0, 0);
+    q.post(h);
+    assertEquals(null, h.message_);
 
-    assertTrue(tuple.equals(q.new MessageKeyTuple(0,1)));
+    assertEquals(m, q.get(3, 0, 0));
   }
 }
@@ -5,6 +5,11 @@ package uk.ac.warwick.java.mpi.system;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
 import java.util.Arrays;
 
 import uk.ac.warwick.java.mpi.Mpi;
@@ -313,6 +318,77 @@ public class MessageTest  {
     assertTrue(Arrays.equals(test, back));
   }
 
+  /**
+   * Check that a frame written with <code>writeTo</code> is the
+   * length-prefixed <code>toByteArray</code> form, and can be read
+   * back with <code>readFrom</code>.
+   */
+  @Test public void testFrameRoundTrip() throws IOException {
+    long[] test = {1, -2, Long.MAX_VALUE};
+    Message m = new Message(Message.dataToByteArray(test), 5, 6, Message.TYPE_LONG);
+    m.setContext(4);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    m.writeTo(out);
+    byte[] frame = out.toByteArray();
+
+    assertArrayEquals(Message.concat(Message.makeByte4FromInt(40), m.toByteArray()), frame);
+
+    Message back = Message.readFrom(new DataInputStream(new ByteArrayInputStream(frame)));
+
+    assertEquals(5, back.getSource());
+    assertEquals(6, back.getTag());
+    assertEquals(4, back.getContext());
+    assertEquals(Message.TYPE_LONG, back.getType());
+    assertArrayEquals(test, back.dataToPrimitiveLong());
+  }
+
+  /**
+   * Check that data can be decoded straight into an existing array at
+   * an offset, and that the data length excludes the header.
+   */
+  @Test public void testDoubleDataToPrimitiveInto() {
+    double[] test = {1.5, 2.5, 3.5};
+
+    Message m = new Message(new Message(Message.dataToByteArray(test), 1, 1, Message.TYPE_DOUBLE).toByteArray());
+
+    assertEquals(24, m.getDataLength());
+
+    double[] back = new double[5];
+    m.dataToPrimitiveDouble(back, 1);
+
+    assertArrayEquals(new double[] {0, 1.5, 2.5, 3.5, 0}, back, 0.0);
+  }
+
+  /**
+   * Check that the bulk conversions produce the same big-endian bytes
+   * as the per-element conversions, so the wire format is unchanged.
+   */
+  @Test public void testWireFormat() {
+    double[] doubles = {1.5, -0.0, Double.NaN, Double.MAX_VALUE};
+    long[] longs = {Long.MIN_VALUE, -1, 0, 262144};
+    float[] floats = {Float.MIN_VALUE, -2.5f};
+    int[] ints = {Integer.MAX_VALUE, -1024};
+
+    assertArrayEquals(Message.concat(Message.makeByte8FromDouble(doubles[0]), Message.makeByte8FromDouble(doubles[1]),
+                                     Message.makeByte8FromDouble(doubles[2]), Message.makeByte8FromDouble(doubles[3])),
+                      Message.dataToByteArray(doubles));
+    assertArrayEquals(Message.concat(Message.makeByte8FromLong(longs[0]), Message.makeByte8FromLong(longs[1]),
+                                     Message.makeByte8FromLong(longs[2]), Message.makeByte8FromLong(longs[3])),
+                      Message.dataToByteArray(longs));
+    assertArrayEquals(Message.concat(Message.makeByte4FromFloat(floats[0]), Message.makeByte4FromFloat(floats[1])),
+                      Message.dataToByteArray(floats));
+    assertArrayEquals(Message.concat(Message.makeByte4FromInt(ints[0]), Message.makeByte4FromInt(ints[1])),
+                      Message.dataToByteArray(ints));
+
+    Message m = new Message(Message.dataToByteArray(ints), 3, 7, Message.TYPE_INT);
+    m.setContext(9);
+    assertArrayEquals(Message.concat(Message.makeByte4FromInt(Message.TYPE_INT), Message.makeByte4FromInt(7),
+                                     Message.makeByte4FromInt(3), Message.makeByte4FromInt(9),
+                                     Message.dataToByteArray(ints)),
+                      m.toByteArray());
+  }
+
   /**
    * Tests that the message is correctly converted to a <code>String</code>.
    */
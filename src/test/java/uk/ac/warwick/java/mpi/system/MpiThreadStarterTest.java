@@ -0,0 +1,130 @@
+package uk.ac.warwick.java.mpi.system;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import uk.ac.warwick.java.mpi.Comm;
+import uk.ac.warwick.java.mpi.Mpi;
+import uk.ac.warwick.java.mpi.Status;
+
+
+/**
+ * Tests the MpiThreadStarter class by running a small program with
+ * each rank as a thread.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class MpiThreadStarterTest {
+
+  static final int N = 4;
+
+  static int[] sums_ = new int[N];
+  static int[] fromLeft_ = new int[N];
+  static double[] broadcast_ = new double[N];
+  static boolean[] locationsMatch_ = new boolean[N];
+
+  /**
+   * A program that passes its rank round a ring, broadcasts from rank
+   * 0 and sums the ranks.
+   */
+  public static class Ring {
+    public static void main(String[] args) {
+      Mpi.Init(args);
+
+      Comm world = Mpi.COMM_WORLD;
+      int rank = world.Rank();
+      int size = world.Size();
+
+      world.Send(new int[] {rank}, (rank + 1) % size, 3);
+
+      int[] left = new int[1];
+      world.Recv(left, (rank + size - 1) % size, 3, new Status());
+      fromLeft_[rank] = left[0];
+
+      double[] value = new double[] {rank == 0 ? 2.5 : 0.0};
+      world.Bcast(value, 0);
+      broadcast_[rank] = value[0];
+
+      int[] sum = new int[1];
+      world.AllReduce(new int[] {rank}, sum, Mpi.SUM);
+      sums_[rank] = sum[0];
+
+      world.Barrier();
+      Mpi.Finalize();
+    }
+  }
+
+  /**
+   * A program that splits the ranks into two communicators, whose
+   * roots then run MAXLOC reductions at the same time, each checking
+   * the locations it gets back.
+   */
+  public static class Locations {
+    public static void main(String[] args) {
+      Mpi.Init(args);
+
+      Comm world = Mpi.COMM_WORLD;
+      int color = world.Rank() % 2;
+      Comm half = world.Split(color, world.Rank());
+      int rank = half.Rank();
+      boolean match = true;
+
+      for (int i = 0; i < 500; i++) {
+        // Each half puts its maximum on a different rank, in an array
+        // of a different length
+        int winner = (i + color) % half.Size();
+        int[] in = new int[1000 + color];
+        Arrays.fill(in, (rank == winner) ? i + 1 : 0);
+
+        int[] out = new int[in.length];
+        half.Reduce(in, out, Mpi.MAXLOC, 0);
+
+        if (rank == 0) {
+          int[] location = Mpi.MAXLOC.getLocArray();
+          match &= location != null && location.length == in.length && location[0] == winner;
+        }
+      }
+
+      locationsMatch_[world.Rank()] = match;
+
+      world.Barrier();
+      Mpi.Finalize();
+    }
+  }
+
+  /**
+   * Checks that MAXLOC reductions on two communicators at once each
+   * see their own locations.
+   */
+  @Test(timeout=30000) public void testConcurrentLocations() throws Exception {
+    Method main = Locations.class.getDeclaredMethod("main", new Class[] { String[].class });
+
+    MpiThreadStarter.run(main, new String[0], N, 0);
+
+    for (int i = 0; i < N; i++) {
+      assertTrue(locationsMatch_[i]);
+    }
+  }
+
+  /**
+   * Checks that each thread sees its own rank through
+   * <code>COMM_WORLD</code> and that the ranks can talk to each other.
+   */
+  @Test(timeout=10000) public void testRun() throws Exception {
+    Method main = Ring.class.getDeclaredMethod("main", new Class[] { String[].class });
+
+    MpiThreadStarter.run(main, new String[0], N, 0);
+
+    for (int i = 0; i < N; i++) {
+      assertEquals((i + N - 1) % N, fromLeft_[i]);
+      assertEquals(2.5, broadcast_[i], 0.0);
+      assertEquals(N * (N - 1) / 2, sums_[i]);
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package uk.ac.warwick.java.mpi.system;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests the NioNetDevice class by sending messages to itself over the
+ * loopback interface.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class NioNetDeviceTest {
+  /**
+   * Checks that several messages sent over the same connection all
+   * arrive intact and in order.
+   */
+  @Test public void testLoopback() {
+    NioNetDevice device = new NioNetDevice(14502, 2);
+
+    for (int i = 0; i < 10; i++) {
+      device.Send(new Message(Message.dataToByteArray(new int[] {i, i+1, i+2}), 3, 7, Message.TYPE_INT),
+                  "localhost", 14502);
+    }
+
+    for (int i = 0; i < 10; i++) {
+      Message m = device.Receive(0, 3, 7);
+      assertArrayEquals(new int[] {i, i+1, i+2}, m.dataToPrimitiveInt());
+      assertEquals(3, m.getSource());
+      assertEquals(7, m.getTag());
+    }
+  }
+
+  /**
+   * Checks that a frame much larger than a single socket read is
+   * reassembled correctly.
+   */
+  @Test public void testLargeMessage() {
+    NioNetDevice device = new NioNetDevice(14503, 1);
+
+    double[] data = new double[500000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i * 0.5;
+    }
+
+    device.Send(new Message(Message.dataToByteArray(data), 1, 2, Message.TYPE_DOUBLE), "localhost", 14503);
+
+    assertArrayEquals(data, device.Receive(0, 1, 2).dataToPrimitiveDouble(), 0.0);
+  }
+
+  /**
+   * Checks that a message with no data still delivers its header.
+   */
+  @Test public void testEmptyMessage() {
+    NioNetDevice device = new NioNetDevice(14504, 1);
+
+    device.Send(new Message(Message.dataToByteArray(new int[0]), 4, 9, Message.TYPE_INT), "localhost", 14504);
+
+    Message m = device.Receive(0, 4, 9);
+    assertEquals(0, m.dataToPrimitiveInt().length);
+    assertEquals(4, m.getSource());
+    assertEquals(9, m.getTag());
+  }
+}
@@ -0,0 +1,35 @@
+package uk.ac.warwick.java.mpi.system;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests the PersistentNetDevice class by sending messages to itself
+ * over the loopback interface.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class PersistentNetDeviceTest {
+  /**
+   * Checks that several messages sent over the same connection all
+   * arrive intact and in order.
+   */
+  @Test public void testLoopback() {
+    PersistentNetDevice device = new PersistentNetDevice(14501);
+
+    for (int i = 0; i < 10; i++) {
+      device.Send(new Message(Message.dataToByteArray(new int[] {i, i+1, i+2}), 3, 7, Message.TYPE_INT),
+                  "localhost", 14501);
+    }
+
+    for (int i = 0; i < 10; i++) {
+      Message m = device.Receive(0, 3, 7);
+      assertArrayEquals(new int[] {i, i+1, i+2}, m.dataToPrimitiveInt());
+      assertEquals(3, m.getSource());
+      assertEquals(7, m.getTag());
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package uk.ac.warwick.java.mpi.system;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+
+/**
+ * Tests the SharedMemoryNetDevice class by passing messages between
+ * two devices in the same JVM.
+ *
+ * @author David Beckingsale
+ * @version 1
+ * @since 18/10/2026
+ */
+public class SharedMemoryNetDeviceTest {
+  /**
+   * Checks that messages sent in both directions all arrive intact
+   * and in order.
+   */
+  @Test(timeout=10000) public void testExchange() throws IOException {
+    String jobId = UUID.randomUUID().toString();
+
+    SharedMemoryNetDevice a = new SharedMemoryNetDevice(1, Arrays.asList(2), jobId, new MessageQueue());
+    SharedMemoryNetDevice b = new SharedMemoryNetDevice(2, Arrays.asList(1), jobId, new MessageQueue());
+
+    for (int i = 0; i < 1000; i++) {
+      a.Send(new Message(Message.dataToByteArray(new int[] {i, i+1, i+2}), 0, 7, Message.TYPE_INT), "localhost", 2);
+      b.Send(new Message(Message.dataToByteArray(new long[] {i}), 1, 8, Message.TYPE_LONG), "localhost", 1);
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      Message m = b.Receive(0, 0, 7);
+      assertArrayEquals(new int[] {i, i+1, i+2}, m.dataToPrimitiveInt());
+      assertEquals(0, m.getSource());
+
+      assertArrayEquals(new long[] {i}, a.Receive(0, 1, 8).dataToPrimitiveLong());
+    }
+  }
+
+  /**
+   * Checks that a message several times larger than the ring is
+   * passed through in pieces.
+   */
+  @Test(timeout=10000) public void testLargeMessage() throws IOException {
+    String jobId = UUID.randomUUID().toString();
+
+    SharedMemoryNetDevice a = new SharedMemoryNetDevice(1, Arrays.asList(2), jobId, new MessageQueue());
+    SharedMemoryNetDevice b = new SharedMemoryNetDevice(2, Arrays.asList(1), jobId, new MessageQueue());
+
+    double[] data = new double[SharedMemoryNetDevice.MAX_RING_SIZE / 2];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i * 0.5;
+    }
+
+    a.Send(new Message(Message.dataToByteArray(data), 0, 2, Message.TYPE_DOUBLE), "localhost", 2);
+
+    assertArrayEquals(data, b.Receive(0, 0, 2).dataToPrimitiveDouble(), 0.0);
+  }
+
+  /**
+   * Checks that one device reads from the rings of several senders,
+   * with rings smaller than the messages.
+   */
+  @Test(timeout=10000) public void testSeveralSenders() throws IOException {
+    String jobId = UUID.randomUUID().toString();
+    int ringSize = SharedMemoryNetDevice.MIN_RING_SIZE;
+
+    SharedMemoryNetDevice a = new SharedMemoryNetDevice(1, Arrays.asList(2, 3), jobId, new MessageQueue(), ringSize);
+    SharedMemoryNetDevice b = new SharedMemoryNetDevice(2, Arrays.asList(1, 3), jobId, new MessageQueue(), ringSize);
+    SharedMemoryNetDevice c = new SharedMemoryNetDevice(3, Arrays.asList(1, 2), jobId, new MessageQueue(), ringSize);
+
+    long[] data = new long[ringSize / 4];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i;
+    }
+
+    for (int i = 0; i < 10; i++) {
+      b.Send(new Message(Message.dataToByteArray(data), 1, i, Message.TYPE_LONG), "localhost", 1);
+      c.Send(new Message(Message.dataToByteArray(new int[] {i}), 2, i, Message.TYPE_INT), "localhost", 1);
+    }
+
+    for (int i = 0; i < 10; i++) {
+      assertArrayEquals(data, a.Receive(0, 1, i).dataToPrimitiveLong());
+      assertArrayEquals(new int[] {i}, a.Receive(0, 2, i).dataToPrimitiveInt());
+    }
+  }
+
+  /**
+   * Checks that rings shrink as the number of peers grows.
+   */
+  @Test public void testRingSize() {
+    assertEquals(SharedMemoryNetDevice.MAX_RING_SIZE, SharedMemoryNetDevice.ringSize(1));
+    assertEquals(SharedMemoryNetDevice.INBOUND_BYTES / 32, SharedMemoryNetDevice.ringSize(31));
+    assertEquals(SharedMemoryNetDevice.MIN_RING_SIZE, SharedMemoryNetDevice.ringSize(10000));
+  }
+}
@@ -54,6 +54,37 @@ public class ArgumentsTest  {
     assertEquals("my_id", parser.getSshId());
   }
 
+  @Test public void testNetDevice() {
+    String[] arguments = {"-netdevice", "persistent"};
+    Arguments parser  = new Arguments(arguments);
+
+    assertEquals("persistent", parser.getNetDevice());
+  }
+
+  @Test public void testDefaultNetDevice() {
+    String[] arguments = {"-n","8","-className","myApp"};
+    Arguments parser  = new Arguments(arguments);
+
+    assertEquals("simple", parser.getNetDevice());
+    assertEquals(2, parser.getIoThreads());
+    assertEquals(0, parser.getSpin());
+  }
+
+  @Test public void testSpin() {
+    String[] arguments = {"-spin", "10000"};
+    Arguments parser  = new Arguments(arguments);
+
+    assertEquals(10000, parser.getSpin());
+  }
+
+  @Test public void testIoThreads() {
+    String[] arguments = {"-netdevice", "nio", "-iothreads", "4"};
+    Arguments parser  = new Arguments(arguments);
+
+    assertEquals("nio", parser.getNetDevice());
+    assertEquals(4, parser.getIoThreads());
+  }
+
   @Test public void testArgs() {
     String[] arguments = {"--", "one", "two", "three"};
     Arguments parser = new Arguments(arguments);